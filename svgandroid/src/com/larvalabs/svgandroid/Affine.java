@@ -0,0 +1,92 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Matrix;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Affine transforms held as six floats: scale x, skew x, translate x, skew y, scale y, translate y (the first
+ * six values of an <code>android.graphics.Matrix</code>).
+ *
+ * @author Larva Labs, LLC
+ */
+final class Affine {
+
+    private Affine() {
+    }
+
+    /**
+     * @return the transform of a matrix, or null for no matrix.
+     */
+    static float[] fromMatrix(Matrix matrix) {
+        if (matrix == null) {
+            return null;
+        }
+        float[] values = new float[9];
+        matrix.getValues(values);
+        return new float[]{values[0], values[1], values[2], values[3], values[4], values[5]};
+    }
+
+    static float mapX(float[] m, float x, float y) {
+        return m == null ? x : m[0] * x + m[1] * y + m[2];
+    }
+
+    static float mapY(float[] m, float x, float y) {
+        return m == null ? y : m[3] * x + m[4] * y + m[5];
+    }
+
+    /**
+     * @return the product a * b (b applied first), either may be null for the identity.
+     */
+    static float[] concat(float[] a, float[] b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        return new float[]{
+                a[0] * b[0] + a[1] * b[3], a[0] * b[1] + a[1] * b[4], a[0] * b[2] + a[1] * b[5] + a[2],
+                a[3] * b[0] + a[4] * b[3], a[3] * b[1] + a[4] * b[4], a[3] * b[2] + a[4] * b[5] + a[5],
+        };
+    }
+
+    /**
+     * @return the inverse, null for the identity, or null if the transform can't be inverted.
+     */
+    static float[] invert(float[] m) {
+        if (m == null) {
+            return null;
+        }
+        float det = m[0] * m[4] - m[1] * m[3];
+        if (det == 0) {
+            return null;
+        }
+        return new float[]{
+                m[4] / det, -m[1] / det, (m[1] * m[5] - m[4] * m[2]) / det,
+                -m[3] / det, m[0] / det, (m[3] * m[2] - m[0] * m[5]) / det,
+        };
+    }
+
+    /**
+     * @return how much the transform scales lengths, on average.
+     */
+    static float scale(float[] m) {
+        return m == null ? 1 : (float) Math.sqrt(Math.abs(m[0] * m[4] - m[1] * m[3]));
+    }
+}
@@ -0,0 +1,196 @@
+package com.larvalabs.svgandroid;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A single &lt;animate&gt;, &lt;animateTransform&gt; or &lt;set&gt; element, compiled in to flat arrays of key times
+ * and values so that it can be sampled at any time without allocating. Each value is {@link #stride} floats: one for
+ * an opacity or visibility, three for a colour (red, green and blue) or a transform (its parameters, with defaults
+ * filled in).
+ * <p/>
+ * Uses no Android classes, so it runs (and can be tested) on a plain JVM.
+ *
+ * @author Larva Labs, LLC
+ */
+final class Animation {
+
+    static final int CALC_DISCRETE = 0;
+    static final int CALC_LINEAR = 1;
+    static final int CALC_SPLINE = 2;
+
+    static final int TRANSFORM_TRANSLATE = 0;
+    static final int TRANSFORM_SCALE = 1;
+    static final int TRANSFORM_ROTATE = 2;
+    static final int TRANSFORM_SKEW_X = 3;
+    static final int TRANSFORM_SKEW_Y = 4;
+
+    /**
+     * The number of bisection steps taken to invert the x of a key spline.
+     */
+    private static final int SPLINE_STEPS = 16;
+
+    /**
+     * The start, the length of one repeat, and the length of all repeats, in seconds. Either length may be infinite.
+     */
+    final float begin;
+    final float duration;
+    final float activeDuration;
+
+    /**
+     * Whether the last value is kept once the animation ends, rather than going back to the element's own value.
+     */
+    final boolean freeze;
+
+    /**
+     * Whether a transform is applied on top of the element's transform, rather than replacing it. Only transforms
+     * are additive, the parser leaves out additive animations of anything else.
+     */
+    final boolean additive;
+
+    final int calcMode;
+
+    /**
+     * For transforms, which kind of transform the values are for, one of the <code>TRANSFORM_</code> constants.
+     */
+    final int transformType;
+
+    final int stride;
+    final int keyCount;
+    final float[] keyTimes;
+    final float[] values;
+
+    /**
+     * The control points of the spline of each interval, four floats each, or null unless spline interpolated.
+     */
+    final float[] keySplines;
+
+    Animation(float begin, float duration, float activeDuration, boolean freeze, boolean additive, int calcMode,
+              int transformType, int stride, float[] values, float[] keyTimes, float[] keySplines) {
+        this.begin = begin;
+        this.duration = duration;
+        this.activeDuration = activeDuration;
+        this.freeze = freeze;
+        this.additive = additive;
+        this.transformType = transformType;
+        this.stride = stride;
+        this.values = values;
+        keyCount = values.length / stride;
+        this.calcMode = keyCount == 1 ? CALC_DISCRETE : calcMode;
+        this.keySplines = this.calcMode == CALC_SPLINE ? keySplines : null;
+        if (keyTimes != null) {
+            this.keyTimes = keyTimes;
+        } else {
+            // Evenly spaced, with the last value taking up an interval of its own if the values are discrete
+            this.keyTimes = new float[keyCount];
+            int intervals = this.calcMode == CALC_DISCRETE ? keyCount : keyCount - 1;
+            for (int i = 0; i < keyCount; i++) {
+                this.keyTimes[i] = intervals == 0 ? 0 : (float) i / intervals;
+            }
+        }
+    }
+
+    /**
+     * @return the time at which the animation stops changing, which may be infinite.
+     */
+    float getEnd() {
+        return begin + activeDuration;
+    }
+
+    /**
+     * Gets the value of the animation at a time.
+     * @param time the time in seconds.
+     * @param out the value is written here.
+     * @return false if the animation has no effect at that time (before it begins, or after it ends without being
+     * frozen), in which case nothing is written.
+     */
+    boolean sample(float time, float[] out) {
+        float local = time - begin;
+        if (local < 0) {
+            return false;
+        }
+        float progress;
+        if (local >= activeDuration) {
+            if (!freeze) {
+                return false;
+            }
+            // Frozen where the last repeat ended, which is part way through if the repeat count isn't whole
+            if (Float.isInfinite(duration)) {
+                progress = 0;
+            } else {
+                float repeats = activeDuration / duration;
+                progress = repeats - (float) Math.floor(repeats);
+                if (progress == 0) {
+                    progress = 1;
+                }
+            }
+        } else {
+            progress = Float.isInfinite(duration) ? 0 : (local % duration) / duration;
+        }
+        interpolate(progress, out);
+        return true;
+    }
+
+    private void interpolate(float progress, float[] out) {
+        float[] t = keyTimes;
+        if (calcMode == CALC_DISCRETE) {
+            int i = 0;
+            while (i + 1 < keyCount && progress >= t[i + 1]) {
+                i++;
+            }
+            System.arraycopy(values, i * stride, out, 0, stride);
+            return;
+        }
+        int i = 0;
+        while (i + 2 < keyCount && progress >= t[i + 1]) {
+            i++;
+        }
+        float span = t[i + 1] - t[i];
+        float f = span <= 0 ? 1 : Math.max(0, Math.min(1, (progress - t[i]) / span));
+        if (keySplines != null) {
+            f = spline(f, keySplines[4 * i], keySplines[4 * i + 1], keySplines[4 * i + 2], keySplines[4 * i + 3]);
+        }
+        int a = i * stride;
+        int b = a + stride;
+        for (int k = 0; k < stride; k++) {
+            out[k] = values[a + k] + (values[b + k] - values[a + k]) * f;
+        }
+    }
+
+    /**
+     * Evaluates a key spline: a cubic Bezier from (0, 0) to (1, 1) with the given control points, at an x.
+     */
+    private static float spline(float x, float x1, float y1, float x2, float y2) {
+        float low = 0, high = 1;
+        float s = x;
+        for (int step = 0; step < SPLINE_STEPS; step++) {
+            s = (low + high) / 2;
+            if (bezier(s, x1, x2) < x) {
+                low = s;
+            } else {
+                high = s;
+            }
+        }
+        return bezier(s, y1, y2);
+    }
+
+    private static float bezier(float s, float p1, float p2) {
+        float u = 1 - s;
+        return 3 * u * u * s * p1 + 3 * u * s * s * p2 + s * s * s;
+    }
+}
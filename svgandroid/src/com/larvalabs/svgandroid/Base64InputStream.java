@@ -0,0 +1,140 @@
+package com.larvalabs.svgandroid;
+
+import java.io.InputStream;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Decodes base64 text as it is read, straight from the characters of a string, so that a large data URI never has to
+ * be copied or decoded in to an intermediate buffer. Whitespace is skipped, and decoding stops at padding or at the
+ * first character that isn't part of the base64 alphabet.
+ *
+ * @author Larva Labs, LLC
+ */
+class Base64InputStream extends InputStream {
+
+    private static final int[] DECODE = new int[128];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++) {
+            DECODE[i] = -1;
+        }
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = i;
+        }
+        // URL-safe variants
+        DECODE['-'] = 62;
+        DECODE['_'] = 63;
+    }
+
+    private final CharSequence chars;
+    private int pos;
+    private final int end;
+
+    // Up to three decoded bytes waiting to be read
+    private int buffer = 0;
+    private int buffered = 0;
+    private boolean done = false;
+
+    /**
+     * @param chars the text holding the base64 data.
+     * @param start the index of the first base64 character.
+     */
+    Base64InputStream(CharSequence chars, int start) {
+        this.chars = chars;
+        this.pos = start;
+        this.end = chars.length();
+    }
+
+    @Override
+    public int read() {
+        if (buffered == 0 && !fill()) {
+            return -1;
+        }
+        buffered--;
+        return (buffer >> (8 * buffered)) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len) {
+            if (buffered == 0 && !fill()) {
+                break;
+            }
+            buffered--;
+            b[off + n++] = (byte) (buffer >> (8 * buffered));
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public int available() {
+        // Every four characters left make at most three bytes
+        return buffered + (end - pos) / 4 * 3;
+    }
+
+    /**
+     * Decodes the next group of up to four characters.
+     * @return false at the end of the data.
+     */
+    private boolean fill() {
+        if (done) {
+            return false;
+        }
+        int bits = 0;
+        int count = 0;
+        while (count < 4 && pos < end) {
+            char c = chars.charAt(pos++);
+            int v = c < 128 ? DECODE[c] : -1;
+            if (v >= 0) {
+                bits = (bits << 6) | v;
+                count++;
+            } else if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                // Padding, or the end of the data
+                done = true;
+                break;
+            }
+        }
+        if (pos >= end) {
+            done = true;
+        }
+        switch (count) {
+            case 4:
+                buffer = bits;
+                buffered = 3;
+                return true;
+            case 3:
+                buffer = bits >> 2;
+                buffered = 2;
+                return true;
+            case 2:
+                buffer = bits >> 4;
+                buffered = 1;
+                return true;
+            default:
+                done = true;
+                return false;
+        }
+    }
+}
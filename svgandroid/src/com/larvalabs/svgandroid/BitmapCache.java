@@ -0,0 +1,180 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A least-recently-used cache of bitmaps rendered from SVG content at a particular device scale, bounded by the
+ * number of bytes of pixel data it holds. Evicted bitmaps are never recycled, since the cache is shared and another
+ * thread may be drawing a bitmap at the moment it is evicted; they are freed once nothing refers to them any more.
+ * Bitmaps larger than the whole cache are not kept at all.
+ *
+ * @author Larva Labs, LLC
+ */
+class BitmapCache {
+
+    /**
+     * The default maximum size of the shared cache, in bytes.
+     */
+    static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The cache shared by all parsed SVGs.
+     */
+    static final BitmapCache SHARED = new BitmapCache(DEFAULT_MAX_BYTES);
+
+    /**
+     * Scales are rounded to this many steps per unit, so that tiny floating point differences in the canvas matrix
+     * don't cause a re-render.
+     */
+    private static final float SCALE_STEPS = 64f;
+
+    /**
+     * The largest width or height of a cached bitmap, in pixels.
+     */
+    static final int MAX_DIMENSION = 2048;
+
+    /**
+     * Identifies a cached bitmap by the object that rendered it and the device scale it was rendered at. Owners are
+     * compared with <code>equals</code>, which is identity for nodes and masks.
+     */
+    static class Key {
+        final Object owner;
+        final float scale;
+
+        Key(Object owner, float scale) {
+            this.owner = owner;
+            this.scale = scale;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return owner.equals(other.owner) && scale == other.scale;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * owner.hashCode() + Float.floatToIntBits(scale);
+        }
+    }
+
+    private final LinkedHashMap<Key, Bitmap> map = new LinkedHashMap<Key, Bitmap>(16, 0.75f, true);
+    private int maxBytes;
+    private int bytes = 0;
+
+    BitmapCache(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized Bitmap get(Key key) {
+        return map.get(key);
+    }
+
+    /**
+     * Keeps a bitmap in the cache, evicting the least recently used bitmaps to make room. The caller can go on using
+     * the bitmap whether or not it was kept.
+     */
+    synchronized void put(Key key, Bitmap bitmap) {
+        Bitmap old = map.remove(key);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        int size = sizeOf(bitmap);
+        if (size > maxBytes) {
+            return;
+        }
+        // Make room first, so that the new bitmap is never the one evicted
+        trimTo(maxBytes - size);
+        map.put(key, bitmap);
+        bytes += size;
+    }
+
+    /**
+     * Removes every bitmap rendered by the given owner, at any scale.
+     * @param owner the object that rendered the bitmaps.
+     */
+    synchronized void removeAll(Object owner) {
+        Iterator<Map.Entry<Key, Bitmap>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Bitmap> entry = it.next();
+            if (entry.getKey().owner.equals(owner)) {
+                bytes -= sizeOf(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        trimTo(maxBytes);
+    }
+
+    synchronized int getBytes() {
+        return bytes;
+    }
+
+    private void trimTo(int size) {
+        Iterator<Map.Entry<Key, Bitmap>> it = map.entrySet().iterator();
+        while (bytes > size && it.hasNext()) {
+            bytes -= sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Gets the scale at which the canvas currently draws, rounded so that it can be used as a cache key.
+     * @param canvas the canvas.
+     * @return the device scale, the larger of the horizontal and vertical scale factors.
+     */
+    static float getDeviceScale(Canvas canvas) {
+        Matrix matrix = canvas.getMatrix();
+        float[] values = new float[9];
+        matrix.getValues(values);
+        float sx = (float) Math.sqrt(values[Matrix.MSCALE_X] * values[Matrix.MSCALE_X] + values[Matrix.MSKEW_Y] * values[Matrix.MSKEW_Y]);
+        float sy = (float) Math.sqrt(values[Matrix.MSKEW_X] * values[Matrix.MSKEW_X] + values[Matrix.MSCALE_Y] * values[Matrix.MSCALE_Y]);
+        float scale = Math.round(Math.max(sx, sy) * SCALE_STEPS) / SCALE_STEPS;
+        return scale > 0 ? scale : 1f / SCALE_STEPS;
+    }
+
+    /**
+     * Limits a scale so that content of the given size rendered at that scale fits within {@link #MAX_DIMENSION}.
+     */
+    static float clampScale(float scale, float width, float height) {
+        float max = Math.max(width, height) * scale;
+        if (max > MAX_DIMENSION) {
+            return scale * MAX_DIMENSION / max;
+        }
+        return scale;
+    }
+}
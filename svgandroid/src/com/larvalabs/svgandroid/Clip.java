@@ -0,0 +1,113 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * The geometry of a parsed &lt;clipPath&gt; element. Rectangular clips are detected when the clip is built, so that
+ * they can be applied with the much cheaper <code>clipRect</code>, or intersected with the clipped shapes up front.
+ *
+ * @author Larva Labs, LLC
+ */
+class Clip {
+
+    /**
+     * The clip geometry as a path. Always set, even for rectangular clips.
+     */
+    final Path path;
+
+    /**
+     * The clip rectangle if this clip is an axis-aligned rectangle, otherwise null.
+     */
+    final RectF rect;
+
+    /**
+     * The bounds of the clip geometry.
+     */
+    final RectF bounds = new RectF();
+
+    Clip(Path path) {
+        this.path = path;
+        RectF r = new RectF();
+        if (path.isRect(r)) {
+            r.sort();
+            rect = r;
+            bounds.set(r);
+        } else {
+            rect = null;
+            path.computeBounds(bounds, false);
+        }
+    }
+
+    Clip(RectF rect) {
+        this.rect = new RectF(rect);
+        this.rect.sort();
+        path = new Path();
+        path.addRect(this.rect, Path.Direction.CW);
+        bounds.set(this.rect);
+    }
+
+    /**
+     * Creates a copy of this clip, in the co-ordinate space of a parent that applies the given transform.
+     * @param matrix the transform.
+     * @return the transformed clip.
+     */
+    Clip transform(Matrix matrix) {
+        if (rect != null && matrix.rectStaysRect()) {
+            RectF r = new RectF();
+            matrix.mapRect(r, rect);
+            return new Clip(r);
+        }
+        Path p = new Path();
+        path.transform(matrix, p);
+        return new Clip(p);
+    }
+
+    /**
+     * Intersects this clip with another, provided both are rectangles.
+     * @param other the other clip.
+     * @return the intersection (which may be empty), or null if either clip is not a rectangle.
+     */
+    Clip intersect(Clip other) {
+        if (rect == null || other.rect == null) {
+            return null;
+        }
+        RectF r = new RectF();
+        if (!r.setIntersect(rect, other.rect)) {
+            r.setEmpty();
+        }
+        return new Clip(r);
+    }
+
+    /**
+     * Applies this clip to a canvas.
+     * @param canvas the canvas to clip.
+     */
+    void apply(Canvas canvas) {
+        if (rect != null) {
+            canvas.clipRect(rect);
+        } else {
+            canvas.clipPath(path);
+        }
+    }
+}
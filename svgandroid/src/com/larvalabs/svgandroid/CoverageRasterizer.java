@@ -0,0 +1,142 @@
+package com.larvalabs.svgandroid;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Finds which pixels a shape covers, without antialiasing: a pixel is covered if its centre is inside the fill, or
+ * within half the stroke width of the outline. Pixels are marked in a mask covering a window of the pixel grid, with
+ * index <code>(y - top) * (right - left) + (x - left)</code>.
+ * <p/>
+ * Uses no Android classes, so it runs (and can be tested) on a plain JVM.
+ *
+ * @author Larva Labs, LLC
+ */
+final class CoverageRasterizer {
+
+    private CoverageRasterizer() {
+    }
+
+    /**
+     * Marks the pixels inside the area filled by a path.
+     * @param path the flattened path.
+     * @param transform the transform from the path's co-ordinates to pixels, in the order used by {@link Affine}, or
+     * null for none.
+     * @param evenOdd true for the even-odd fill rule, false for non-zero.
+     * @param left the window, in pixels.
+     * @param top the window, in pixels.
+     * @param right the window, in pixels.
+     * @param bottom the window, in pixels.
+     * @param mask the mask to mark.
+     */
+    static void fill(FlattenedPath path, float[] transform, boolean evenOdd, int left, int top, int right, int bottom,
+                     boolean[] mask) {
+        int n = path.getPointCount();
+        // Each edge from its upper to its lower end, with +1 for edges that went downwards in the path
+        float[] x0 = new float[n], y0 = new float[n], x1 = new float[n], y1 = new float[n];
+        int[] dir = new int[n];
+        int edgeCount = 0;
+        for (int contour = 0; contour < path.getContourCount(); contour++) {
+            int start = path.getContourStart(contour);
+            int end = path.getContourEnd(contour);
+            // Every contour is filled as if closed
+            float lastX = Affine.mapX(transform, path.getX(end - 1), path.getY(end - 1));
+            float lastY = Affine.mapY(transform, path.getX(end - 1), path.getY(end - 1));
+            for (int i = start; i < end; i++) {
+                float x = Affine.mapX(transform, path.getX(i), path.getY(i));
+                float y = Affine.mapY(transform, path.getX(i), path.getY(i));
+                if (y != lastY) {
+                    boolean down = lastY < y;
+                    x0[edgeCount] = down ? lastX : x;
+                    y0[edgeCount] = down ? lastY : y;
+                    x1[edgeCount] = down ? x : lastX;
+                    y1[edgeCount] = down ? y : lastY;
+                    dir[edgeCount] = down ? 1 : -1;
+                    edgeCount++;
+                }
+                lastX = x;
+                lastY = y;
+            }
+        }
+        int width = right - left;
+        float[] xs = new float[edgeCount];
+        int[] ds = new int[edgeCount];
+        for (int y = top; y < bottom; y++) {
+            float center = y + 0.5f;
+            int crossings = 0;
+            for (int e = 0; e < edgeCount; e++) {
+                if (y0[e] <= center && center < y1[e]) {
+                    float x = x0[e] + (center - y0[e]) * (x1[e] - x0[e]) / (y1[e] - y0[e]);
+                    // Insertion sort by x, as there are usually only a few crossings
+                    int j = crossings - 1;
+                    while (j >= 0 && xs[j] > x) {
+                        xs[j + 1] = xs[j];
+                        ds[j + 1] = ds[j];
+                        j--;
+                    }
+                    xs[j + 1] = x;
+                    ds[j + 1] = dir[e];
+                    crossings++;
+                }
+            }
+            int winding = 0;
+            for (int i = 0; i + 1 < crossings; i++) {
+                winding += ds[i];
+                if (evenOdd ? (winding & 1) != 0 : winding != 0) {
+                    // The pixels whose centres lie between this crossing and the next
+                    int from = Math.max(left, (int) Math.ceil(xs[i] - 0.5f));
+                    int to = Math.min(right, (int) Math.ceil(xs[i + 1] - 0.5f));
+                    int row = (y - top) * width - left;
+                    for (int x = from; x < to; x++) {
+                        mask[row + x] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the pixels covered by the stroke of a path, treating every join and cap as round.
+     * @param path the flattened path, in its own co-ordinates.
+     * @param transform the transform from the path's co-ordinates to pixels, or null for none.
+     * @param halfWidth half the stroke width, in the path's co-ordinates.
+     * @param left the window, in pixels.
+     * @param top the window, in pixels.
+     * @param right the window, in pixels.
+     * @param bottom the window, in pixels.
+     * @param mask the mask to mark.
+     */
+    static void stroke(FlattenedPath path, float[] transform, float halfWidth, int left, int top, int right,
+                       int bottom, boolean[] mask) {
+        float[] inverse = Affine.invert(transform);
+        if (transform != null && inverse == null) {
+            return;
+        }
+        int width = right - left;
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                // The stroke is defined in the path's co-ordinates, so measure the distance there
+                float px = Affine.mapX(inverse, x + 0.5f, y + 0.5f);
+                float py = Affine.mapY(inverse, x + 0.5f, y + 0.5f);
+                if (path.isNear(px, py, halfWidth)) {
+                    mask[(y - top) * width + x - left] = true;
+                }
+            }
+        }
+    }
+}
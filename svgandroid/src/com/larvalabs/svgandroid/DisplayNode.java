@@ -0,0 +1,903 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A single recorded drawing operation: either one SVG shape (with its fill and stroke paints) or a group of child
+ * nodes composited through an offscreen layer.
+ * <p/>
+ * The parser records nodes rather than drawing straight to the picture, so that decisions which depend on a whole
+ * group (such as how to apply group opacity) can be made before anything is committed to the canvas.
+ *
+ * @author Larva Labs, LLC
+ */
+class DisplayNode {
+
+    static final int KIND_RECT = 0;
+    static final int KIND_OVAL = 1;
+    static final int KIND_LINE = 2;
+    static final int KIND_PATH = 3;
+    static final int KIND_GROUP = 4;
+    static final int KIND_IMAGE = 5;
+
+    /**
+     * The kind of node, one of the <code>KIND_</code> constants.
+     */
+    int kind;
+
+    /**
+     * The element id, may be null.
+     */
+    String id;
+
+    /**
+     * Geometry for rectangles, ovals and the viewport of images. For lines, holds the two end points as (left, top) and (right, bottom).
+     */
+    RectF rect;
+
+    /**
+     * Geometry for paths.
+     */
+    Path path;
+
+    /**
+     * The same geometry in packed form, or null for paths that weren't parsed from path data (such as text).
+     */
+    PackedPath packed;
+
+    /**
+     * The fill and stroke paints, either may be null if the shape isn't filled or stroked. Images are drawn with the
+     * fill paint.
+     */
+    Paint fill;
+    Paint stroke;
+
+    /**
+     * The embedded image drawn by an image node, and whether it is stretched to its viewport rather than fitted in to
+     * it.
+     */
+    EmbeddedImage image;
+    boolean imageStretch;
+
+    /**
+     * Whether a path is filled with the even-odd rule rather than non-zero.
+     */
+    boolean evenOdd;
+
+    /**
+     * The gradient the shape is filled with, or null. The fill paint already holds the gradient's shader, this is
+     * kept for exporting the shape to other renderers.
+     */
+    SVGParser.Gradient fillGradient;
+
+    /**
+     * The pattern the shape is filled with, or null. The fill paint's shader is swapped for a tile at the right scale
+     * each time the node is drawn.
+     */
+    Pattern fillPattern;
+
+    /**
+     * The element transform, or null if the element isn't transformed.
+     */
+    Matrix matrix;
+
+    /**
+     * The clip applied to this node, in its parent's co-ordinates (so it is applied before the node's own matrix), or
+     * null if the node isn't clipped.
+     */
+    Clip clip;
+
+    /**
+     * The mask applied to this node, in the node's own co-ordinates, or null if the node isn't masked.
+     */
+    Mask mask;
+
+    /**
+     * The filter applied to this node, or null. And the area the filtered output covers, in the parent's
+     * co-ordinates: the bounds before any clip, spread by the filter. The clip is applied to the filtered output.
+     */
+    Filter filter;
+    RectF filterRegion;
+
+    /**
+     * The markers drawn on the vertices of this shape, or null.
+     */
+    Marker.Placement markers;
+
+    /**
+     * The bounds of this node in its parent's co-ordinates, including the stroke.
+     */
+    RectF bounds = new RectF();
+
+    /**
+     * The children of a group node.
+     */
+    ArrayList<DisplayNode> children;
+
+    /**
+     * The opacity with which a group node's layer is composited, from 0 to 255. Fully opaque groups are drawn without
+     * a layer (they are only kept as a group when they share a clip that can't be pushed down to the children).
+     */
+    int alpha = 255;
+
+    /**
+     * Whether the node is drawn at all, false once it has been hidden through {@link SVGElement#setVisible(boolean)}.
+     */
+    boolean visible = true;
+
+    /**
+     * The transform an animation draws the node with, on top of its own, or null if its transform isn't animated (see
+     * {@link SVGTimeline}). Nodes that are animated, or contain animated nodes, are never skipped by a viewport, since
+     * their bounds don't follow the animation.
+     */
+    Matrix animation;
+    boolean animated;
+
+    /**
+     * The number of shapes in this node (1 for a shape, and all of the shapes within it for a group), and an index over
+     * the bounds of a group's children when it has enough of them. Both are made the first time they are needed.
+     */
+    private int shapeCount = 0;
+    private SpatialIndex childIndex = null;
+
+    DisplayNode(int kind) {
+        this.kind = kind;
+    }
+
+    static DisplayNode rect(float left, float top, float right, float bottom) {
+        DisplayNode node = new DisplayNode(KIND_RECT);
+        node.rect = new RectF(left, top, right, bottom);
+        return node;
+    }
+
+    static DisplayNode oval(float left, float top, float right, float bottom) {
+        DisplayNode node = new DisplayNode(KIND_OVAL);
+        node.rect = new RectF(left, top, right, bottom);
+        return node;
+    }
+
+    static DisplayNode line(float x1, float y1, float x2, float y2) {
+        DisplayNode node = new DisplayNode(KIND_LINE);
+        node.rect = new RectF(x1, y1, x2, y2);
+        return node;
+    }
+
+    static DisplayNode path(Path path) {
+        DisplayNode node = new DisplayNode(KIND_PATH);
+        node.path = path;
+        return node;
+    }
+
+    static DisplayNode path(PackedPath packed) {
+        DisplayNode node = path(packed.toPath());
+        node.packed = packed;
+        return node;
+    }
+
+    static DisplayNode image(EmbeddedImage image, float x, float y, float width, float height, boolean stretch) {
+        DisplayNode node = new DisplayNode(KIND_IMAGE);
+        node.image = image;
+        node.rect = new RectF(x, y, x + width, y + height);
+        node.imageStretch = stretch;
+        node.fill = new Paint(Paint.FILTER_BITMAP_FLAG);
+        return node;
+    }
+
+    static DisplayNode group(ArrayList<DisplayNode> children, int alpha) {
+        DisplayNode node = new DisplayNode(KIND_GROUP);
+        node.children = children;
+        node.alpha = alpha;
+        node.bounds.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        for (DisplayNode child : children) {
+            node.bounds.union(child.bounds);
+        }
+        return node;
+    }
+
+    /**
+     * Gets the area covered by this shape's geometry, in the node's own co-ordinates. Lines cover no area.
+     * @return the geometry as a path.
+     */
+    Path toPath() {
+        switch (kind) {
+            case KIND_RECT: {
+                Path p = new Path();
+                p.addRect(rect, Path.Direction.CW);
+                return p;
+            }
+            case KIND_OVAL: {
+                Path p = new Path();
+                p.addOval(rect, Path.Direction.CW);
+                return p;
+            }
+            case KIND_PATH:
+                return path;
+            default:
+                return new Path();
+        }
+    }
+
+    /**
+     * Gets this shape's geometry in packed form, in the node's own co-ordinates.
+     * @return the geometry, or null for images and for paths that weren't parsed from path data (such as text).
+     */
+    PackedPath toPackedPath() {
+        switch (kind) {
+            case KIND_RECT: {
+                PackedPath p = new PackedPath();
+                p.moveTo(rect.left, rect.top);
+                p.lineTo(rect.right, rect.top);
+                p.lineTo(rect.right, rect.bottom);
+                p.lineTo(rect.left, rect.bottom);
+                p.close();
+                return p;
+            }
+            case KIND_OVAL:
+                return ovalPath(rect.left, rect.top, rect.right, rect.bottom);
+            case KIND_LINE: {
+                PackedPath p = new PackedPath();
+                p.moveTo(rect.left, rect.top);
+                p.lineTo(rect.right, rect.bottom);
+                return p;
+            }
+            case KIND_PATH:
+                return packed;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Builds an ellipse out of four cubic curves.
+     */
+    private static PackedPath ovalPath(float left, float top, float right, float bottom) {
+        // The distance of the control points along the tangent, for a quarter circle of radius 1
+        final float k = 0.5522848f;
+        float cx = (left + right) / 2;
+        float cy = (top + bottom) / 2;
+        float rx = (right - left) / 2;
+        float ry = (bottom - top) / 2;
+        PackedPath p = new PackedPath();
+        p.moveTo(right, cy);
+        p.cubicTo(right, cy + k * ry, cx + k * rx, bottom, cx, bottom);
+        p.cubicTo(cx - k * rx, bottom, left, cy + k * ry, left, cy);
+        p.cubicTo(left, cy - k * ry, cx - k * rx, top, cx, top);
+        p.cubicTo(cx + k * rx, top, right, cy - k * ry, right, cy);
+        p.close();
+        return p;
+    }
+
+    /**
+     * Clips this node, resolving as much of the clip as possible right now so that it doesn't have to be applied
+     * while drawing.
+     * @param c the clip, in this node's parent co-ordinates.
+     * @return false if the node is entirely clipped away and shouldn't be drawn at all.
+     */
+    boolean applyClip(Clip c) {
+        if (clip != null) {
+            c = clip.intersect(c);
+            if (c == null) {
+                throw new IllegalStateException("Can't combine non-rectangular clips");
+            }
+        }
+        if (!RectF.intersects(bounds, c.bounds)) {
+            return false;
+        }
+        if (c.rect != null && c.rect.contains(bounds)) {
+            // The clip doesn't cut anything off
+            clip = null;
+            return true;
+        }
+        clip = c;
+        if (kind == KIND_RECT && c.rect != null && stroke == null && filter == null) {
+            // A filled rectangle clipped by a rectangle is just a smaller rectangle (unless it is blurred first)
+            RectF local = c.rect;
+            if (matrix != null) {
+                Matrix inverse = new Matrix();
+                if (!matrix.rectStaysRect() || !matrix.invert(inverse)) {
+                    return true;
+                }
+                local = new RectF();
+                inverse.mapRect(local, c.rect);
+            }
+            if (!rect.intersect(local)) {
+                return false;
+            }
+            clip = null;
+            computeBounds();
+        } else {
+            bounds.intersect(c.bounds);
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether a clip could be pushed down on to this node by {@link #applyClip(Clip)}.
+     */
+    boolean canTakeClip(Clip c) {
+        return clip == null || (clip.rect != null && c.rect != null);
+    }
+
+    /**
+     * Computes the bounds of this shape node, in its parent's co-ordinates. Must be called once the paints and
+     * matrix have been set. The geometry is transformed before its bounds are taken, and curves are bounded by their
+     * extremes rather than their control points, so the bounds are exact; only the stroke outset is conservative (for
+     * miter joins and square caps).
+     */
+    void computeBounds() {
+        if (kind == KIND_GROUP) {
+            return;
+        }
+        float[] m = Affine.fromMatrix(matrix);
+        getTransformedGeometryBounds(bounds, m);
+        if (stroke != null) {
+            // A circle of the outset radius around each point of the geometry, transformed
+            float outset = strokeOutset(stroke);
+            float dx = m == null ? outset : outset * (float) Math.sqrt(m[0] * m[0] + m[1] * m[1]);
+            float dy = m == null ? outset : outset * (float) Math.sqrt(m[3] * m[3] + m[4] * m[4]);
+            bounds.inset(-dx, -dy);
+        }
+        if (markers != null) {
+            RectF markerBounds = new RectF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+            markers.unionBounds(markerBounds);
+            if (matrix != null) {
+                matrix.mapRect(markerBounds);
+            }
+            bounds.union(markerBounds);
+        }
+    }
+
+    /**
+     * Computes the bounds of this node again after its transform, or the transform of anything in a group, has changed.
+     * The bounds of groups within a group are updated too, but those of shapes within it are taken as they are.
+     */
+    void updateBounds() {
+        if (kind == KIND_GROUP) {
+            bounds.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+            for (DisplayNode child : children) {
+                if (child.kind == KIND_GROUP) {
+                    child.updateBounds();
+                }
+                bounds.union(child.bounds);
+            }
+            synchronized (this) {
+                childIndex = null;
+            }
+        } else {
+            computeBounds();
+        }
+        // As when the node was parsed: spread by any filter, clipped, and cut down to any mask
+        if (filter != null) {
+            filter.outset(this);
+        }
+        if (clip != null && !bounds.intersect(clip.bounds)) {
+            bounds.setEmpty();
+        }
+        if (mask != null) {
+            RectF maskBounds = new RectF(mask.bounds);
+            if (matrix != null) {
+                matrix.mapRect(maskBounds);
+            }
+            if (!bounds.intersect(maskBounds)) {
+                bounds.setEmpty();
+            }
+        }
+    }
+
+    /**
+     * Gets the exact bounds of this shape's geometry after a transform, not including the stroke.
+     */
+    private void getTransformedGeometryBounds(RectF out, float[] m) {
+        switch (kind) {
+            case KIND_RECT:
+            case KIND_IMAGE:
+            case KIND_LINE: {
+                float[] x = {Affine.mapX(m, rect.left, rect.top), Affine.mapX(m, rect.right, rect.top),
+                        Affine.mapX(m, rect.right, rect.bottom), Affine.mapX(m, rect.left, rect.bottom)};
+                float[] y = {Affine.mapY(m, rect.left, rect.top), Affine.mapY(m, rect.right, rect.top),
+                        Affine.mapY(m, rect.right, rect.bottom), Affine.mapY(m, rect.left, rect.bottom)};
+                // A line only goes between two of the corners
+                int step = kind == KIND_LINE ? 2 : 1;
+                out.set(x[0], y[0], x[0], y[0]);
+                for (int i = step; i < 4; i += step) {
+                    out.union(x[i], y[i]);
+                }
+                break;
+            }
+            case KIND_OVAL: {
+                // The extents of a transformed ellipse, from the transformed semi-axes
+                float cx = rect.centerX();
+                float cy = rect.centerY();
+                float rx = rect.width() / 2;
+                float ry = rect.height() / 2;
+                float x = Affine.mapX(m, cx, cy);
+                float y = Affine.mapY(m, cx, cy);
+                float ex = m == null ? rx : (float) Math.sqrt(m[0] * rx * m[0] * rx + m[1] * ry * m[1] * ry);
+                float ey = m == null ? ry : (float) Math.sqrt(m[3] * rx * m[3] * rx + m[4] * ry * m[4] * ry);
+                out.set(x - ex, y - ey, x + ex, y + ey);
+                break;
+            }
+            case KIND_PATH:
+                if (packed != null) {
+                    packed.computeTightBounds(out, m);
+                } else {
+                    path.computeBounds(out, true);
+                    if (matrix != null) {
+                        matrix.mapRect(out);
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Gets the bounds of this shape's geometry in its own co-ordinates, not including the stroke.
+     * @param out the rectangle to store the bounds in.
+     */
+    void getGeometryBounds(RectF out) {
+        getTransformedGeometryBounds(out, null);
+    }
+
+    /**
+     * Gets how far a stroke can reach beyond the geometry it strokes. Conservative for miter joins and square caps.
+     */
+    static float strokeOutset(Paint stroke) {
+        float halfWidth = stroke.getStrokeWidth() / 2;
+        if (stroke.getStrokeJoin() == Paint.Join.MITER) {
+            return halfWidth * Math.max(stroke.getStrokeMiter(), 1.5f);
+        } else if (stroke.getStrokeCap() == Paint.Cap.SQUARE) {
+            return halfWidth * 1.5f;
+        }
+        return halfWidth;
+    }
+
+    /**
+     * Multiplies the opacity of this node by the given alpha.
+     * @param groupAlpha the alpha to fold in, from 0 to 255.
+     */
+    void foldAlpha(int groupAlpha) {
+        if (kind == KIND_GROUP) {
+            alpha = alpha * groupAlpha / 255;
+        } else {
+            if (fill != null) {
+                fill.setAlpha(fill.getAlpha() * groupAlpha / 255);
+            }
+            if (stroke != null) {
+                stroke.setAlpha(stroke.getAlpha() * groupAlpha / 255);
+            }
+        }
+    }
+
+    /**
+     * Determines whether a point lies on what this shape paints: inside its fill or on its stroke.
+     * @param x the point, in the parent's co-ordinates.
+     * @param y the point, in the parent's co-ordinates.
+     * @param slop an extra distance, in the parent's co-ordinates, within which a point counts as on the shape.
+     * @return true if the shape is hit.
+     */
+    boolean hitTest(float x, float y, float slop) {
+        if (!(bounds.left - slop <= x && x <= bounds.right + slop && bounds.top - slop <= y && y <= bounds.bottom + slop)) {
+            return false;
+        }
+        if (clip != null && clip.rect != null && !clip.rect.contains(x, y)) {
+            return false;
+        }
+        float[] inverse = Affine.invert(Affine.fromMatrix(matrix));
+        float lx = Affine.mapX(inverse, x, y);
+        float ly = Affine.mapY(inverse, x, y);
+        float localSlop = slop * Affine.scale(inverse);
+        float reach = (stroke == null ? 0 : stroke.getStrokeWidth() / 2) + localSlop;
+        switch (kind) {
+            case KIND_RECT:
+            case KIND_IMAGE:
+                return lx >= rect.left - reach && lx <= rect.right + reach && ly >= rect.top - reach && ly <= rect.bottom + reach
+                        && (fill != null || !(lx > rect.left + reach && lx < rect.right - reach
+                        && ly > rect.top + reach && ly < rect.bottom - reach));
+            case KIND_OVAL: {
+                float rx = rect.width() / 2;
+                float ry = rect.height() / 2;
+                float dx = lx - rect.centerX();
+                float dy = ly - rect.centerY();
+                float outer = sq(dx / (rx + reach)) + sq(dy / (ry + reach));
+                if (fill != null) {
+                    return outer <= 1;
+                }
+                return outer <= 1 && (rx <= reach || ry <= reach || sq(dx / (rx - reach)) + sq(dy / (ry - reach)) >= 1);
+            }
+            case KIND_LINE: {
+                PackedPath line = new PackedPath();
+                line.moveTo(rect.left, rect.top);
+                line.lineTo(rect.right, rect.bottom);
+                return line.flatten(1).isNear(lx, ly, reach);
+            }
+            case KIND_PATH:
+                if (packed == null) {
+                    // Text is only hit-tested by its bounds
+                    return true;
+                }
+                FlattenedPath flat = packed.flatten(1 / Math.max(Affine.scale(inverse), 1e-6f));
+                return (fill != null && flat.contains(lx, ly, evenOdd)) || (reach > 0 && flat.isNear(lx, ly, reach));
+        }
+        return false;
+    }
+
+    private static float sq(float v) {
+        return v * v;
+    }
+
+    /**
+     * Gets a version of this node with the detail that can't be seen at a given scale taken out: shapes and groups
+     * smaller than a minimum size on screen are dropped, and paths are simplified to within a tolerance in pixels.
+     * @param scale the scale the node will be drawn at.
+     * @param minSize the smallest width or height, in pixels, of a node that is kept.
+     * @param tolerance the largest error allowed when simplifying paths, in pixels.
+     * @return null if the node is too small to draw, this node if nothing changed, otherwise a reduced copy.
+     */
+    DisplayNode forScale(float scale, float minSize, float tolerance) {
+        if (Math.max(bounds.width(), bounds.height()) * scale < minSize) {
+            return null;
+        }
+        if (kind == KIND_GROUP) {
+            ArrayList<DisplayNode> kept = new ArrayList<DisplayNode>(children.size());
+            boolean changed = false;
+            for (DisplayNode child : children) {
+                DisplayNode reduced = child.forScale(scale, minSize, tolerance);
+                if (reduced != child) {
+                    changed = true;
+                }
+                if (reduced != null) {
+                    kept.add(reduced);
+                }
+            }
+            if (kept.isEmpty()) {
+                return null;
+            } else if (!changed) {
+                return this;
+            }
+            DisplayNode copy = copy();
+            copy.children = kept;
+            return copy;
+        }
+        if (kind == KIND_PATH && packed != null) {
+            float pathScale = matrix == null ? scale : scale * matrix.mapRadius(1);
+            PackedPath simplified = packed.simplify(tolerance / pathScale);
+            if (simplified != packed) {
+                DisplayNode copy = copy();
+                copy.packed = simplified;
+                copy.path = simplified.toPath();
+                if (evenOdd) {
+                    copy.path.setFillType(Path.FillType.EVEN_ODD);
+                }
+                return copy;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of shapes in this node: 1 for a shape, or the number of shapes within a group.
+     */
+    int getShapeCount() {
+        if (shapeCount == 0) {
+            shapeCount = countShapes(children);
+        }
+        return shapeCount;
+    }
+
+    /**
+     * Gets the index over the bounds of a group's children, building it the first time.
+     * @return the index, or null if the group has too few children to need one.
+     */
+    synchronized SpatialIndex getChildIndex() {
+        if (childIndex == null && children.size() >= Viewport.INDEX_MIN_NODES && !anyAnimated(children)) {
+            childIndex = indexBounds(children);
+        }
+        return childIndex;
+    }
+
+    /**
+     * Counts the shapes in a list of nodes, including those within groups.
+     * @param nodes the nodes, or null for a single shape.
+     * @return the number of shapes.
+     */
+    static int countShapes(ArrayList<DisplayNode> nodes) {
+        if (nodes == null) {
+            return 1;
+        }
+        int count = 0;
+        for (DisplayNode node : nodes) {
+            count += node.getShapeCount();
+        }
+        return count;
+    }
+
+    /**
+     * Determines whether any of a list of nodes are animated, in which case they can't be found through an index over
+     * their bounds.
+     */
+    static boolean anyAnimated(ArrayList<DisplayNode> nodes) {
+        for (DisplayNode node : nodes) {
+            if (node.animated) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the filtered nodes whose cached bitmaps show any of the given nodes: filtered groups containing them and,
+     * optionally, filtered nodes among them. These have to be dropped from the bitmap cache when the nodes change.
+     * @param nodes the nodes to search.
+     * @param targets the changed nodes.
+     * @param includeTargets true to include changed nodes that are filtered themselves.
+     * @param out the filtered nodes are added to this.
+     * @return true if any of the changed nodes were found.
+     */
+    static boolean findFilteredOwners(ArrayList<DisplayNode> nodes, Map<DisplayNode, Boolean> targets,
+                                      boolean includeTargets, ArrayList<DisplayNode> out) {
+        boolean any = false;
+        for (DisplayNode node : nodes) {
+            boolean target = targets.containsKey(node);
+            boolean contains = node.kind == KIND_GROUP && findFilteredOwners(node.children, targets, includeTargets, out);
+            if (node.filter != null && ((target && includeTargets) || contains)) {
+                out.add(node);
+            }
+            any |= target || contains;
+        }
+        return any;
+    }
+
+    /**
+     * Builds a spatial index over the bounds of a list of nodes.
+     * @param nodes the nodes.
+     * @return the index, which reports nodes by their position in the list.
+     */
+    static SpatialIndex indexBounds(ArrayList<DisplayNode> nodes) {
+        RectF[] bounds = new RectF[nodes.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = nodes.get(i).bounds;
+        }
+        return new SpatialIndex(bounds);
+    }
+
+    /**
+     * Makes a shallow copy of this node, sharing its paints, geometry and children.
+     */
+    private DisplayNode copy() {
+        DisplayNode copy = new DisplayNode(kind);
+        copy.setFrom(this);
+        return copy;
+    }
+
+    /**
+     * Makes this node a shallow copy of another, sharing its paints, geometry and children. Used to replace a node in
+     * place, so that everything referring to it sees the new content.
+     * @param other the node to copy.
+     */
+    void setFrom(DisplayNode other) {
+        kind = other.kind;
+        id = other.id;
+        rect = other.rect;
+        path = other.path;
+        packed = other.packed;
+        fill = other.fill;
+        stroke = other.stroke;
+        image = other.image;
+        imageStretch = other.imageStretch;
+        evenOdd = other.evenOdd;
+        fillGradient = other.fillGradient;
+        fillPattern = other.fillPattern;
+        matrix = other.matrix;
+        clip = other.clip;
+        mask = other.mask;
+        filter = other.filter;
+        filterRegion = other.filterRegion == null ? null : new RectF(other.filterRegion);
+        markers = other.markers;
+        bounds = new RectF(other.bounds);
+        children = other.children;
+        alpha = other.alpha;
+        visible = other.visible;
+        animation = other.animation;
+        animated = other.animated;
+        shapeCount = 0;
+        childIndex = null;
+    }
+
+    /**
+     * Determines whether any of the given nodes would paint over each other (including a node whose stroke or markers
+     * paint over its own fill). If not, a translucent group of these nodes can be drawn without an offscreen layer.
+     * @param nodes the nodes to check.
+     * @return true if any drawing operations in the list overlap.
+     */
+    static boolean anyOverlap(ArrayList<DisplayNode> nodes) {
+        int n = nodes.size();
+        DisplayNode[] sorted = new DisplayNode[n];
+        for (int i = 0; i < n; i++) {
+            DisplayNode node = nodes.get(i);
+            if ((node.fill != null && node.stroke != null) || node.markers != null) {
+                return true;
+            }
+            sorted[i] = node;
+        }
+        // Sort by left edge, then sweep so that only nodes which overlap horizontally are compared
+        Arrays.sort(sorted, new Comparator<DisplayNode>() {
+            public int compare(DisplayNode a, DisplayNode b) {
+                return Float.compare(a.bounds.left, b.bounds.left);
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            RectF a = sorted[i].bounds;
+            for (int j = i + 1; j < n && sorted[j].bounds.left < a.right; j++) {
+                RectF b = sorted[j].bounds;
+                if (a.top < b.bottom && b.top < a.bottom) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draws this node to a canvas.
+     * @param canvas the canvas on which to draw.
+     * @param cache the cache for bitmaps rendered at the device scale (such as masks), or null if any such bitmaps
+     * should be rendered just for this draw.
+     */
+    void draw(Canvas canvas, BitmapCache cache) {
+        draw(canvas, cache, null);
+    }
+
+    /**
+     * Draws this node to a canvas, skipping any children of a group that lie outside a viewport.
+     * @param canvas the canvas on which to draw.
+     * @param cache the bitmap cache, or null.
+     * @param viewport the visible part of the canvas, or null to draw everything.
+     */
+    void draw(Canvas canvas, BitmapCache cache, Viewport viewport) {
+        if (!visible) {
+            return;
+        }
+        if (animation != null) {
+            canvas.save();
+            canvas.concat(animation);
+        }
+        if (filter != null) {
+            // The filtered content is drawn offscreen, where the viewport doesn't apply, and the clip cuts the result
+            if (clip != null) {
+                canvas.save();
+                clip.apply(canvas);
+            }
+            filter.draw(this, canvas, cache);
+            if (clip != null) {
+                canvas.restore();
+            }
+            if (viewport != null) {
+                viewport.drawn += getShapeCount();
+            }
+        } else {
+            drawUnfiltered(canvas, cache, viewport);
+        }
+        if (animation != null) {
+            canvas.restore();
+        }
+    }
+
+    /**
+     * Draws this node to a canvas, ignoring any filter, and the clip that is applied to the filtered output.
+     */
+    void drawUnfiltered(Canvas canvas, BitmapCache cache) {
+        drawUnfiltered(canvas, cache, null);
+    }
+
+    private void drawUnfiltered(Canvas canvas, BitmapCache cache, Viewport viewport) {
+        if (viewport != null && kind != KIND_GROUP) {
+            viewport.drawn++;
+        }
+        Clip clip = filter == null ? this.clip : null;
+        if (kind == KIND_GROUP) {
+            if (alpha < 255 || mask != null) {
+                // A filtered group is drawn unclipped, so its layer has to cover the whole filter region
+                canvas.saveLayerAlpha(filter != null ? filterRegion : bounds, alpha, Canvas.ALL_SAVE_FLAG);
+            } else {
+                canvas.save();
+            }
+            if (clip != null) {
+                clip.apply(canvas);
+            }
+            if (viewport != null) {
+                viewport.draw(children, getChildIndex(), getShapeCount(), canvas, cache);
+            } else {
+                for (DisplayNode child : children) {
+                    child.draw(canvas, cache);
+                }
+            }
+            if (mask != null) {
+                mask.apply(canvas, cache);
+            }
+            canvas.restore();
+            return;
+        }
+        boolean saved = clip != null || matrix != null;
+        if (saved) {
+            canvas.save();
+        }
+        if (clip != null) {
+            clip.apply(canvas);
+        }
+        if (matrix != null) {
+            canvas.concat(matrix);
+        }
+        if (mask != null) {
+            canvas.saveLayer(mask.bounds, null, Canvas.ALL_SAVE_FLAG);
+        }
+        if (fill != null) {
+            if (fillPattern != null) {
+                fill.setShader(fillPattern.getShader(canvas, cache));
+            }
+            drawShape(canvas, fill, cache);
+        }
+        if (stroke != null) {
+            drawShape(canvas, stroke, cache);
+        }
+        if (markers != null) {
+            markers.draw(canvas);
+        }
+        if (mask != null) {
+            mask.apply(canvas, cache);
+            canvas.restore();
+        }
+        if (saved) {
+            canvas.restore();
+        }
+    }
+
+    private void drawShape(Canvas canvas, Paint paint, BitmapCache cache) {
+        switch (kind) {
+            case KIND_RECT:
+                canvas.drawRect(rect, paint);
+                break;
+            case KIND_OVAL:
+                canvas.drawOval(rect, paint);
+                break;
+            case KIND_LINE:
+                canvas.drawLine(rect.left, rect.top, rect.right, rect.bottom, paint);
+                break;
+            case KIND_PATH:
+                canvas.drawPath(path, paint);
+                break;
+            case KIND_IMAGE:
+                // Only start decoding for a real draw, not while recording the picture
+                if (cache != null || !image.isPending()) {
+                    image.draw(canvas, rect, imageStretch, paint);
+                }
+                break;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A base64 image embedded in an &lt;image&gt; element as a <code>data:</code> URI. Nothing is decoded while parsing:
+ * the first time the image is drawn it is queued for decoding on a background thread, and it is drawn from then on
+ * once the decoded bitmap is ready. The base64 text is streamed straight in to the decoder.
+ * <p/>
+ * Images are shared by content, so the same data embedded many times (in one SVG or several) is only decoded and held
+ * in memory once. Content is identified by a 64-bit hash of the base64 text and its length.
+ *
+ * @author Larva Labs, LLC
+ */
+class EmbeddedImage {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_DECODING = 1;
+    private static final int STATE_DECODED = 2;
+    private static final int STATE_FAILED = 3;
+
+    private static final HashMap<Key, WeakReference<EmbeddedImage>> SHARED = new HashMap<Key, WeakReference<EmbeddedImage>>();
+
+    private static ExecutorService executor = null;
+
+    private static class Key {
+        final long hash;
+        final int length;
+
+        Key(long hash, int length) {
+            this.hash = hash;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32)) * 31 + length;
+        }
+    }
+
+    // The data URI and the index of the base64 data within it, released once decoded
+    private String data;
+    private final int start;
+
+    private volatile int state = STATE_PENDING;
+    private volatile Bitmap bitmap = null;
+
+    private EmbeddedImage(String data, int start) {
+        this.data = data;
+        this.start = start;
+    }
+
+    /**
+     * Gets the image for a data URI, sharing one already in use for the same content.
+     * @param uri the value of the <code>href</code> attribute.
+     * @return the image, or null if the URI isn't a base64 data URI.
+     */
+    static EmbeddedImage get(String uri) {
+        if (uri == null || !uri.startsWith("data:")) {
+            return null;
+        }
+        int comma = uri.indexOf(',');
+        if (comma < 0 || !uri.regionMatches(comma - 7, ";base64", 0, 7)) {
+            return null;
+        }
+        int start = comma + 1;
+        // 64-bit FNV-1a hash of the base64 text
+        long hash = 0xcbf29ce484222325L;
+        int n = uri.length();
+        for (int i = start; i < n; i++) {
+            hash ^= uri.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        Key key = new Key(hash, n - start);
+        synchronized (SHARED) {
+            WeakReference<EmbeddedImage> ref = SHARED.get(key);
+            EmbeddedImage image = ref == null ? null : ref.get();
+            if (image == null) {
+                // Drop entries for images that are no longer used
+                Iterator<WeakReference<EmbeddedImage>> it = SHARED.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().get() == null) {
+                        it.remove();
+                    }
+                }
+                image = new EmbeddedImage(uri, start);
+                SHARED.put(key, new WeakReference<EmbeddedImage>(image));
+            }
+            return image;
+        }
+    }
+
+    /**
+     * Draws the image, if it has been decoded, otherwise starts decoding it.
+     * @param canvas the canvas.
+     * @param viewport the area to draw the image in to.
+     * @param stretch true to fill the viewport, false to fit the image in the center of the viewport keeping its
+     * aspect ratio (the default <code>preserveAspectRatio</code>).
+     * @param paint the paint to draw the bitmap with.
+     */
+    void draw(Canvas canvas, RectF viewport, boolean stretch, Paint paint) {
+        Bitmap b = bitmap;
+        if (b == null) {
+            requestDecode();
+            return;
+        }
+        if (stretch) {
+            canvas.drawBitmap(b, null, viewport, paint);
+            return;
+        }
+        float scale = Math.min(viewport.width() / b.getWidth(), viewport.height() / b.getHeight());
+        float w = b.getWidth() * scale;
+        float h = b.getHeight() * scale;
+        float left = viewport.centerX() - w / 2;
+        float top = viewport.centerY() - h / 2;
+        canvas.drawBitmap(b, null, new RectF(left, top, left + w, top + h), paint);
+    }
+
+    /**
+     * Determines whether the image is still waiting to be decoded.
+     */
+    boolean isPending() {
+        return state < STATE_DECODED;
+    }
+
+    /**
+     * Starts decoding the image in the background, unless it has already been started.
+     */
+    void requestDecode() {
+        synchronized (this) {
+            if (state != STATE_PENDING) {
+                return;
+            }
+            state = STATE_DECODING;
+        }
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                decode();
+            }
+        });
+    }
+
+    private void decode() {
+        Bitmap b = null;
+        try {
+            b = BitmapFactory.decodeStream(new Base64InputStream(data, start));
+        } catch (OutOfMemoryError e) {
+            Log.w(SVGParser.TAG, "Not enough memory to decode embedded image");
+        }
+        data = null;
+        bitmap = b;
+        state = b == null ? STATE_FAILED : STATE_DECODED;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SVGImageDecoder");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+}
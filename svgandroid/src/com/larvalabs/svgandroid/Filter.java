@@ -0,0 +1,134 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A parsed &lt;filter&gt; element. Only the common case of a filter made of a single <code>feGaussianBlur</code> of
+ * the source graphic is supported. Filtered elements are rendered offscreen at the device scale, blurred, and the
+ * result is cached for each element and scale.
+ *
+ * @author Larva Labs, LLC
+ */
+class Filter {
+
+    private static final Paint BITMAP_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    final String id;
+
+    /**
+     * The blur standard deviation in each direction, in user space.
+     */
+    float stdDeviationX = 0;
+    float stdDeviationY = 0;
+
+    /**
+     * False if the filter contains anything other than a single blur, in which case it is ignored.
+     */
+    boolean supported = true;
+
+    private int primitiveCount = 0;
+
+    Filter(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Adds a filter primitive to the chain.
+     * @param name the element name of the primitive.
+     * @param stdDeviation the <code>stdDeviation</code> attribute, for a blur.
+     * @param in the <code>in</code> attribute.
+     */
+    void addPrimitive(String name, String stdDeviation, String in) {
+        primitiveCount++;
+        if (primitiveCount > 1 || !name.equals("feGaussianBlur") || stdDeviation == null
+                || (in != null && !in.equals("SourceGraphic"))) {
+            supported = false;
+            return;
+        }
+        String[] values = stdDeviation.trim().split("[\\s,]+");
+        try {
+            stdDeviationX = Float.parseFloat(values[0]);
+            stdDeviationY = values.length > 1 ? Float.parseFloat(values[1]) : stdDeviationX;
+        } catch (NumberFormatException e) {
+            supported = false;
+        }
+    }
+
+    /**
+     * Grows the bounds of a node to take in the spread of the blur, and sets its filter region to them.
+     * @param node the filtered node, with its bounds computed and not yet clipped.
+     */
+    void outset(DisplayNode node) {
+        float userScale = node.matrix == null ? 1f : node.matrix.mapRadius(1f);
+        node.bounds.inset(-3 * stdDeviationX * userScale, -3 * stdDeviationY * userScale);
+        node.filterRegion = new RectF(node.bounds);
+    }
+
+    /**
+     * Draws a filtered node.
+     * @param node the node, whose filter region has been set by {@link #outset(DisplayNode)}.
+     * @param canvas the canvas on which to draw, clipped by any clip of the node.
+     * @param cache the cache to keep the filtered result in, or null when recording a picture.
+     */
+    void draw(DisplayNode node, Canvas canvas, BitmapCache cache) {
+        RectF region = node.filterRegion;
+        if (region.isEmpty()) {
+            return;
+        }
+        float scale = BitmapCache.getDeviceScale(canvas);
+        Bitmap bitmap;
+        if (cache == null) {
+            bitmap = render(node, scale);
+        } else {
+            BitmapCache.Key key = new BitmapCache.Key(node, scale);
+            bitmap = cache.get(key);
+            if (bitmap == null) {
+                bitmap = render(node, scale);
+                cache.put(key, bitmap);
+            }
+        }
+        canvas.drawBitmap(bitmap, null, region, BITMAP_PAINT);
+    }
+
+    private Bitmap render(DisplayNode node, float scale) {
+        RectF region = node.filterRegion;
+        scale = BitmapCache.clampScale(scale, region.width(), region.height());
+        int width = Math.max(1, (int) Math.ceil(region.width() * scale));
+        int height = Math.max(1, (int) Math.ceil(region.height() * scale));
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        float sx = width / region.width();
+        float sy = height / region.height();
+        canvas.scale(sx, sy);
+        canvas.translate(-region.left, -region.top);
+        node.drawUnfiltered(canvas, null);
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        // The deviation is in the element's user space, which may be scaled by its transform
+        float userScale = node.matrix == null ? 1f : node.matrix.mapRadius(1f);
+        GaussianBlur.blur(pixels, width, height, stdDeviationX * userScale * sx, stdDeviationY * userScale * sy);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+}
@@ -0,0 +1,289 @@
+package com.larvalabs.svgandroid;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A path with its curves flattened in to lines: a list of points, split in to contours (one for each sub-path). Curves
+ * are subdivided adaptively, so flat stretches take few points and tight bends take many, and no point of the
+ * flattened outline is further from the true curve than the tolerance it was made with.
+ * <p/>
+ * Flattened paths are made by {@link PackedPath#flatten(float)}, which keeps them for each scale, and are never
+ * modified once made.
+ *
+ * @author Larva Labs, LLC
+ */
+public final class FlattenedPath {
+
+    /**
+     * The deepest that a curve is subdivided, which limits a single curve to 65536 points.
+     */
+    private static final int MAX_DEPTH = 16;
+
+    private final float toleranceSquared;
+
+    // The x, y pairs of all points, and the index of the point after the last of each contour
+    private float[] points = new float[32];
+    private int pointCount = 0;
+    private int[] contourEnds = new int[4];
+    private boolean[] contourClosed = new boolean[4];
+    private int contourCount = 0;
+
+    FlattenedPath(PackedPath path, float tolerance) {
+        toleranceSquared = tolerance * tolerance;
+        float[] c = path.coords;
+        float startX = 0, startY = 0;
+        float lastX = 0, lastY = 0;
+        int contourStart = 0;
+        int j = 0;
+        for (int i = 0; i < path.verbCount; i++) {
+            switch (path.verbs[i]) {
+                case PackedPath.MOVE:
+                    endContour(contourStart, false);
+                    contourStart = pointCount;
+                    startX = lastX = c[j];
+                    startY = lastY = c[j + 1];
+                    addPoint(lastX, lastY);
+                    j += 2;
+                    break;
+                case PackedPath.LINE:
+                    lastX = c[j];
+                    lastY = c[j + 1];
+                    addPoint(lastX, lastY);
+                    j += 2;
+                    break;
+                case PackedPath.QUAD:
+                    addQuad(lastX, lastY, c[j], c[j + 1], c[j + 2], c[j + 3], 0);
+                    lastX = c[j + 2];
+                    lastY = c[j + 3];
+                    j += 4;
+                    break;
+                case PackedPath.CUBIC:
+                    addCubic(lastX, lastY, c[j], c[j + 1], c[j + 2], c[j + 3], c[j + 4], c[j + 5], 0);
+                    lastX = c[j + 4];
+                    lastY = c[j + 5];
+                    j += 6;
+                    break;
+                case PackedPath.CLOSE:
+                    endContour(contourStart, true);
+                    // Anything drawn after a close without a move starts from the start of the closed sub-path
+                    contourStart = pointCount;
+                    lastX = startX;
+                    lastY = startY;
+                    addPoint(lastX, lastY);
+                    break;
+            }
+        }
+        endContour(contourStart, false);
+    }
+
+    private void addPoint(float x, float y) {
+        if (pointCount * 2 + 2 > points.length) {
+            float[] bigger = new float[points.length * 2];
+            System.arraycopy(points, 0, bigger, 0, pointCount * 2);
+            points = bigger;
+        }
+        points[pointCount * 2] = x;
+        points[pointCount * 2 + 1] = y;
+        pointCount++;
+    }
+
+    /**
+     * Ends the contour started at the given point. A lone point (a move with nothing drawn from it) is dropped.
+     */
+    private void endContour(int start, boolean closed) {
+        if (pointCount - start < 2) {
+            pointCount = start;
+            return;
+        }
+        if (contourCount == contourEnds.length) {
+            int[] ends = new int[contourCount * 2];
+            System.arraycopy(contourEnds, 0, ends, 0, contourCount);
+            contourEnds = ends;
+            boolean[] flags = new boolean[contourCount * 2];
+            System.arraycopy(contourClosed, 0, flags, 0, contourCount);
+            contourClosed = flags;
+        }
+        contourEnds[contourCount] = pointCount;
+        contourClosed[contourCount] = closed;
+        contourCount++;
+    }
+
+    private void addQuad(float x0, float y0, float x1, float y1, float x2, float y2, int depth) {
+        if (depth >= MAX_DEPTH || distanceSquared(x1, y1, x0, y0, x2, y2) <= toleranceSquared) {
+            addPoint(x2, y2);
+            return;
+        }
+        float ax = (x0 + x1) / 2, ay = (y0 + y1) / 2;
+        float bx = (x1 + x2) / 2, by = (y1 + y2) / 2;
+        float mx = (ax + bx) / 2, my = (ay + by) / 2;
+        addQuad(x0, y0, ax, ay, mx, my, depth + 1);
+        addQuad(mx, my, bx, by, x2, y2, depth + 1);
+    }
+
+    private void addCubic(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3, int depth) {
+        if (depth >= MAX_DEPTH || (distanceSquared(x1, y1, x0, y0, x3, y3) <= toleranceSquared
+                && distanceSquared(x2, y2, x0, y0, x3, y3) <= toleranceSquared)) {
+            addPoint(x3, y3);
+            return;
+        }
+        float ax = (x0 + x1) / 2, ay = (y0 + y1) / 2;
+        float bx = (x1 + x2) / 2, by = (y1 + y2) / 2;
+        float cx = (x2 + x3) / 2, cy = (y2 + y3) / 2;
+        float abx = (ax + bx) / 2, aby = (ay + by) / 2;
+        float bcx = (bx + cx) / 2, bcy = (by + cy) / 2;
+        float mx = (abx + bcx) / 2, my = (aby + bcy) / 2;
+        addCubic(x0, y0, ax, ay, abx, aby, mx, my, depth + 1);
+        addCubic(mx, my, bcx, bcy, cx, cy, x3, y3, depth + 1);
+    }
+
+    /**
+     * Gets the squared distance from a point to a line segment.
+     */
+    private static float distanceSquared(float px, float py, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((px - x0) * dx + (py - y0) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        float ex = px - (x0 + t * dx);
+        float ey = py - (y0 + t * dy);
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * @return the number of contours, one for each sub-path that draws anything.
+     */
+    public int getContourCount() {
+        return contourCount;
+    }
+
+    /**
+     * @param contour the index of the contour.
+     * @return the index of the first point of the contour.
+     */
+    public int getContourStart(int contour) {
+        return contour == 0 ? 0 : contourEnds[contour - 1];
+    }
+
+    /**
+     * @param contour the index of the contour.
+     * @return the index after the last point of the contour.
+     */
+    public int getContourEnd(int contour) {
+        return contourEnds[contour];
+    }
+
+    /**
+     * @param contour the index of the contour.
+     * @return true if the sub-path was explicitly closed. Every contour is treated as closed when filling.
+     */
+    public boolean isContourClosed(int contour) {
+        return contourClosed[contour];
+    }
+
+    /**
+     * @return the total number of points in all contours.
+     */
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @param i the index of the point.
+     * @return the x co-ordinate of the point.
+     */
+    public float getX(int i) {
+        return points[i * 2];
+    }
+
+    /**
+     * @param i the index of the point.
+     * @return the y co-ordinate of the point.
+     */
+    public float getY(int i) {
+        return points[i * 2 + 1];
+    }
+
+    /**
+     * Determines whether a point is inside the area filled by the path, treating every contour as closed.
+     * @param x the point.
+     * @param y the point.
+     * @param evenOdd true for the even-odd fill rule, false for non-zero.
+     * @return true if the point is inside.
+     */
+    public boolean contains(float x, float y, boolean evenOdd) {
+        float[] p = points;
+        int winding = 0;
+        int start = 0;
+        for (int contour = 0; contour < contourCount; contour++) {
+            int end = contourEnds[contour];
+            float lastX = p[end * 2 - 2];
+            float lastY = p[end * 2 - 1];
+            for (int i = start; i < end; i++) {
+                float px = p[i * 2];
+                float py = p[i * 2 + 1];
+                winding += crossing(lastX, lastY, px, py, x, y);
+                lastX = px;
+                lastY = py;
+            }
+            start = end;
+        }
+        return evenOdd ? (winding & 1) != 0 : winding != 0;
+    }
+
+    /**
+     * Determines whether a point is within a distance of the outline, as when hit-testing a stroke.
+     * @param x the point.
+     * @param y the point.
+     * @param radius the distance, such as half the stroke width.
+     * @return true if the point is that close to any line of any contour (including the line closing a closed
+     * contour).
+     */
+    public boolean isNear(float x, float y, float radius) {
+        float[] p = points;
+        float radiusSquared = radius * radius;
+        int start = 0;
+        for (int contour = 0; contour < contourCount; contour++) {
+            int end = contourEnds[contour];
+            int first = contourClosed[contour] ? start : start + 1;
+            for (int i = first; i < end; i++) {
+                int previous = i == start ? end - 1 : i - 1;
+                if (distanceSquared(x, y, p[previous * 2], p[previous * 2 + 1], p[i * 2], p[i * 2 + 1]) <= radiusSquared) {
+                    return true;
+                }
+            }
+            start = end;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the winding contribution of an edge for a ray cast from a point in the positive x direction.
+     */
+    private static int crossing(float x0, float y0, float x1, float y1, float x, float y) {
+        if (y0 <= y) {
+            if (y1 > y && (x1 - x0) * (y - y0) - (x - x0) * (y1 - y0) > 0) {
+                return 1;
+            }
+        } else if (y1 <= y && (x1 - x0) * (y - y0) - (x - x0) * (y1 - y0) < 0) {
+            return -1;
+        }
+        return 0;
+    }
+}
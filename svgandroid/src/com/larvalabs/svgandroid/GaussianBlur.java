@@ -0,0 +1,234 @@
+package com.larvalabs.svgandroid;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Approximates a Gaussian blur of ARGB pixels with three successive box blurs in each direction, as described in the
+ * SVG specification for <code>feGaussianBlur</code>. Each pass is separable, so rows are blurred, the image is
+ * transposed, and rows are blurred again. Large images are split in to bands of rows that are blurred in parallel.
+ *
+ * @author Larva Labs, LLC
+ */
+class GaussianBlur {
+
+    /**
+     * Images with fewer pixels than this are blurred on the calling thread, as handing them off costs more than it
+     * saves.
+     */
+    private static final int PARALLEL_THRESHOLD = 128 * 128;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static ExecutorService executor = null;
+
+    /**
+     * Gets the box size to use for a Gaussian blur with the given standard deviation.
+     * @param stdDeviation the standard deviation, in pixels.
+     * @return the box size, 0 if no blur is needed.
+     */
+    static int boxSize(float stdDeviation) {
+        return (int) Math.floor(stdDeviation * 3 * Math.sqrt(2 * Math.PI) / 4 + 0.5);
+    }
+
+    /**
+     * Blurs an image in place.
+     * @param pixels the image as non-premultiplied ARGB pixels (as returned by <code>Bitmap.getPixels</code>).
+     * @param width the image width.
+     * @param height the image height.
+     * @param stdDeviationX the horizontal standard deviation, in pixels.
+     * @param stdDeviationY the vertical standard deviation, in pixels.
+     */
+    static void blur(int[] pixels, int width, int height, float stdDeviationX, float stdDeviationY) {
+        int dx = boxSize(stdDeviationX);
+        int dy = boxSize(stdDeviationY);
+        if (dx < 2 && dy < 2) {
+            return;
+        }
+        premultiply(pixels);
+        int[] scratch = new int[pixels.length];
+        if (dx >= 2) {
+            blurRows(pixels, scratch, width, height, dx);
+        }
+        transpose(pixels, scratch, width, height);
+        if (dy >= 2) {
+            blurRows(scratch, pixels, height, width, dy);
+        }
+        transpose(scratch, pixels, height, width);
+        unpremultiply(pixels);
+    }
+
+    /**
+     * Runs the three box blur passes along every row, leaving the result in <code>pixels</code>.
+     */
+    private static void blurRows(final int[] pixels, final int[] scratch, final int width, final int height, final int d) {
+        if (THREADS < 2 || width * height < PARALLEL_THRESHOLD) {
+            blurRows(pixels, scratch, width, 0, height, d);
+            return;
+        }
+        int bands = Math.min(THREADS, height);
+        final CountDownLatch done = new CountDownLatch(bands);
+        ExecutorService pool = getExecutor();
+        for (int i = 0; i < bands; i++) {
+            final int start = height * i / bands;
+            final int end = height * (i + 1) / bands;
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        blurRows(pixels, scratch, width, start, end, d);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void blurRows(int[] pixels, int[] scratch, int width, int start, int end, int d) {
+        for (int y = start; y < end; y++) {
+            int offset = y * width;
+            if ((d & 1) == 1) {
+                boxPass(pixels, scratch, offset, width, -(d / 2), d / 2);
+                boxPass(scratch, pixels, offset, width, -(d / 2), d / 2);
+                boxPass(pixels, scratch, offset, width, -(d / 2), d / 2);
+            } else {
+                // Two boxes either side of the pixel, then one centered on it
+                boxPass(pixels, scratch, offset, width, -(d / 2), d / 2 - 1);
+                boxPass(scratch, pixels, offset, width, -(d / 2) + 1, d / 2);
+                boxPass(pixels, scratch, offset, width, -(d / 2), d / 2);
+            }
+            System.arraycopy(scratch, offset, pixels, offset, width);
+        }
+    }
+
+    /**
+     * Box blurs a single row of premultiplied pixels. Pixels beyond the ends of the row are transparent.
+     * @param in the source pixels.
+     * @param out where to write the blurred pixels.
+     * @param offset the index of the first pixel in the row.
+     * @param width the length of the row.
+     * @param lo the offset of the start of the box from the output pixel (zero or negative).
+     * @param hi the offset of the end of the box from the output pixel, inclusive.
+     */
+    private static void boxPass(int[] in, int[] out, int offset, int width, int lo, int hi) {
+        int size = hi - lo + 1;
+        int scale = (1 << 16) / size;
+        int a = 0, r = 0, g = 0, b = 0;
+        int last = Math.min(width - 1, hi);
+        for (int i = Math.max(0, lo); i <= last; i++) {
+            int c = in[offset + i];
+            a += c >>> 24;
+            r += (c >> 16) & 0xFF;
+            g += (c >> 8) & 0xFF;
+            b += c & 0xFF;
+        }
+        for (int x = 0; x < width; x++) {
+            out[offset + x] = (((a * scale + 0x8000) >>> 16) << 24) | (((r * scale + 0x8000) >>> 16) << 16)
+                    | (((g * scale + 0x8000) >>> 16) << 8) | ((b * scale + 0x8000) >>> 16);
+            int remove = x + lo;
+            if (remove >= 0) {
+                int c = in[offset + remove];
+                a -= c >>> 24;
+                r -= (c >> 16) & 0xFF;
+                g -= (c >> 8) & 0xFF;
+                b -= c & 0xFF;
+            }
+            int add = x + hi + 1;
+            if (add < width) {
+                int c = in[offset + add];
+                a += c >>> 24;
+                r += (c >> 16) & 0xFF;
+                g += (c >> 8) & 0xFF;
+                b += c & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Transposes a width x height image in to a height x width image.
+     */
+    private static void transpose(int[] in, int[] out, int width, int height) {
+        // Work in small blocks to stay friendly to the cache
+        final int block = 32;
+        for (int by = 0; by < height; by += block) {
+            int ey = Math.min(height, by + block);
+            for (int bx = 0; bx < width; bx += block) {
+                int ex = Math.min(width, bx + block);
+                for (int y = by; y < ey; y++) {
+                    int row = y * width;
+                    for (int x = bx; x < ex; x++) {
+                        out[x * height + y] = in[row + x];
+                    }
+                }
+            }
+        }
+    }
+
+    private static void premultiply(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            int c = pixels[i];
+            int a = c >>> 24;
+            if (a == 0) {
+                pixels[i] = 0;
+            } else if (a < 255) {
+                int r = ((c >> 16) & 0xFF) * a / 255;
+                int g = ((c >> 8) & 0xFF) * a / 255;
+                int b = (c & 0xFF) * a / 255;
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private static void unpremultiply(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            int c = pixels[i];
+            int a = c >>> 24;
+            if (a == 0) {
+                pixels[i] = 0;
+            } else if (a < 255) {
+                int r = Math.min(255, ((c >> 16) & 0xFF) * 255 / a);
+                int g = Math.min(255, ((c >> 8) & 0xFF) * 255 / a);
+                int b = Math.min(255, (c & 0xFF) * 255 / a);
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SVGBlur");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,177 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Typeface;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A least-recently-used cache of glyph outlines, keyed by font family, style, size and character. Text is laid out
+ * by copying cached outlines in to place, so repeated characters (and repeated labels) only go through the font
+ * engine once.
+ * <p/>
+ * Glyphs are laid out one at a time by their advance width, so there is no kerning or complex script shaping.
+ *
+ * @author Larva Labs, LLC
+ */
+class GlyphCache {
+
+    /**
+     * The default maximum number of glyphs in the shared cache.
+     */
+    static final int DEFAULT_MAX_GLYPHS = 512;
+
+    /**
+     * The cache shared by all parsed SVGs.
+     */
+    static final GlyphCache SHARED = new GlyphCache(DEFAULT_MAX_GLYPHS);
+
+    /**
+     * The outline of a single glyph, with its origin on the baseline at the left, and its advance width. Glyphs are
+     * shared and must not be modified.
+     */
+    static class Glyph {
+        final Path path;
+        final float advance;
+
+        Glyph(Path path, float advance) {
+            this.path = path;
+            this.advance = advance;
+        }
+    }
+
+    private static class Key {
+        final String family;
+        final int style;
+        final float size;
+        final char c;
+
+        Key(String family, int style, float size, char c) {
+            this.family = family;
+            this.style = style;
+            this.size = size;
+            this.c = c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return c == other.c && size == other.size && style == other.style
+                    && (family == null ? other.family == null : family.equals(other.family));
+        }
+
+        @Override
+        public int hashCode() {
+            int h = c;
+            h = 31 * h + Float.floatToIntBits(size);
+            h = 31 * h + style;
+            return 31 * h + (family == null ? 0 : family.hashCode());
+        }
+    }
+
+    private final LinkedHashMap<Key, Glyph> map = new LinkedHashMap<Key, Glyph>(64, 0.75f, true);
+    private final HashMap<String, Typeface[]> typefaces = new HashMap<String, Typeface[]>();
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final char[] chars = new char[1];
+    private int maxGlyphs;
+    private int hits = 0;
+    private int misses = 0;
+
+    GlyphCache(int maxGlyphs) {
+        this.maxGlyphs = maxGlyphs;
+    }
+
+    /**
+     * Gets the outline of a character, creating it if it isn't cached.
+     * @param family the font family, or null for the default.
+     * @param style the <code>Typeface</code> style.
+     * @param size the font size.
+     * @param c the character.
+     * @return the glyph.
+     */
+    synchronized Glyph get(String family, int style, float size, char c) {
+        Key key = new Key(family, style, size, c);
+        Glyph glyph = map.get(key);
+        if (glyph != null) {
+            hits++;
+            return glyph;
+        }
+        misses++;
+        paint.setTypeface(getTypeface(family, style));
+        paint.setTextSize(size);
+        chars[0] = c;
+        Path path = new Path();
+        paint.getTextPath(chars, 0, 1, 0, 0, path);
+        glyph = new Glyph(path, paint.measureText(chars, 0, 1));
+        map.put(key, glyph);
+        trimTo(maxGlyphs);
+        return glyph;
+    }
+
+    synchronized void setMaxGlyphs(int maxGlyphs) {
+        this.maxGlyphs = maxGlyphs;
+        trimTo(maxGlyphs);
+    }
+
+    synchronized int getHits() {
+        return hits;
+    }
+
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    private void trimTo(int size) {
+        Iterator<Key> it = map.keySet().iterator();
+        while (map.size() > size && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private Typeface getTypeface(String family, int style) {
+        Typeface[] styles = typefaces.get(family);
+        if (styles == null) {
+            styles = new Typeface[4];
+            typefaces.put(family, styles);
+        }
+        if (styles[style] == null) {
+            Typeface base;
+            if (family == null || family.equals("sans-serif")) {
+                base = Typeface.SANS_SERIF;
+            } else if (family.equals("serif")) {
+                base = Typeface.SERIF;
+            } else if (family.equals("monospace")) {
+                base = Typeface.MONOSPACE;
+            } else {
+                base = null;
+            }
+            styles[style] = base != null ? Typeface.create(base, style) : Typeface.create(family, style);
+        }
+        return styles[style];
+    }
+}
@@ -0,0 +1,100 @@
+package com.larvalabs.svgandroid;
+
+import java.util.HashMap;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * The values of the inherited presentation properties (<code>fill</code>, <code>stroke</code>, font properties and so
+ * on) in effect inside a container element. Each frame holds a small fixed array of values indexed by property, and
+ * frames are never modified once made: a container that doesn't set any inherited property simply shares its
+ * parent's frame, and one that does copies the array once and overrides its own values.
+ *
+ * @author Larva Labs, LLC
+ */
+class InheritedStyle {
+
+    /**
+     * The inherited properties that the parser reads.
+     */
+    private static final String[] NAMES = {
+            "fill", "fill-opacity", "fill-rule",
+            "stroke", "stroke-width", "stroke-opacity", "stroke-linecap", "stroke-linejoin", "stroke-miterlimit",
+            "stroke-dasharray", "stroke-dashoffset",
+            "marker", "marker-start", "marker-mid", "marker-end",
+            "font-family", "font-size", "font-weight", "font-style", "text-anchor",
+            "visibility", "color",
+    };
+
+    private static final HashMap<String, Integer> INDEX = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            INDEX.put(NAMES[i], i);
+        }
+    }
+
+    /**
+     * The frame at the root of a document, in which nothing is set.
+     */
+    static final InheritedStyle ROOT = new InheritedStyle(new String[NAMES.length]);
+
+    private final String[] values;
+
+    private InheritedStyle(String[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Gets the inherited value of a property.
+     * @param name the property name.
+     * @return the value, or null if the property isn't inherited or isn't set by any ancestor.
+     */
+    String get(String name) {
+        Integer i = INDEX.get(name);
+        return i == null ? null : values[i];
+    }
+
+    /**
+     * Gets the frame for the children of an element.
+     * @param own looks up the properties set on the element itself (not including inherited values).
+     * @return this frame if the element doesn't set any inherited property, otherwise a new frame.
+     */
+    InheritedStyle derive(Source own) {
+        String[] copy = null;
+        for (int i = 0; i < NAMES.length; i++) {
+            String v = own.getOwn(NAMES[i]);
+            if (v != null && !v.equals("inherit") && !v.equals(values[i])) {
+                if (copy == null) {
+                    copy = new String[NAMES.length];
+                    System.arraycopy(values, 0, copy, 0, NAMES.length);
+                }
+                copy[i] = v;
+            }
+        }
+        return copy == null ? this : new InheritedStyle(copy);
+    }
+
+    /**
+     * Something that holds the properties set on a single element.
+     */
+    interface Source {
+        String getOwn(String name);
+    }
+}
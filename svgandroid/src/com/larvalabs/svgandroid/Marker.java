@@ -0,0 +1,278 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A parsed &lt;marker&gt; element. The marker content is recorded once in to its own picture, which is then drawn at
+ * each vertex it is placed on with nothing more than a translation, rotation and scale. Marker content is not clipped
+ * to the marker viewport.
+ *
+ * @author Larva Labs, LLC
+ */
+class Marker {
+
+    /**
+     * Orientation of the marker, either {@link #ORIENT_AUTO}, {@link #ORIENT_AUTO_START_REVERSE}, or any other value
+     * for a fixed angle given by {@link #angle}.
+     */
+    static final int ORIENT_FIXED = 0;
+    static final int ORIENT_AUTO = 1;
+    static final int ORIENT_AUTO_START_REVERSE = 2;
+
+    final String id;
+    int orient = ORIENT_FIXED;
+    float angle = 0;
+    float refX, refY;
+
+    /**
+     * True if the marker is scaled by the stroke width of the element it's placed on (the default).
+     */
+    boolean strokeWidthUnits = true;
+
+    /**
+     * The scale from the marker's viewBox to its viewport.
+     */
+    float viewScaleX = 1, viewScaleY = 1;
+
+    /**
+     * The recorded marker content.
+     */
+    Picture picture;
+
+    /**
+     * The bounds of the marker content, relative to the reference point and before scaling by the stroke width.
+     */
+    final RectF bounds = new RectF();
+
+    Marker(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Records the marker content in to its picture.
+     * @param content the nodes drawn inside the marker.
+     */
+    void setContent(ArrayList<DisplayNode> content) {
+        RectF contentBounds = new RectF();
+        for (DisplayNode node : content) {
+            contentBounds.union(node.bounds);
+        }
+        picture = new Picture();
+        Canvas canvas = picture.beginRecording(Math.max(1, (int) Math.ceil(contentBounds.right)),
+                Math.max(1, (int) Math.ceil(contentBounds.bottom)));
+        for (DisplayNode node : content) {
+            node.draw(canvas, null);
+        }
+        picture.endRecording();
+        // Bounds relative to the reference point, in marker units
+        bounds.set((contentBounds.left - refX) * viewScaleX, (contentBounds.top - refY) * viewScaleY,
+                (contentBounds.right - refX) * viewScaleX, (contentBounds.bottom - refY) * viewScaleY);
+    }
+
+    /**
+     * Draws the marker at one vertex.
+     * @param canvas the canvas.
+     * @param x the vertex position.
+     * @param y the vertex position.
+     * @param vertexAngle the direction of the path at the vertex, in degrees.
+     * @param start true if this is the first vertex of the path.
+     * @param strokeWidth the stroke width of the element the marker is placed on.
+     */
+    void draw(Canvas canvas, float x, float y, float vertexAngle, boolean start, float strokeWidth) {
+        canvas.save();
+        canvas.translate(x, y);
+        canvas.rotate(getAngle(vertexAngle, start));
+        if (strokeWidthUnits) {
+            canvas.scale(strokeWidth, strokeWidth);
+        }
+        canvas.scale(viewScaleX, viewScaleY);
+        canvas.translate(-refX, -refY);
+        canvas.drawPicture(picture);
+        canvas.restore();
+    }
+
+    float getAngle(float vertexAngle, boolean start) {
+        switch (orient) {
+            case ORIENT_AUTO:
+                return vertexAngle;
+            case ORIENT_AUTO_START_REVERSE:
+                return start ? vertexAngle + 180 : vertexAngle;
+            default:
+                return angle;
+        }
+    }
+
+    /**
+     * The markers placed on a single shape, along with the position and direction of every vertex of the shape. The
+     * vertices are kept in a single array of <code>(x, y, angle)</code> triples.
+     */
+    static class Placement {
+        Marker start, mid, end;
+        float[] vertices;
+        int vertexCount;
+        float strokeWidth;
+
+        void draw(Canvas canvas) {
+            float[] v = vertices;
+            int last = vertexCount - 1;
+            for (int i = 0; i <= last; i++) {
+                Marker marker = i == 0 ? start : (i == last ? end : mid);
+                if (marker != null) {
+                    marker.draw(canvas, v[3 * i], v[3 * i + 1], v[3 * i + 2], i == 0, strokeWidth);
+                }
+            }
+        }
+
+        /**
+         * Adds the area covered by the markers to a bounding rectangle.
+         * @param out the rectangle to grow, in the shape's own co-ordinates.
+         */
+        void unionBounds(RectF out) {
+            float[] v = vertices;
+            int last = vertexCount - 1;
+            for (int i = 0; i <= last; i++) {
+                Marker marker = i == 0 ? start : (i == last ? end : mid);
+                if (marker != null) {
+                    // Use a radius around the vertex, so it holds for any rotation
+                    RectF b = marker.bounds;
+                    float r = (float) Math.sqrt(Math.max(b.left * b.left, b.right * b.right) + Math.max(b.top * b.top, b.bottom * b.bottom));
+                    if (marker.strokeWidthUnits) {
+                        r *= strokeWidth;
+                    }
+                    out.union(v[3 * i] - r, v[3 * i + 1] - r, v[3 * i] + r, v[3 * i + 1] + r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes where markers go on a path: every point a verb ends on is a vertex, oriented along the bisector of the
+     * directions the path arrives at and leaves it. Works straight from the packed coordinates, with one working
+     * array for the whole path.
+     * @param path the path.
+     * @return an array of <code>(x, y, angle)</code> triples, angles in degrees.
+     */
+    static float[] computeVertices(PackedPath path) {
+        final int stride = 6;
+        int count = path.verbCount;
+        // Per vertex: x, y, incoming direction (dx, dy), outgoing direction (dx, dy)
+        float[] data = new float[count * stride];
+        float[] c = path.coords;
+        int j = 0;
+        int subPathStart = 0;
+        float lastX = 0, lastY = 0;
+        for (int v = 0; v < count; v++) {
+            int i = v * stride;
+            float x, y, startDx, startDy, endDx, endDy;
+            switch (path.verbs[v]) {
+                case PackedPath.MOVE:
+                    data[i] = lastX = c[j];
+                    data[i + 1] = lastY = c[j + 1];
+                    subPathStart = v;
+                    j += 2;
+                    continue;
+                case PackedPath.LINE:
+                    x = c[j];
+                    y = c[j + 1];
+                    startDx = endDx = x - lastX;
+                    startDy = endDy = y - lastY;
+                    j += 2;
+                    break;
+                case PackedPath.QUAD:
+                    x = c[j + 2];
+                    y = c[j + 3];
+                    startDx = c[j] - lastX;
+                    startDy = c[j + 1] - lastY;
+                    endDx = x - c[j];
+                    endDy = y - c[j + 1];
+                    j += 4;
+                    break;
+                case PackedPath.CUBIC:
+                    x = c[j + 4];
+                    y = c[j + 5];
+                    startDx = c[j] - lastX;
+                    startDy = c[j + 1] - lastY;
+                    if (startDx == 0 && startDy == 0) {
+                        startDx = c[j + 2] - lastX;
+                        startDy = c[j + 3] - lastY;
+                    }
+                    endDx = x - c[j + 2];
+                    endDy = y - c[j + 3];
+                    if (endDx == 0 && endDy == 0) {
+                        endDx = x - c[j];
+                        endDy = y - c[j + 1];
+                    }
+                    j += 6;
+                    break;
+                default: {
+                    // Close: a line back to the start of the sub-path, which then takes it as its incoming direction
+                    int s = subPathStart * stride;
+                    x = data[s];
+                    y = data[s + 1];
+                    startDx = endDx = x - lastX;
+                    startDy = endDy = y - lastY;
+                    data[s + 2] = endDx;
+                    data[s + 3] = endDy;
+                    break;
+                }
+            }
+            if (v > 0) {
+                data[i - stride + 4] = startDx;
+                data[i - stride + 5] = startDy;
+            }
+            data[i] = lastX = x;
+            data[i + 1] = lastY = y;
+            data[i + 2] = endDx;
+            data[i + 3] = endDy;
+            if (path.verbs[v] == PackedPath.CLOSE) {
+                // Leaving the closed sub-path's end point is the same as leaving its start
+                int s = subPathStart * stride;
+                data[i + 4] = data[s + 4];
+                data[i + 5] = data[s + 5];
+            }
+        }
+        float[] out = new float[count * 3];
+        for (int v = 0; v < count; v++) {
+            int i = v * stride;
+            float inX = data[i + 2], inY = data[i + 3];
+            float outX = data[i + 4], outY = data[i + 5];
+            float inLen = (float) Math.sqrt(inX * inX + inY * inY);
+            float outLen = (float) Math.sqrt(outX * outX + outY * outY);
+            float dx = 0, dy = 0;
+            if (inLen > 0) {
+                dx += inX / inLen;
+                dy += inY / inLen;
+            }
+            if (outLen > 0) {
+                dx += outX / outLen;
+                dy += outY / outLen;
+            }
+            out[v * 3] = data[i];
+            out[v * 3 + 1] = data[i + 1];
+            out[v * 3 + 2] = (dx == 0 && dy == 0) ? 0 : (float) Math.toDegrees(Math.atan2(dy, dx));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,177 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A parsed &lt;mask&gt; element. The mask content is rendered in to an alpha-only bitmap at the device scale it is
+ * drawn at, and that bitmap is reused for later draws until the scale changes.
+ * <p/>
+ * Only user space mask content is supported. The mask region is the bounds of the mask content (mask values outside
+ * the content are zero anyway), limited by the mask's own region when it is given in user space. A mask can be moved
+ * along with the group it masks (see {@link #transform(Matrix)}), in which case its content is drawn under the move.
+ *
+ * @author Larva Labs, LLC
+ */
+class Mask {
+
+    /**
+     * Composites the mask bitmap on to the layer holding the masked content.
+     */
+    private static final Paint MASK_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    static {
+        MASK_PAINT.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
+    }
+
+    final String id;
+
+    /**
+     * True for a luminance mask (the SVG default), false for an alpha mask.
+     */
+    final boolean luminance;
+
+    /**
+     * The mask content.
+     */
+    ArrayList<DisplayNode> content;
+
+    /**
+     * The area covered by the mask, in user space. Everything outside of it is masked out.
+     */
+    final RectF bounds = new RectF();
+
+    /**
+     * The transform the content is drawn under, and the bounds before it, or null if the mask is as parsed.
+     */
+    private Matrix matrix;
+    private RectF region;
+
+    Mask(String id, boolean luminance) {
+        this.id = id;
+        this.luminance = luminance;
+    }
+
+    /**
+     * Sets the mask content, and computes the mask bounds from it.
+     * @param content the nodes drawn inside the mask.
+     * @param region the mask region in user space, or null if the region is relative to the masked element.
+     */
+    void setContent(ArrayList<DisplayNode> content, RectF region) {
+        this.content = content;
+        bounds.setEmpty();
+        for (DisplayNode node : content) {
+            bounds.union(node.bounds);
+        }
+        if (region != null && !bounds.intersect(region)) {
+            bounds.setEmpty();
+        }
+    }
+
+    /**
+     * Creates a copy of this mask with its content moved by a transform, for a masked group that has been moved. The
+     * copy shares this mask's content, and has its own bitmap in the cache.
+     * @param matrix the transform, in the co-ordinates of the masked group.
+     * @return the transformed mask.
+     */
+    Mask transform(Matrix matrix) {
+        Mask mask = new Mask(id, luminance);
+        mask.content = content;
+        mask.matrix = new Matrix(matrix);
+        if (this.matrix != null) {
+            mask.matrix.preConcat(this.matrix);
+        }
+        mask.region = this.matrix != null ? region : new RectF(bounds);
+        // The bounds of the moved region, so a rotated mask is clipped back to the region when rendered
+        mask.matrix.mapRect(mask.bounds, mask.region);
+        return mask;
+    }
+
+    /**
+     * Masks whatever has been drawn in to the current layer of the canvas.
+     * @param canvas the canvas, which must have a layer saved for the masked content.
+     * @param cache the cache to keep the mask bitmap in, or null to render a bitmap just for this draw (such as when
+     * recording a picture, which holds on to the bitmap).
+     */
+    void apply(Canvas canvas, BitmapCache cache) {
+        if (bounds.isEmpty()) {
+            canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            return;
+        }
+        float scale = BitmapCache.getDeviceScale(canvas);
+        Bitmap bitmap;
+        if (cache == null) {
+            bitmap = render(scale);
+        } else {
+            BitmapCache.Key key = new BitmapCache.Key(this, scale);
+            bitmap = cache.get(key);
+            if (bitmap == null) {
+                bitmap = render(scale);
+                cache.put(key, bitmap);
+            }
+        }
+        canvas.drawBitmap(bitmap, null, bounds, MASK_PAINT);
+    }
+
+    /**
+     * Renders the mask content in to an alpha-only bitmap.
+     * @param scale the device scale to render at.
+     * @return the mask, covering {@link #bounds}.
+     */
+    Bitmap render(float scale) {
+        scale = BitmapCache.clampScale(scale, bounds.width(), bounds.height());
+        int width = Math.max(1, (int) Math.ceil(bounds.width() * scale));
+        int height = Math.max(1, (int) Math.ceil(bounds.height() * scale));
+        Bitmap rendered = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(rendered);
+        canvas.scale(width / bounds.width(), height / bounds.height());
+        canvas.translate(-bounds.left, -bounds.top);
+        if (matrix != null) {
+            canvas.concat(matrix);
+            canvas.clipRect(region);
+        }
+        for (DisplayNode node : content) {
+            node.draw(canvas, null);
+        }
+        if (luminance) {
+            // Mask value is the luminance of the content multiplied by its alpha
+            int[] pixels = new int[width * height];
+            rendered.getPixels(pixels, 0, width, 0, 0, width, height);
+            rendered.recycle();
+            for (int i = 0; i < pixels.length; i++) {
+                int c = pixels[i];
+                int lum = (54 * ((c >> 16) & 0xFF) + 183 * ((c >> 8) & 0xFF) + 19 * (c & 0xFF)) >> 8;
+                pixels[i] = (lum * (c >>> 24) / 255) << 24;
+            }
+            rendered = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        }
+        Bitmap alpha = rendered.extractAlpha();
+        rendered.recycle();
+        return alpha;
+    }
+}
@@ -0,0 +1,283 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Removes nodes from a display list that are entirely hidden behind opaque shapes drawn after them. Each opaque fill
+ * of a rectangle, oval or convex path stands in for an axis-aligned rectangle inside it (for an oval or path, the
+ * largest one found of the same proportions as its bounds), and a node is only removed if its bounds, antialiasing
+ * included, lie inside one of those rectangles.
+ * <p/>
+ * Antialiasing makes the pixels along the edge of a shape partly transparent, so each occluding rectangle is shrunk,
+ * and each hidden node's bounds grown, by the size of a pixel at the smallest scale the picture will be drawn at. The
+ * picture then draws exactly the same pixels with or without the hidden nodes at that scale or larger.
+ *
+ * @author Larva Labs, LLC
+ */
+final class OcclusionCuller {
+
+    /**
+     * The number of halvings of the search for the largest rectangle inside a convex path.
+     */
+    private static final int SEARCH_STEPS = 12;
+
+    private final float margin;
+
+    // The rectangles known to be painted opaquely by nodes after the one being looked at
+    private final ArrayList<RectF> occluders = new ArrayList<RectF>();
+
+    /**
+     * The number of shapes removed, and the total area of their bounds.
+     */
+    int removed = 0;
+    float overdrawSaved = 0;
+
+    /**
+     * @param minScale the smallest scale the culled display list will be drawn at.
+     */
+    OcclusionCuller(float minScale) {
+        margin = 1 / minScale;
+    }
+
+    /**
+     * Removes the hidden nodes from a display list.
+     * @param nodes the top-level nodes, changed in place.
+     */
+    void cull(ArrayList<DisplayNode> nodes) {
+        occluders.clear();
+        cullList(nodes);
+    }
+
+    private void cullList(ArrayList<DisplayNode> nodes) {
+        // Walk backwards, so every node is checked against the occluders drawn over it
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            DisplayNode node = nodes.get(i);
+            if (isHidden(node.bounds)) {
+                removed += node.getShapeCount();
+                overdrawSaved += getOverdraw(node);
+                nodes.remove(i);
+            } else if (node.kind == DisplayNode.KIND_GROUP) {
+                // A filter spreads its children's pixels around, so filtered groups are only ever removed whole
+                if (node.filter == null) {
+                    cullGroup(node);
+                    if (node.children.isEmpty()) {
+                        nodes.remove(i);
+                    }
+                }
+            } else {
+                RectF occluder = getOccluder(node);
+                if (occluder != null) {
+                    occluders.add(occluder);
+                }
+            }
+        }
+    }
+
+    private void cullGroup(DisplayNode group) {
+        int before = occluders.size();
+        cullList(group.children);
+        // Children's occluders cover their earlier siblings within the group either way, but only cover nodes before
+        // the group when the group draws straight to the canvas
+        boolean opaque = group.alpha == 255 && group.mask == null && (group.clip == null || group.clip.rect != null);
+        for (int i = occluders.size() - 1; i >= before; i--) {
+            if (!opaque || (group.clip != null && !occluders.get(i).intersect(group.clip.rect))) {
+                occluders.remove(i);
+            }
+        }
+    }
+
+    private boolean isHidden(RectF bounds) {
+        if (!(bounds.left < bounds.right && bounds.top < bounds.bottom)) {
+            return false;
+        }
+        float left = bounds.left - margin;
+        float top = bounds.top - margin;
+        float right = bounds.right + margin;
+        float bottom = bounds.bottom + margin;
+        for (RectF r : occluders) {
+            if (r.left <= left && r.top <= top && right <= r.right && bottom <= r.bottom) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float getOverdraw(DisplayNode node) {
+        if (node.kind != DisplayNode.KIND_GROUP) {
+            return node.bounds.width() * node.bounds.height();
+        }
+        float total = 0;
+        for (DisplayNode child : node.children) {
+            total += getOverdraw(child);
+        }
+        return total;
+    }
+
+    /**
+     * Gets a rectangle painted opaquely by a shape, in its parent's co-ordinates and shrunk by the margin.
+     * @return the rectangle, or null if the shape isn't opaque or no rectangle was found.
+     */
+    private RectF getOccluder(DisplayNode node) {
+        if (!isOpaque(node) || (node.matrix != null && !node.matrix.rectStaysRect())
+                || (node.clip != null && node.clip.rect == null)) {
+            return null;
+        }
+        RectF r;
+        switch (node.kind) {
+            case DisplayNode.KIND_RECT:
+                r = new RectF(node.rect);
+                r.sort();
+                break;
+            case DisplayNode.KIND_OVAL: {
+                // The corners of the largest rectangle inside an ellipse lie on its diagonals
+                float dx = Math.abs(node.rect.width()) / 2 / (float) Math.sqrt(2);
+                float dy = Math.abs(node.rect.height()) / 2 / (float) Math.sqrt(2);
+                r = new RectF(node.rect.centerX() - dx, node.rect.centerY() - dy, node.rect.centerX() + dx, node.rect.centerY() + dy);
+                break;
+            }
+            case DisplayNode.KIND_PATH:
+                r = node.packed == null ? null : getConvexInnerRect(node.packed.flatten(1));
+                break;
+            default:
+                r = null;
+        }
+        if (r == null) {
+            return null;
+        }
+        if (node.matrix != null) {
+            node.matrix.mapRect(r);
+        }
+        if (node.clip != null && !r.intersect(node.clip.rect)) {
+            return null;
+        }
+        r.set(r.left + margin, r.top + margin, r.right - margin, r.bottom - margin);
+        return r.left < r.right && r.top < r.bottom ? r : null;
+    }
+
+    /**
+     * Determines whether a shape's fill paints every pixel inside it opaquely.
+     */
+    static boolean isOpaque(DisplayNode node) {
+        if (node.fill == null || node.fill.getAlpha() != 255 || node.fillPattern != null || node.mask != null
+                || node.filter != null) {
+            return false;
+        }
+        if (node.fill.getShader() == null) {
+            return true;
+        }
+        if (node.fillGradient == null || node.fillGradient.colors.isEmpty()) {
+            return false;
+        }
+        for (int color : node.fillGradient.colors) {
+            if ((color >>> 24) != 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds a rectangle inside the area filled by a path made of a single convex contour. The flattened points all lie
+     * on the true outline, so for a convex shape the flattened outline is always inside it.
+     * @return the rectangle, or null if the path isn't a single convex contour.
+     */
+    private static RectF getConvexInnerRect(FlattenedPath path) {
+        if (path.getContourCount() != 1) {
+            return null;
+        }
+        int n = path.getPointCount();
+        // Leave out a final point that repeats the first
+        if (n > 1 && path.getX(n - 1) == path.getX(0) && path.getY(n - 1) == path.getY(0)) {
+            n--;
+        }
+        if (n < 3) {
+            return null;
+        }
+        // Every turn must be the same way, and only make a single full turn between them
+        int sign = 0;
+        double turning = 0;
+        float cx = 0, cy = 0;
+        float left = Float.POSITIVE_INFINITY, top = Float.POSITIVE_INFINITY;
+        float right = Float.NEGATIVE_INFINITY, bottom = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            int k = (i + 2) % n;
+            float ax = path.getX(j) - path.getX(i), ay = path.getY(j) - path.getY(i);
+            float bx = path.getX(k) - path.getX(j), by = path.getY(k) - path.getY(j);
+            float cross = ax * by - ay * bx;
+            if (cross != 0) {
+                int s = cross > 0 ? 1 : -1;
+                if (sign != 0 && s != sign) {
+                    return null;
+                }
+                sign = s;
+            }
+            turning += Math.atan2(cross, ax * bx + ay * by);
+            cx += path.getX(i);
+            cy += path.getY(i);
+            left = Math.min(left, path.getX(i));
+            top = Math.min(top, path.getY(i));
+            right = Math.max(right, path.getX(i));
+            bottom = Math.max(bottom, path.getY(i));
+        }
+        if (sign == 0 || Math.abs(Math.abs(turning) - 2 * Math.PI) > 0.01) {
+            return null;
+        }
+        // The average of the points is inside a convex shape, so grow a rectangle around it until it no longer fits
+        cx /= n;
+        cy /= n;
+        float halfWidth = (right - left) / 2;
+        float halfHeight = (bottom - top) / 2;
+        float low = 0, high = 1;
+        for (int step = 0; step < SEARCH_STEPS; step++) {
+            float t = (low + high) / 2;
+            if (containsRect(path, n, sign, cx - t * halfWidth, cy - t * halfHeight, cx + t * halfWidth, cy + t * halfHeight)) {
+                low = t;
+            } else {
+                high = t;
+            }
+        }
+        if (low == 0) {
+            return null;
+        }
+        return new RectF(cx - low * halfWidth, cy - low * halfHeight, cx + low * halfWidth, cy + low * halfHeight);
+    }
+
+    /**
+     * Determines whether a convex polygon contains a rectangle, which it does if it contains all four corners.
+     */
+    private static boolean containsRect(FlattenedPath path, int n, int sign, float left, float top, float right, float bottom) {
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            float x0 = path.getX(i), y0 = path.getY(i);
+            float ex = path.getX(j) - x0, ey = path.getY(j) - y0;
+            if (sign * (ex * (top - y0) - ey * (left - x0)) < 0
+                    || sign * (ex * (top - y0) - ey * (right - x0)) < 0
+                    || sign * (ex * (bottom - y0) - ey * (left - x0)) < 0
+                    || sign * (ex * (bottom - y0) - ey * (right - x0)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
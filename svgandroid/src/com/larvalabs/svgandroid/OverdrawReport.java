@@ -0,0 +1,354 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Measures the overdraw of an SVG: how many times each pixel is painted when the SVG is drawn, and which elements
+ * paint the most pixels that end up hidden behind opaque shapes drawn over them. Useful for finding the assets (and
+ * the elements within them) that cost the most to draw each frame.
+ * <p/>
+ * The SVG is rasterized by counting rather than drawing: every fill, every stroke and every offscreen layer adds one
+ * to each pixel whose centre it covers. Text and images count their whole bounds, clip paths other than rectangles
+ * count their bounds, and masks and filters are ignored, so for those the counts are a slight overestimate. Only
+ * shapes drawn straight to the canvas (not through a translucent or masked layer) with an opaque paint hide what is
+ * under them.
+ * <p/>
+ * Example:
+ * <pre>
+ * OverdrawReport report = OverdrawReport.analyze(svg, 1);
+ * Log.d(TAG, "Average overdraw " + report.getAverageOverdraw());
+ * for (OverdrawReport.Element e : report.getCulprits()) {
+ *     Log.d(TAG, e.getId() + " draws " + e.getPixelsHidden() + " hidden pixels");
+ * }
+ * </pre>
+ *
+ * @author Larva Labs, LLC
+ */
+public class OverdrawReport {
+
+    /**
+     * The heatmap colour for each number of times a pixel was drawn, following the Android debug overdraw colours:
+     * nothing for pixels drawn at most once, then blue, green, pink and red for pixels drawn 4 or more extra times.
+     */
+    private static final int[] HEATMAP_COLORS = {0x00000000, 0x00000000, 0xFF4060FF, 0xFF40C040, 0xFFFF80C0, 0xFFFF4040};
+
+    private final int width;
+    private final int height;
+    private final int[] counts;
+    private final ArrayList<Element> elements = new ArrayList<Element>();
+    private long pixelsDrawn = 0;
+    private long pixelsHidden = 0;
+
+    /**
+     * The overdraw of a single element.
+     */
+    public static class Element {
+
+        private final String id;
+        private final RectF bounds;
+        private long pixelsDrawn = 0;
+        private long pixelsHidden = 0;
+
+        Element(String id, RectF bounds) {
+            this.id = id;
+            this.bounds = bounds;
+        }
+
+        /**
+         * @return the element's id, or null if it has none.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the element's bounds in document co-ordinates, for finding elements without ids.
+         */
+        public RectF getBounds() {
+            return new RectF(bounds);
+        }
+
+        /**
+         * @return the number of pixels painted by the element, counting those painted by both its fill and its stroke
+         * twice.
+         */
+        public long getPixelsDrawn() {
+            return pixelsDrawn;
+        }
+
+        /**
+         * @return the number of pixels painted by the element that are then painted over by opaque shapes.
+         */
+        public long getPixelsHidden() {
+            return pixelsHidden;
+        }
+    }
+
+    private OverdrawReport(int width, int height) {
+        this.width = width;
+        this.height = height;
+        counts = new int[width * height];
+    }
+
+    /**
+     * Measures the overdraw of an SVG.
+     * @param svg the SVG.
+     * @param scale the scale the SVG is drawn at, which sets the size of the pixel grid.
+     * @return the report.
+     */
+    public static OverdrawReport analyze(SVG svg, float scale) {
+        int width = (int) Math.ceil(svg.getPicture().getWidth() * scale);
+        int height = (int) Math.ceil(svg.getPicture().getHeight() * scale);
+        OverdrawReport report = new OverdrawReport(Math.max(width, 0), Math.max(height, 0));
+        ArrayList<Leaf> leaves = new ArrayList<Leaf>();
+        collectLeaves(svg.getDisplayList(), null, true, true, leaves, report);
+        report.measure(leaves, scale);
+        return report;
+    }
+
+    /**
+     * A shape to measure, with the state it inherits from its enclosing groups.
+     */
+    private static class Leaf {
+        DisplayNode node;
+        // The intersection of the bounds of every clip on the way down, in document co-ordinates, or null for none
+        RectF clip;
+        // Whether the shape draws straight to the canvas, and whether every clip is exactly its bounds
+        boolean direct;
+        boolean exactClip;
+        // Set for the offscreen layer of a group rather than a shape
+        boolean layer;
+        Element element;
+    }
+
+    private static void collectLeaves(ArrayList<DisplayNode> nodes, RectF clip, boolean direct, boolean exactClip,
+                                      ArrayList<Leaf> out, OverdrawReport report) {
+        for (DisplayNode node : nodes) {
+            if (!node.visible) {
+                continue;
+            }
+            RectF nodeClip = clip;
+            boolean nodeExact = exactClip;
+            if (node.clip != null) {
+                nodeClip = new RectF(node.clip.bounds);
+                if (clip != null && !nodeClip.intersect(clip)) {
+                    continue;
+                }
+                nodeExact &= node.clip.rect != null;
+            }
+            boolean nodeDirect = direct && node.mask == null && node.filter == null;
+            if (node.kind == DisplayNode.KIND_GROUP) {
+                boolean hasLayer = node.alpha < 255 || node.mask != null;
+                collectLeaves(node.children, nodeClip, nodeDirect && !hasLayer, nodeExact, out, report);
+                if (hasLayer) {
+                    // The layer is composited after the children are drawn in to it
+                    Leaf leaf = new Leaf();
+                    leaf.node = node;
+                    leaf.clip = nodeClip;
+                    leaf.layer = true;
+                    out.add(leaf);
+                }
+            } else {
+                Leaf leaf = new Leaf();
+                leaf.node = node;
+                leaf.clip = nodeClip;
+                leaf.direct = nodeDirect;
+                leaf.exactClip = nodeExact;
+                leaf.element = new Element(node.id, node.bounds);
+                report.elements.add(leaf.element);
+                out.add(leaf);
+            }
+        }
+    }
+
+    private void measure(ArrayList<Leaf> leaves, float scale) {
+        // Walk backwards, so that the pixels painted opaquely by everything drawn later are known
+        boolean[] opaque = new boolean[width * height];
+        for (int i = leaves.size() - 1; i >= 0; i--) {
+            Leaf leaf = leaves.get(i);
+            DisplayNode node = leaf.node;
+            RectF b = new RectF(node.bounds);
+            if (leaf.clip != null && !b.intersect(leaf.clip)) {
+                continue;
+            }
+            int left = Math.max(0, (int) Math.floor(b.left * scale));
+            int top = Math.max(0, (int) Math.floor(b.top * scale));
+            int right = Math.min(width, (int) Math.ceil(b.right * scale));
+            int bottom = Math.min(height, (int) Math.ceil(b.bottom * scale));
+            if (left >= right || top >= bottom) {
+                continue;
+            }
+            int w = right - left;
+            boolean[] fill = new boolean[w * (bottom - top)];
+            boolean[] stroke = null;
+            if (leaf.layer) {
+                Arrays.fill(fill, true);
+            } else {
+                float[] transform = Affine.concat(new float[]{scale, 0, 0, 0, scale, 0}, Affine.fromMatrix(node.matrix));
+                PackedPath geometry = node.toPackedPath();
+                if (node.fill != null) {
+                    if (geometry == null) {
+                        Arrays.fill(fill, true);
+                    } else {
+                        CoverageRasterizer.fill(geometry.flatten(Affine.scale(transform)), transform, node.evenOdd,
+                                left, top, right, bottom, fill);
+                    }
+                }
+                if (node.stroke != null) {
+                    stroke = new boolean[fill.length];
+                    if (geometry == null) {
+                        Arrays.fill(stroke, true);
+                    } else {
+                        // A hairline is a pixel wide at any scale
+                        float halfWidth = node.stroke.getStrokeWidth() > 0 ? node.stroke.getStrokeWidth() / 2
+                                : 0.5f / Affine.scale(transform);
+                        CoverageRasterizer.stroke(geometry.flatten(Affine.scale(transform)), transform, halfWidth,
+                                left, top, right, bottom, stroke);
+                    }
+                }
+            }
+            boolean fillHides = leaf.direct && leaf.exactClip && node.fill != null && OcclusionCuller.isOpaque(node);
+            boolean strokeHides = leaf.direct && leaf.exactClip && node.stroke != null && node.stroke.getAlpha() == 255
+                    && node.stroke.getShader() == null;
+            for (int y = top; y < bottom; y++) {
+                for (int x = left; x < right; x++) {
+                    int k = (y - top) * w + x - left;
+                    int p = y * width + x;
+                    int painted = (fill[k] ? 1 : 0) + (stroke != null && stroke[k] ? 1 : 0);
+                    if (painted == 0 || !inClip(leaf.clip, x, y, scale)) {
+                        continue;
+                    }
+                    counts[p] += painted;
+                    pixelsDrawn += painted;
+                    if (leaf.element != null) {
+                        leaf.element.pixelsDrawn += painted;
+                        if (opaque[p]) {
+                            leaf.element.pixelsHidden += painted;
+                            pixelsHidden += painted;
+                        }
+                    }
+                    if ((fillHides && fill[k]) || (strokeHides && stroke[k])) {
+                        opaque[p] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean inClip(RectF clip, int x, int y, float scale) {
+        if (clip == null) {
+            return true;
+        }
+        float cx = (x + 0.5f) / scale;
+        float cy = (y + 0.5f) / scale;
+        return clip.left <= cx && cx < clip.right && clip.top <= cy && cy < clip.bottom;
+    }
+
+    /**
+     * @return the width of the pixel grid.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the pixel grid.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of times a pixel is painted.
+     * @param x the pixel.
+     * @param y the pixel.
+     * @return the number of fills, strokes and layers that paint it.
+     */
+    public int getDrawCount(int x, int y) {
+        return counts[y * width + x];
+    }
+
+    /**
+     * @return the total number of pixels painted by every fill, stroke and layer.
+     */
+    public long getPixelsDrawn() {
+        return pixelsDrawn;
+    }
+
+    /**
+     * @return the total number of pixels painted by shapes and then painted over by opaque shapes.
+     */
+    public long getPixelsHidden() {
+        return pixelsHidden;
+    }
+
+    /**
+     * @return the average number of times each pixel painted at all is painted, 1 meaning no overdraw.
+     */
+    public float getAverageOverdraw() {
+        int covered = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                covered++;
+            }
+        }
+        return covered == 0 ? 0 : (float) pixelsDrawn / covered;
+    }
+
+    /**
+     * Gets the elements that paint hidden pixels, worst first.
+     * @return the elements, in descending order of the number of hidden pixels they paint.
+     */
+    public List<Element> getCulprits() {
+        ArrayList<Element> culprits = new ArrayList<Element>();
+        for (Element e : elements) {
+            if (e.pixelsHidden > 0) {
+                culprits.add(e);
+            }
+        }
+        Collections.sort(culprits, new Comparator<Element>() {
+            public int compare(Element a, Element b) {
+                return a.pixelsHidden < b.pixelsHidden ? 1 : a.pixelsHidden > b.pixelsHidden ? -1 : 0;
+            }
+        });
+        return culprits;
+    }
+
+    /**
+     * Creates a heatmap of the overdraw, to be drawn over the SVG: pixels painted once are left clear, and pixels
+     * painted 2, 3, 4 and 5 or more times are blue, green, pink and red.
+     * @return a bitmap the size of the pixel grid.
+     */
+    public Bitmap createHeatmap() {
+        int[] colors = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            colors[i] = HEATMAP_COLORS[Math.min(counts[i], HEATMAP_COLORS.length - 1)];
+        }
+        return Bitmap.createBitmap(colors, width, height, Bitmap.Config.ARGB_8888);
+    }
+}
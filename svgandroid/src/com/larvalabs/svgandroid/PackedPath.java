@@ -0,0 +1,643 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Matrix;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Path geometry packed in to two flat arrays: one byte per verb, and the coordinates of all of the verbs' points in
+ * order. Paths are normalized to absolute coordinates and to the verbs {@link #MOVE}, {@link #LINE}, {@link #QUAD},
+ * {@link #CUBIC} and {@link #CLOSE}, so everything in SVG path data (including arcs and the smooth and relative
+ * forms) maps on to these five.
+ * <p/>
+ * Packed paths are immutable once parsed, which makes them safe to cache and share between threads. They can be
+ * turned in to an <code>android.graphics.Path</code>, measured, flattened, hit-tested, transformed and written to a
+ * stream without going through native code.
+ *
+ * @author Larva Labs, LLC
+ */
+public final class PackedPath {
+
+    public static final byte MOVE = 0;
+    public static final byte LINE = 1;
+    public static final byte QUAD = 2;
+    public static final byte CUBIC = 3;
+    public static final byte CLOSE = 4;
+
+    /**
+     * The number of coordinates (two per point) taken by each verb.
+     */
+    private static final int[] COORD_COUNT = {2, 2, 4, 6, 0};
+
+    /**
+     * The largest distance, in pixels, between a curve and the lines it is flattened in to.
+     */
+    private static final float FLATTEN_TOLERANCE = 0.25f;
+
+    /**
+     * The range of power-of-two scale buckets that flattened paths are kept for.
+     */
+    private static final int MIN_FLATTEN_BUCKET = -16;
+    private static final int MAX_FLATTEN_BUCKET = 16;
+
+    private static final int FORMAT_VERSION = 1;
+
+    byte[] verbs;
+    int verbCount = 0;
+    float[] coords;
+    int coordCount = 0;
+
+    // The flattened forms made so far, by scale bucket
+    private FlattenedPath[] flattened = null;
+
+    /**
+     * Creates an empty path, to be built by the parser.
+     */
+    PackedPath() {
+        verbs = new byte[16];
+        coords = new float[32];
+    }
+
+    PackedPath(byte[] verbs, int verbCount, float[] coords, int coordCount) {
+        this.verbs = verbs;
+        this.verbCount = verbCount;
+        this.coords = coords;
+        this.coordCount = coordCount;
+    }
+
+    private void addVerb(byte verb, int count) {
+        if (verbCount == verbs.length) {
+            byte[] bigger = new byte[verbs.length * 2];
+            System.arraycopy(verbs, 0, bigger, 0, verbCount);
+            verbs = bigger;
+        }
+        verbs[verbCount++] = verb;
+        if (coordCount + count > coords.length) {
+            float[] bigger = new float[Math.max(coords.length * 2, coordCount + count)];
+            System.arraycopy(coords, 0, bigger, 0, coordCount);
+            coords = bigger;
+        }
+    }
+
+    void moveTo(float x, float y) {
+        addVerb(MOVE, 2);
+        coords[coordCount++] = x;
+        coords[coordCount++] = y;
+    }
+
+    void lineTo(float x, float y) {
+        addVerb(LINE, 2);
+        coords[coordCount++] = x;
+        coords[coordCount++] = y;
+    }
+
+    void quadTo(float x1, float y1, float x, float y) {
+        addVerb(QUAD, 4);
+        coords[coordCount++] = x1;
+        coords[coordCount++] = y1;
+        coords[coordCount++] = x;
+        coords[coordCount++] = y;
+    }
+
+    void cubicTo(float x1, float y1, float x2, float y2, float x, float y) {
+        addVerb(CUBIC, 6);
+        coords[coordCount++] = x1;
+        coords[coordCount++] = y1;
+        coords[coordCount++] = x2;
+        coords[coordCount++] = y2;
+        coords[coordCount++] = x;
+        coords[coordCount++] = y;
+    }
+
+    void close() {
+        addVerb(CLOSE, 0);
+    }
+
+    /**
+     * Releases the spare capacity left over from building the path.
+     */
+    void trim() {
+        if (verbs.length != verbCount) {
+            byte[] v = new byte[verbCount];
+            System.arraycopy(verbs, 0, v, 0, verbCount);
+            verbs = v;
+        }
+        if (coords.length != coordCount) {
+            float[] c = new float[coordCount];
+            System.arraycopy(coords, 0, c, 0, coordCount);
+            coords = c;
+        }
+    }
+
+    /**
+     * @return the number of verbs in the path.
+     */
+    public int getVerbCount() {
+        return verbCount;
+    }
+
+    /**
+     * @param i the index of the verb.
+     * @return the verb, one of {@link #MOVE}, {@link #LINE}, {@link #QUAD}, {@link #CUBIC} or {@link #CLOSE}.
+     */
+    public byte getVerb(int i) {
+        return verbs[i];
+    }
+
+    /**
+     * @return the total number of coordinates in the path, two for each point.
+     */
+    public int getCoordCount() {
+        return coordCount;
+    }
+
+    /**
+     * @param i the index of the coordinate. The points of each verb follow on from those of the verb before.
+     * @return the coordinate.
+     */
+    public float getCoord(int i) {
+        return coords[i];
+    }
+
+    /**
+     * @param verb one of the verbs.
+     * @return the number of coordinates that the verb takes.
+     */
+    public static int getCoordCount(byte verb) {
+        return COORD_COUNT[verb];
+    }
+
+    /**
+     * @return a new <code>android.graphics.Path</code> with this geometry.
+     */
+    public Path toPath() {
+        Path p = new Path();
+        p.incReserve(coordCount / 2);
+        float[] c = coords;
+        int j = 0;
+        for (int i = 0; i < verbCount; i++) {
+            switch (verbs[i]) {
+                case MOVE:
+                    p.moveTo(c[j], c[j + 1]);
+                    j += 2;
+                    break;
+                case LINE:
+                    p.lineTo(c[j], c[j + 1]);
+                    j += 2;
+                    break;
+                case QUAD:
+                    p.quadTo(c[j], c[j + 1], c[j + 2], c[j + 3]);
+                    j += 4;
+                    break;
+                case CUBIC:
+                    p.cubicTo(c[j], c[j + 1], c[j + 2], c[j + 3], c[j + 4], c[j + 5]);
+                    j += 6;
+                    break;
+                case CLOSE:
+                    p.close();
+                    break;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Computes the bounds of all of the path's points, including curve control points. This always contains the
+     * path, though it may be larger than the area the curves actually reach.
+     * @param out the rectangle to store the bounds in, set empty if the path has no points.
+     */
+    public void computeBounds(RectF out) {
+        if (coordCount == 0) {
+            out.setEmpty();
+            return;
+        }
+        float left = coords[0], right = left;
+        float top = coords[1], bottom = top;
+        for (int j = 2; j < coordCount; j += 2) {
+            float x = coords[j];
+            float y = coords[j + 1];
+            if (x < left) {
+                left = x;
+            } else if (x > right) {
+                right = x;
+            }
+            if (y < top) {
+                top = y;
+            } else if (y > bottom) {
+                bottom = y;
+            }
+        }
+        out.set(left, top, right, bottom);
+    }
+
+    /**
+     * Computes the exact bounds of the path, solving for the extremes of each curve rather than taking its control
+     * points.
+     * @param out the rectangle to store the bounds in, set empty if the path has no points.
+     */
+    public void computeTightBounds(RectF out) {
+        computeTightBounds(out, null);
+    }
+
+    /**
+     * Computes the exact bounds of the path after an affine transform. Since a transformed curve is the curve through
+     * the transformed control points, this is exact too, unlike transforming the bounds.
+     * @param out the rectangle to store the bounds in, set empty if the path has no points.
+     * @param transform the transform in the form used by {@link Affine}, or null for none.
+     */
+    void computeTightBounds(RectF out, float[] transform) {
+        if (coordCount == 0) {
+            out.setEmpty();
+            return;
+        }
+        float[] c = coords;
+        // The transformed points of the current verb, starting with the end of the previous one
+        float[] p = new float[8];
+        float[] b = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        float startX = 0, startY = 0;
+        int j = 0;
+        for (int i = 0; i < verbCount; i++) {
+            byte verb = verbs[i];
+            int count = COORD_COUNT[verb];
+            for (int k = 0; k < count; k += 2) {
+                p[k + 2] = Affine.mapX(transform, c[j + k], c[j + k + 1]);
+                p[k + 3] = Affine.mapY(transform, c[j + k], c[j + k + 1]);
+            }
+            j += count;
+            switch (verb) {
+                case MOVE:
+                    startX = p[2];
+                    startY = p[3];
+                    // Fall through
+                case LINE:
+                    include(b, p[2], p[3]);
+                    break;
+                case QUAD:
+                    include(b, p[4], p[5]);
+                    quadExtremum(b, 0, p[0], p[2], p[4]);
+                    quadExtremum(b, 1, p[1], p[3], p[5]);
+                    break;
+                case CUBIC:
+                    include(b, p[6], p[7]);
+                    cubicExtrema(b, 0, p[0], p[2], p[4], p[6]);
+                    cubicExtrema(b, 1, p[1], p[3], p[5], p[7]);
+                    break;
+                case CLOSE:
+                    p[2] = startX;
+                    p[3] = startY;
+                    break;
+            }
+            // The end of this verb is the start of the next
+            p[0] = p[count == 0 ? 2 : count];
+            p[1] = p[count == 0 ? 3 : count + 1];
+        }
+        out.set(b[0], b[1], b[2], b[3]);
+    }
+
+    private static void include(float[] b, float x, float y) {
+        b[0] = Math.min(b[0], x);
+        b[1] = Math.min(b[1], y);
+        b[2] = Math.max(b[2], x);
+        b[3] = Math.max(b[3], y);
+    }
+
+    /**
+     * Includes the extreme value of one co-ordinate of a quadratic curve, where its derivative is zero.
+     */
+    private static void quadExtremum(float[] b, int axis, float p0, float p1, float p2) {
+        float d = p0 - 2 * p1 + p2;
+        if (d != 0) {
+            float t = (p0 - p1) / d;
+            if (t > 0 && t < 1) {
+                float u = 1 - t;
+                includeAxis(b, axis, u * u * p0 + 2 * u * t * p1 + t * t * p2);
+            }
+        }
+    }
+
+    /**
+     * Includes the extreme values of one co-ordinate of a cubic curve, solving the quadratic derivative for zero.
+     */
+    private static void cubicExtrema(float[] b, int axis, float p0, float p1, float p2, float p3) {
+        float a = -p0 + 3 * p1 - 3 * p2 + p3;
+        float bb = 2 * (p0 - 2 * p1 + p2);
+        float cc = p1 - p0;
+        if (Math.abs(a) < 1e-12f) {
+            if (bb != 0) {
+                cubicAt(b, axis, -cc / bb, p0, p1, p2, p3);
+            }
+            return;
+        }
+        float discriminant = bb * bb - 4 * a * cc;
+        if (discriminant < 0) {
+            return;
+        }
+        float root = (float) Math.sqrt(discriminant);
+        cubicAt(b, axis, (-bb + root) / (2 * a), p0, p1, p2, p3);
+        cubicAt(b, axis, (-bb - root) / (2 * a), p0, p1, p2, p3);
+    }
+
+    private static void cubicAt(float[] b, int axis, float t, float p0, float p1, float p2, float p3) {
+        if (t > 0 && t < 1) {
+            float u = 1 - t;
+            includeAxis(b, axis, u * u * u * p0 + 3 * u * u * t * p1 + 3 * u * t * t * p2 + t * t * t * p3);
+        }
+    }
+
+    private static void includeAxis(float[] b, int axis, float v) {
+        b[axis] = Math.min(b[axis], v);
+        b[axis + 2] = Math.max(b[axis + 2], v);
+    }
+
+    /**
+     * Determines whether a point is inside the area filled by the path, with curves flattened to within a tolerance
+     * of a user unit. Every sub-path is treated as closed.
+     * @param x the point.
+     * @param y the point.
+     * @param evenOdd true for the even-odd fill rule, false for non-zero.
+     * @return true if the point is inside.
+     */
+    public boolean contains(float x, float y, boolean evenOdd) {
+        return flatten(1).contains(x, y, evenOdd);
+    }
+
+    /**
+     * Gets the path with its curves flattened in to lines, accurate to a fraction of a pixel at a given scale. The
+     * result is kept, for each power-of-two range of scales, so repeated hit tests or draws at the same zoom don't
+     * subdivide the curves again.
+     * @param scale the number of pixels per user unit.
+     * @return the flattened path.
+     */
+    public FlattenedPath flatten(float scale) {
+        int bucket = scale > 0 ? (int) Math.floor(Math.log(scale) / Math.log(2)) : MIN_FLATTEN_BUCKET;
+        bucket = Math.max(MIN_FLATTEN_BUCKET, Math.min(MAX_FLATTEN_BUCKET, bucket));
+        int index = bucket - MIN_FLATTEN_BUCKET;
+        synchronized (this) {
+            if (flattened == null) {
+                flattened = new FlattenedPath[MAX_FLATTEN_BUCKET - MIN_FLATTEN_BUCKET + 1];
+            } else if (flattened[index] != null) {
+                return flattened[index];
+            }
+        }
+        // Flatten for the largest scale in the bucket, so the result is accurate enough for all of them
+        FlattenedPath f = new FlattenedPath(this, FLATTEN_TOLERANCE / (float) Math.pow(2, bucket + 1));
+        synchronized (this) {
+            flattened[index] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Transforms every point of the path. All of the points are mapped in a single call.
+     * @param matrix the transform, which should be affine for the curves to be transformed exactly.
+     * @return the transformed path.
+     */
+    public PackedPath transform(Matrix matrix) {
+        float[] mapped = new float[coordCount];
+        matrix.mapPoints(mapped, 0, coords, 0, coordCount / 2);
+        byte[] v = new byte[verbCount];
+        System.arraycopy(verbs, 0, v, 0, verbCount);
+        return new PackedPath(v, verbCount, mapped, coordCount);
+    }
+
+    /**
+     * Simplifies the path within a tolerance: curves that are flat to within the tolerance become lines, segments
+     * shorter than the tolerance are dropped, and runs of collinear lines are merged in to one. No part of the
+     * simplified outline strays from the original by more than the tolerance.
+     * @param tolerance the largest allowed error, in the path's own units.
+     * @return the simplified path, or this path if nothing could be removed. The number of points removed is the
+     * difference in {@link #getCoordCount()} divided by two.
+     */
+    public PackedPath simplify(float tolerance) {
+        float[] c = coords;
+        PackedPath out = new PackedPath(new byte[verbCount], 0, new float[coordCount], 0);
+        // The points skipped over by the line at the end of the output, which must stay within the tolerance of it
+        float[] run = new float[2 * MAX_MERGED_POINTS];
+        int runCount = 0;
+        // Whether the output ends with a line that can be extended, and where that line starts
+        boolean lastIsLine = false;
+        float runX = 0, runY = 0;
+        float startX = 0, startY = 0;
+        float lastX = 0, lastY = 0;
+        int j = 0;
+        for (int i = 0; i < verbCount; i++) {
+            byte verb = verbs[i];
+            if (verb == MOVE) {
+                out.moveTo(c[j], c[j + 1]);
+                startX = lastX = c[j];
+                startY = lastY = c[j + 1];
+                lastIsLine = false;
+                j += 2;
+                continue;
+            } else if (verb == CLOSE) {
+                out.close();
+                lastX = startX;
+                lastY = startY;
+                lastIsLine = false;
+                continue;
+            }
+            int count = COORD_COUNT[verb];
+            float x = c[j + count - 2];
+            float y = c[j + count - 1];
+            // A curve is flat if its control points are all close to the line joining its ends
+            boolean flat = true;
+            for (int k = j; k < j + count - 2 && flat; k += 2) {
+                flat = distanceToSegment(c[k], c[k + 1], lastX, lastY, x, y) <= tolerance;
+            }
+            if (!flat) {
+                if (verb == QUAD) {
+                    out.quadTo(c[j], c[j + 1], x, y);
+                } else {
+                    out.cubicTo(c[j], c[j + 1], c[j + 2], c[j + 3], x, y);
+                }
+                lastX = x;
+                lastY = y;
+                lastIsLine = false;
+                j += count;
+                continue;
+            }
+            boolean afterMove = out.verbCount == 0 || out.verbs[out.verbCount - 1] == MOVE;
+            boolean closing = i + 1 < verbCount && verbs[i + 1] == CLOSE;
+            boolean tiny = true;
+            for (int k = j; k < j + count && tiny; k += 2) {
+                tiny = distanceToSegment(c[k], c[k + 1], lastX, lastY, lastX, lastY) <= tolerance;
+            }
+            if (!afterMove && (tiny || (closing && distanceToSegment(x, y, startX, startY, startX, startY) <= tolerance))) {
+                // Drop a segment that goes nowhere, or a line that the close would draw anyway
+                j += count;
+                if (tiny && lastIsLine && runCount < MAX_MERGED_POINTS) {
+                    run[2 * runCount] = x;
+                    run[2 * runCount + 1] = y;
+                    runCount++;
+                }
+                continue;
+            }
+            if (lastIsLine && runCount + count / 2 < MAX_MERGED_POINTS) {
+                // Try extending the last line to the end of this segment instead
+                boolean collinear = distanceToSegment(lastX, lastY, runX, runY, x, y) <= tolerance;
+                for (int k = 0; k < runCount && collinear; k++) {
+                    collinear = distanceToSegment(run[2 * k], run[2 * k + 1], runX, runY, x, y) <= tolerance;
+                }
+                for (int k = j; k < j + count - 2 && collinear; k += 2) {
+                    collinear = distanceToSegment(c[k], c[k + 1], runX, runY, x, y) <= tolerance;
+                }
+                if (collinear) {
+                    run[2 * runCount] = lastX;
+                    run[2 * runCount + 1] = lastY;
+                    runCount++;
+                    for (int k = j; k < j + count - 2; k += 2) {
+                        run[2 * runCount] = c[k];
+                        run[2 * runCount + 1] = c[k + 1];
+                        runCount++;
+                    }
+                    out.coords[out.coordCount - 2] = x;
+                    out.coords[out.coordCount - 1] = y;
+                    lastX = x;
+                    lastY = y;
+                    j += count;
+                    continue;
+                }
+            }
+            out.lineTo(x, y);
+            runX = lastX;
+            runY = lastY;
+            runCount = 0;
+            for (int k = j; k < j + count - 2; k += 2) {
+                run[2 * runCount] = c[k];
+                run[2 * runCount + 1] = c[k + 1];
+                runCount++;
+            }
+            lastX = x;
+            lastY = y;
+            lastIsLine = true;
+            j += count;
+        }
+        if (out.coordCount == coordCount) {
+            return this;
+        }
+        out.trim();
+        return out;
+    }
+
+    /**
+     * The most points that a merged line may stand in for, which bounds the work done checking each merge.
+     */
+    private static final int MAX_MERGED_POINTS = 64;
+
+    private static float distanceToSegment(float px, float py, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((px - x0) * dx + (py - y0) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        float ex = px - (x0 + t * dx);
+        float ey = py - (y0 + t * dy);
+        return (float) Math.sqrt(ex * ex + ey * ey);
+    }
+
+    /**
+     * Writes the path in a compact binary form, which can be read back with {@link #readFrom(DataInput)}.
+     * @param out the stream to write to.
+     * @throws IOException if the stream can't be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(verbCount);
+        out.write(verbs, 0, verbCount);
+        out.writeInt(coordCount);
+        for (int j = 0; j < coordCount; j++) {
+            out.writeFloat(coords[j]);
+        }
+    }
+
+    /**
+     * Reads a path written by {@link #writeTo(DataOutput)}.
+     * @param in the stream to read from.
+     * @return the path.
+     * @throws IOException if the stream can't be read or doesn't hold a path.
+     */
+    public static PackedPath readFrom(DataInput in) throws IOException {
+        int version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown packed path format " + version);
+        }
+        int verbCount = in.readInt();
+        byte[] verbs = new byte[verbCount];
+        in.readFully(verbs);
+        int coordCount = in.readInt();
+        int expected = 0;
+        for (byte verb : verbs) {
+            if (verb < MOVE || verb > CLOSE) {
+                throw new IOException("Bad path verb " + verb);
+            }
+            expected += COORD_COUNT[verb];
+        }
+        if (coordCount != expected) {
+            throw new IOException("Expected " + expected + " coordinates, found " + coordCount);
+        }
+        float[] coords = new float[coordCount];
+        for (int j = 0; j < coordCount; j++) {
+            coords[j] = in.readFloat();
+        }
+        return new PackedPath(verbs, verbCount, coords, coordCount);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof PackedPath)) {
+            return false;
+        }
+        PackedPath other = (PackedPath) o;
+        if (verbCount != other.verbCount || coordCount != other.coordCount) {
+            return false;
+        }
+        for (int i = 0; i < verbCount; i++) {
+            if (verbs[i] != other.verbs[i]) {
+                return false;
+            }
+        }
+        for (int j = 0; j < coordCount; j++) {
+            if (Float.floatToIntBits(coords[j]) != Float.floatToIntBits(other.coords[j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = verbCount;
+        for (int i = 0; i < verbCount; i++) {
+            h = 31 * h + verbs[i];
+        }
+        for (int j = 0; j < coordCount; j++) {
+            h = 31 * h + Float.floatToIntBits(coords[j]);
+        }
+        return h;
+    }
+}
@@ -303,4 +303,19 @@ public class ParserHelper {
         skipNumberSeparator();
         return f;
     }
+
+    /**
+     * Reads an arc flag, which is a single <code>0</code> or <code>1</code> that needn't be separated from whatever
+     * follows it (so <code>a1 1 0 01 1 1</code> is valid).
+     * @return true for a <code>1</code>.
+     */
+    public boolean nextFlag() {
+        skipWhitespace();
+        boolean flag = current == '1';
+        if (current == '0' || current == '1') {
+            advance();
+        }
+        skipNumberSeparator();
+        return flag;
+    }
 }
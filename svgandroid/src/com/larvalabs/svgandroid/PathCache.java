@@ -0,0 +1,103 @@
+package com.larvalabs.svgandroid;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A least-recently-used cache of parsed path data, keyed by the path data string. Identical paths, whether repeated
+ * within one document, across documents, or parsed over and over through {@link SVGParser#parsePath(String)}, are
+ * parsed once and share the same packed geometry. Packed paths are never modified once parsed, so sharing them between
+ * threads is safe.
+ *
+ * @author Larva Labs, LLC
+ */
+class PathCache {
+
+    /**
+     * The default maximum number of paths in the shared cache.
+     */
+    static final int DEFAULT_MAX_PATHS = 256;
+
+    /**
+     * The cache shared by all parsing.
+     */
+    static final PathCache SHARED = new PathCache(DEFAULT_MAX_PATHS);
+
+    private final LinkedHashMap<String, PackedPath> map = new LinkedHashMap<String, PackedPath>(64, 0.75f, true);
+    private int maxPaths;
+    private int hits = 0;
+    private int misses = 0;
+
+    PathCache(int maxPaths) {
+        this.maxPaths = maxPaths;
+    }
+
+    /**
+     * Gets the parsed form of some path data, parsing it if it isn't cached.
+     * @param pathData the path data.
+     * @return the packed path, which must not be modified.
+     */
+    PackedPath get(String pathData) {
+        if (pathData == null) {
+            return SVGParser.doPackedPath(null);
+        }
+        synchronized (this) {
+            PackedPath path = map.get(pathData);
+            if (path != null) {
+                hits++;
+                return path;
+            }
+            misses++;
+        }
+        // Parse outside of the lock, so that other threads aren't held up by a long path
+        PackedPath path = SVGParser.doPackedPath(pathData);
+        synchronized (this) {
+            map.put(pathData, path);
+            trimTo(maxPaths);
+        }
+        return path;
+    }
+
+    synchronized void setMaxPaths(int maxPaths) {
+        this.maxPaths = maxPaths;
+        trimTo(maxPaths);
+    }
+
+    synchronized void clear() {
+        map.clear();
+    }
+
+    synchronized int getHits() {
+        return hits;
+    }
+
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    private void trimTo(int size) {
+        Iterator<String> it = map.keySet().iterator();
+        while (map.size() > size && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
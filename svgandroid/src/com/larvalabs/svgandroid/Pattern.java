@@ -0,0 +1,218 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A parsed &lt;pattern&gt; element. The pattern content is recorded once, rendered in to a single tile at the
+ * device scale, and filled with a repeating bitmap shader, so a patterned area costs one bitmap fill no matter how
+ * much content the tile holds. Elements filled with the same pattern share its tile whenever their tiles are the same
+ * size, which they always are unless the tile is relative to each element's bounding box.
+ * <p/>
+ * Pattern content is always in user space (the default <code>patternContentUnits</code>), and <code>viewBox</code>
+ * is not supported.
+ *
+ * @author Larva Labs, LLC
+ */
+class Pattern {
+
+    final String id;
+
+    /**
+     * The tile, in the pattern's co-ordinate space. When <code>objectBoundingBox</code> is true these are fractions
+     * of the bounding box of the element being filled.
+     */
+    final RectF tile;
+    final boolean objectBoundingBox;
+
+    /**
+     * The pattern transform, or null.
+     */
+    final Matrix matrix;
+
+    /**
+     * The pattern content, drawn relative to the top left of the tile.
+     */
+    ArrayList<DisplayNode> content;
+
+    /**
+     * The parsed pattern that this was made from for one element, or this pattern itself. The tiles of every copy
+     * are owned by it, so elements filled with tiles of the same size share them.
+     */
+    private final Pattern source;
+
+    // The shader most recently handed out for drawing directly, and the cached bitmap it was made from
+    private Shader shader = null;
+    private Bitmap shaderBitmap = null;
+
+    // The shader used while recording the picture, made from a tile rendered once at scale 1 and never recycled
+    private Shader pictureShader = null;
+
+    // For the source pattern, the tiles rendered for recording pictures, by size
+    private HashMap<Tile, Bitmap> pictureTiles = null;
+
+    Pattern(String id, RectF tile, boolean objectBoundingBox, Matrix matrix) {
+        this(id, tile, objectBoundingBox, matrix, null);
+    }
+
+    private Pattern(String id, RectF tile, boolean objectBoundingBox, Matrix matrix, Pattern source) {
+        this.id = id;
+        this.tile = tile;
+        this.objectBoundingBox = objectBoundingBox;
+        this.matrix = matrix;
+        this.source = source == null ? this : source;
+    }
+
+    /**
+     * Identifies the tiles of a pattern rendered at one size, whatever the position of the element they fill.
+     */
+    private static class Tile {
+        final Pattern source;
+        final float width;
+        final float height;
+
+        Tile(Pattern source, float width, float height) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+            Tile other = (Tile) o;
+            return source == other.source && width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * System.identityHashCode(source) + Float.floatToIntBits(width)) * 31
+                    + Float.floatToIntBits(height);
+        }
+    }
+
+    /**
+     * Gets the pattern for filling a particular element. Patterns in user space are shared by every element that uses
+     * them, patterns relative to the bounding box need their own copy.
+     * @param box the bounding box of the element's geometry.
+     * @return the pattern to fill the element with.
+     */
+    Pattern forBounds(RectF box) {
+        if (!objectBoundingBox) {
+            return this;
+        }
+        RectF t = new RectF(box.left + tile.left * box.width(), box.top + tile.top * box.height(), 0, 0);
+        t.right = t.left + tile.width() * box.width();
+        t.bottom = t.top + tile.height() * box.height();
+        Pattern p = new Pattern(id, t, false, matrix, source);
+        p.content = content;
+        return p;
+    }
+
+    /**
+     * Gets a shader that fills with this pattern at the current scale of the canvas.
+     * @param canvas the canvas that will be drawn to.
+     * @param cache the cache to keep tiles in, or null when recording a picture (which holds on to the tile).
+     * @return the shader, or null if the pattern is empty.
+     */
+    Shader getShader(Canvas canvas, BitmapCache cache) {
+        if (tile.width() <= 0 || tile.height() <= 0) {
+            return null;
+        }
+        Tile size = new Tile(source, tile.width(), tile.height());
+        if (cache == null) {
+            if (pictureShader == null) {
+                pictureShader = createShader(getPictureTile(size));
+            }
+            return pictureShader;
+        }
+        BitmapCache.Key key = new BitmapCache.Key(size, BitmapCache.getDeviceScale(canvas));
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null) {
+            bitmap = render(key.scale);
+            cache.put(key, bitmap);
+        }
+        if (bitmap != shaderBitmap) {
+            shader = createShader(bitmap);
+            shaderBitmap = bitmap;
+        }
+        return shader;
+    }
+
+    /**
+     * Gets the tile of a size for recording pictures, shared by every element filled with the source pattern.
+     */
+    private Bitmap getPictureTile(Tile size) {
+        synchronized (source) {
+            if (source.pictureTiles == null) {
+                source.pictureTiles = new HashMap<Tile, Bitmap>();
+            }
+            Bitmap bitmap = source.pictureTiles.get(size);
+            if (bitmap == null) {
+                bitmap = render(1f);
+                source.pictureTiles.put(size, bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Makes a shader that repeats a tile, placed at this pattern's tile position.
+     */
+    private Shader createShader(Bitmap bitmap) {
+        BitmapShader s = new BitmapShader(bitmap, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT);
+        Matrix local = new Matrix();
+        local.setScale(tile.width() / bitmap.getWidth(), tile.height() / bitmap.getHeight());
+        local.postTranslate(tile.left, tile.top);
+        if (matrix != null) {
+            local.postConcat(matrix);
+        }
+        s.setLocalMatrix(local);
+        return s;
+    }
+
+    /**
+     * Renders a single tile of the pattern.
+     * @param scale the device scale to render at.
+     * @return the tile.
+     */
+    private Bitmap render(float scale) {
+        scale = BitmapCache.clampScale(scale, tile.width(), tile.height());
+        int width = Math.max(1, Math.round(tile.width() * scale));
+        int height = Math.max(1, Math.round(tile.height() * scale));
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.scale(width / tile.width(), height / tile.height());
+        for (DisplayNode node : content) {
+            node.draw(canvas, null);
+        }
+        return bitmap;
+    }
+}
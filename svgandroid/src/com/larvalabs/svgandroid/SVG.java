@@ -1,9 +1,19 @@
 package com.larvalabs.svgandroid;
 
+import android.graphics.Canvas;
 import android.graphics.Picture;
 import android.graphics.RectF;
 import android.graphics.drawable.PictureDrawable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
 /*
 
    Licensed to the Apache Software Foundation (ASF) under one or more
@@ -29,22 +39,126 @@ import android.graphics.drawable.PictureDrawable;
  */
 public class SVG {
 
+    /**
+     * The smallest width or height, in pixels, of an element kept in a level of detail variant.
+     */
+    private static final float LOD_MIN_SIZE = 1f;
+
+    /**
+     * The largest error, in pixels, allowed when simplifying paths for a level of detail variant.
+     */
+    private static final float LOD_TOLERANCE = 0.25f;
+
+    /**
+     * The smallest scale bucket that gets its own variant (1/65536 scale), anything smaller uses this one.
+     */
+    private static final int LOD_MIN_BUCKET = -16;
+
     /**
      * The parsed Picture object.
      */
     private Picture picture;
 
+    /**
+     * The recorded drawing operations that the picture was made from, kept so that the SVG can also be drawn directly
+     * at whatever scale it is displayed at.
+     */
+    private ArrayList<DisplayNode> nodes = new ArrayList<DisplayNode>();
+
     /**
      * These are the bounds for the SVG specified as a hidden "bounds" layer in the SVG.
      */
     private RectF bounds;
 
     /**
-     * These are the estimated bounds of the SVG computed from the SVG elements while parsing.
+     * These are the bounds of the SVG computed from the SVG elements while parsing.
      * Note that this could be null if there was a failure to compute limits (ie. an empty SVG).
      */
     private RectF limits = null;
 
+    /**
+     * The number of offscreen layers used to draw translucent groups, and the number of translucent groups that were
+     * drawn without a layer by folding the group opacity in to the paint of each child.
+     */
+    private int layerCount = 0;
+    private int layersAvoided = 0;
+
+    /**
+     * The number of points removed from paths by simplification while parsing.
+     */
+    private int pointsRemoved = 0;
+
+    /**
+     * The number of shapes removed while parsing for being hidden behind opaque shapes, and the total area of their
+     * bounds.
+     */
+    private int occludedCount = 0;
+    private float overdrawSaved = 0;
+
+    /**
+     * The level of detail variants built so far, by power-of-two scale bucket.
+     */
+    private HashMap<Integer, SVG> levelsOfDetail = null;
+
+    /**
+     * The filled shapes tessellated in to triangles, made the first time they are asked for.
+     */
+    private TriangleMesh mesh = null;
+
+    /**
+     * The shapes in drawing order, with their bounds clipped by any enclosing groups, and an index over those bounds
+     * for picking. Built the first time they are needed.
+     */
+    private Shapes shapes = null;
+
+    /**
+     * An index over the bounds of the top-level nodes (when there are enough of them), and the number of shapes they
+     * hold, for skipping what is outside the canvas when drawing. Made the first time they are needed.
+     */
+    private SpatialIndex nodeIndex = null;
+    private int shapeCount = -1;
+
+    /**
+     * The number of shapes drawn, and skipped for being outside the canvas, by the last call to {@link #draw(Canvas)}.
+     */
+    private volatile int drawnCount = 0;
+    private volatile int skippedCount = 0;
+
+    /**
+     * The embedded images drawn by the SVG.
+     */
+    private ArrayList<EmbeddedImage> images = new ArrayList<EmbeddedImage>();
+
+    /**
+     * The nodes that each group with an id was turned in to, and the elements looked up so far.
+     */
+    private HashMap<String, ArrayList<DisplayNode>> groupElements = new HashMap<String, ArrayList<DisplayNode>>();
+    private HashMap<String, SVGElement> elements = null;
+
+    /**
+     * The area changed by changes to elements since the dirty bounds were last cleared, or null if nothing has
+     * changed, and whether the picture needs recording again.
+     */
+    private RectF dirtyBounds = null;
+    private boolean pictureStale = false;
+
+    /**
+     * Whether the picture was recorded while embedded images were still being decoded, and so left them out.
+     */
+    private boolean pictureMissingImages = false;
+
+    /**
+     * The animations of the SVG.
+     */
+    private SVGTimeline timeline = SVGTimeline.EMPTY;
+
+    /**
+     * The elements of the source the SVG was parsed from, kept for incremental updates, or null if they weren't kept.
+     * And the number of elements reparsed by the last incremental update.
+     */
+    private SVGParser.Source source = null;
+    private int patchedCount = 0;
+
     /**
      * Construct a new SVG.
      * @param picture the parsed picture object.
@@ -56,19 +170,111 @@ public class SVG {
     }
 
     /**
-     * Set the limits of the SVG, which are the estimated bounds computed by the parser.
-     * @param limits the bounds computed while parsing the SVG, may not be entirely accurate.
+     * Set the limits of the SVG, which are the bounds computed by the parser.
+     * @param limits the bounds of everything drawn.
      */
     void setLimits(RectF limits) {
         this.limits = limits;
     }
 
+    /**
+     * Set the display list that the picture was recorded from.
+     * @param nodes the top-level display nodes.
+     */
+    void setDisplayList(ArrayList<DisplayNode> nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * @return the top-level display nodes.
+     */
+    ArrayList<DisplayNode> getDisplayList() {
+        return nodes;
+    }
+
+    /**
+     * Set the embedded images drawn by the SVG.
+     * @param images the images.
+     */
+    void setImages(ArrayList<EmbeddedImage> images) {
+        this.images = images;
+        pictureMissingImages = !images.isEmpty();
+    }
+
+    /**
+     * Set the nodes that each group with an id was turned in to.
+     * @param groupElements the nodes, by group id.
+     */
+    void setGroupElements(HashMap<String, ArrayList<DisplayNode>> groupElements) {
+        this.groupElements = groupElements;
+    }
+
+    /**
+     * Set the elements of the source the SVG was parsed from.
+     * @param source the elements, for diffing against a later version of the source.
+     */
+    void setSource(SVGParser.Source source) {
+        this.source = source;
+    }
+
+    /**
+     * @return the elements of the source the SVG was parsed from, or null if they weren't kept.
+     */
+    SVGParser.Source getSource() {
+        return source;
+    }
+
+    /**
+     * Set the animations of the SVG.
+     * @param timeline the compiled animations.
+     */
+    void setTimeline(SVGTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    /**
+     * Gets the animations of the SVG, to play them. Animations are only seen when drawing with {@link #draw(Canvas)},
+     * the picture shows the SVG as it was parsed.
+     * @return the timeline, which is empty if the SVG has no animations.
+     */
+    public SVGTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Set the number of offscreen layers used, and avoided, while drawing translucent groups.
+     * @param layerCount the number of groups that were drawn through an offscreen layer.
+     * @param layersAvoided the number of groups that had their opacity folded in to their children instead.
+     */
+    void setLayerCounts(int layerCount, int layersAvoided) {
+        this.layerCount = layerCount;
+        this.layersAvoided = layersAvoided;
+    }
+
+    /**
+     * Set the number of points removed from paths by simplification.
+     * @param pointsRemoved the number of points.
+     */
+    void setPointsRemoved(int pointsRemoved) {
+        this.pointsRemoved = pointsRemoved;
+    }
+
+    /**
+     * Set the number of hidden shapes removed, and the area they would have drawn.
+     * @param occludedCount the number of shapes.
+     * @param overdrawSaved the total area of their bounds, in square user units.
+     */
+    void setOcclusion(int occludedCount, float overdrawSaved) {
+        this.occludedCount = occludedCount;
+        this.overdrawSaved = overdrawSaved;
+    }
+
     /**
      * Create a picture drawable from the SVG.
      * @return the PictureDrawable.
      */
     public PictureDrawable createPictureDrawable() {
-        return new PictureDrawable(picture);
+        return new PictureDrawable(getPicture());
 //        return new PictureDrawable(picture) {
 //            @Override
 //            public int getIntrinsicWidth() {
@@ -95,10 +301,177 @@ public class SVG {
     }
 
     /**
-     * Get the parsed SVG picture data.
+     * Draws the SVG directly to a canvas, without going through the recorded picture. Content that has to be
+     * rasterized (such as masks) is rendered at the scale of the canvas and cached, so it stays sharp when the SVG is
+     * drawn larger than its natural size, and is only rendered again when that scale changes.
+     * <p/>
+     * Embedded images are decoded in the background the first time they are drawn, and are left out until they are
+     * ready (see {@link #hasPendingImages()}).
+     * <p/>
+     * Elements that lie entirely outside the canvas's clip are skipped, which saves a lot of work when the SVG is
+     * zoomed in or scrolled so that only part of it is on screen. See {@link #getSkippedCount()}.
+     * @param canvas the canvas on which to draw.
+     */
+    public void draw(Canvas canvas) {
+        Viewport viewport = Viewport.of(canvas);
+        if (viewport == null) {
+            drawnCount = 0;
+            skippedCount = getShapeCount();
+            return;
+        }
+        viewport.draw(nodes, getNodeIndex(), getShapeCount(), canvas, BitmapCache.SHARED);
+        drawnCount = viewport.drawn;
+        skippedCount = viewport.skipped;
+    }
+
+    private synchronized SpatialIndex getNodeIndex() {
+        if (nodeIndex == null && nodes.size() >= Viewport.INDEX_MIN_NODES && !DisplayNode.anyAnimated(nodes)) {
+            nodeIndex = DisplayNode.indexBounds(nodes);
+        }
+        return nodeIndex;
+    }
+
+    private synchronized int getShapeCount() {
+        if (shapeCount < 0) {
+            shapeCount = DisplayNode.countShapes(nodes);
+        }
+        return shapeCount;
+    }
+
+    /**
+     * Gets a variant of this SVG with only the detail that can be seen at a given scale, for drawing it much smaller
+     * than its natural size (as a thumbnail, for example). Elements smaller than a pixel at that scale are left out
+     * and paths are simplified to within a fraction of a pixel, so the variant looks the same but is quicker to draw.
+     * <p/>
+     * Variants are built the first time they are asked for and kept for each power-of-two range of scales, so every
+     * scale from 1/4 up to (but not including) 1/2 shares the same variant, which is built for the largest scale in the
+     * range.
+     * @param scale the scale that the SVG will be drawn at, relative to its natural size.
+     * @return the variant, or this SVG if the scale is 1 or more.
+     */
+    public SVG getLevelOfDetail(float scale) {
+        if (!(scale < 1)) {
+            return this;
+        }
+        int bucket = scale > 0 ? (int) Math.floor(Math.log(scale) / Math.log(2)) : LOD_MIN_BUCKET;
+        bucket = Math.max(bucket, LOD_MIN_BUCKET);
+        synchronized (this) {
+            if (levelsOfDetail == null) {
+                levelsOfDetail = new HashMap<Integer, SVG>();
+            }
+            SVG variant = levelsOfDetail.get(bucket);
+            if (variant == null) {
+                variant = buildLevelOfDetail((float) Math.pow(2, bucket + 1));
+                levelsOfDetail.put(bucket, variant);
+            }
+            return variant;
+        }
+    }
+
+    private SVG buildLevelOfDetail(float scale) {
+        ArrayList<DisplayNode> kept = new ArrayList<DisplayNode>(nodes.size());
+        for (DisplayNode node : nodes) {
+            DisplayNode reduced = node.forScale(scale, LOD_MIN_SIZE, LOD_TOLERANCE);
+            if (reduced != null) {
+                kept.add(reduced);
+            }
+        }
+        SVG variant = new SVG(record(kept), bounds);
+        variant.limits = limits;
+        variant.nodes = kept;
+        variant.images = images;
+        variant.layerCount = layerCount;
+        variant.layersAvoided = layersAvoided;
+        variant.pointsRemoved = pointsRemoved;
+        variant.occludedCount = occludedCount;
+        variant.overdrawSaved = overdrawSaved;
+        return variant;
+    }
+
+    /**
+     * Records a picture of the same size as this SVG's from a display list.
+     */
+    private Picture record(ArrayList<DisplayNode> list) {
+        Picture recorded = new Picture();
+        Canvas canvas = recorded.beginRecording(picture.getWidth(), picture.getHeight());
+        for (DisplayNode node : list) {
+            node.draw(canvas, null);
+        }
+        recorded.endRecording();
+        return recorded;
+    }
+
+    /**
+     * Gets the filled shapes of the SVG as triangles, for drawing with OpenGL or another GPU API. The shapes are
+     * tessellated the first time this is called, and the mesh is kept with the SVG from then on.
+     * @return the mesh.
+     */
+    public synchronized TriangleMesh getTriangleMesh() {
+        if (mesh == null) {
+            mesh = TriangleMesh.fromDisplayList(nodes);
+        }
+        return mesh;
+    }
+
+    /**
+     * Determines whether any embedded images are still waiting to be decoded, in which case the SVG should be drawn
+     * again once they are ready.
+     * @return true if an image hasn't been decoded yet.
+     */
+    public boolean hasPendingImages() {
+        for (EmbeddedImage image : images) {
+            if (image.isPending()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the maximum amount of memory used to cache content rendered at the device scale by {@link #draw(Canvas)}.
+     * This cache is shared by all SVGs.
+     * @param bytes the maximum size of the cache in bytes, the default is 4MB.
+     */
+    public static void setBitmapCacheSize(int bytes) {
+        BitmapCache.SHARED.setMaxBytes(bytes);
+    }
+
+    /**
+     * Sets the maximum number of glyph outlines cached for laying out &lt;text&gt; elements. This cache is shared by
+     * all SVGs.
+     * @param glyphs the maximum number of glyphs, the default is 512.
+     */
+    public static void setGlyphCacheSize(int glyphs) {
+        GlyphCache.SHARED.setMaxGlyphs(glyphs);
+    }
+
+    /**
+     * Get the parsed SVG picture data. If elements have been changed since the picture was last asked for, it is
+     * recorded again first, so a picture that is kept should be replaced with the result of calling this again.
+     * <p/>
+     * Embedded images start decoding in the background the first time the picture is asked for, and are left out of
+     * it until they are ready (see {@link #hasPendingImages()}). The picture is recorded again with them the next
+     * time it is asked for after that.
      * @return the picture.
      */
-    public Picture getPicture() {
+    public synchronized Picture getPicture() {
+        if (pictureMissingImages) {
+            boolean pending = false;
+            for (EmbeddedImage image : images) {
+                if (image.isPending()) {
+                    image.requestDecode();
+                    pending = true;
+                }
+            }
+            if (!pending) {
+                pictureStale = true;
+            }
+        }
+        if (pictureStale) {
+            pictureMissingImages = hasPendingImages();
+            picture = record(nodes);
+            pictureStale = false;
+        }
         return picture;
     }
 
@@ -111,10 +484,349 @@ public class SVG {
     }
 
     /**
-     * Gets the bounding rectangle for the SVG that was computed upon parsing. It may not be entirely accurate for certain curves or transformations, but is often better than nothing.
+     * Gets the bounding rectangle for the SVG that was computed upon parsing. This is the union of the bounds of every
+     * element drawn, including strokes and markers, with transforms and clips applied and curves bounded exactly.
      * @return rectangle representing the computed bounds.
      */
     public RectF getLimits() {
         return limits;
     }
+
+    /**
+     * Gets the bounds of a single drawn element, computed in the same way as {@link #getLimits()}.
+     * @param id the id of the element.
+     * @return the bounds in document co-ordinates, or null if no element drawn has that id.
+     */
+    public RectF getElementBounds(String id) {
+        DisplayNode node = findNode(nodes, id);
+        return node == null ? null : new RectF(node.bounds);
+    }
+
+    /**
+     * Finds the element drawn on top at a point: the topmost shape that paints the point (inside its fill or on its
+     * stroke), named by its own id, or else by the id of the innermost group around it. Shapes are found through a
+     * spatial index, so this stays quick for documents with very many elements.
+     * @param x the point, in document co-ordinates.
+     * @param y the point, in document co-ordinates.
+     * @param slop how far from a shape, in document co-ordinates, a point can be and still count as on it (for
+     * touches, for example).
+     * @return the element's id, or null if nothing is drawn there or the shape on top has no id of its own or from
+     * a group.
+     */
+    public String getElementAt(float x, float y, float slop) {
+        SpatialIndex.IntList found = new SpatialIndex.IntList();
+        Shapes all = getShapes();
+        all.index.query(x - slop, y - slop, x + slop, y + slop, found);
+        found.sort();
+        for (int i = found.size - 1; i >= 0; i--) {
+            int shape = found.values[i];
+            if (all.nodes[shape].hitTest(x, y, slop)) {
+                // Whatever is underneath is covered by this shape, so it can't be the one picked
+                return all.ids[shape];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the elements whose bounds intersect a rectangle, named as in {@link #getElementAt(float, float, float)}.
+     * @param rect the rectangle, in document co-ordinates.
+     * @return the ids, in drawing order (bottom-most first).
+     */
+    public List<String> getElementsIn(RectF rect) {
+        SpatialIndex.IntList found = new SpatialIndex.IntList();
+        Shapes all = getShapes();
+        all.index.query(rect.left, rect.top, rect.right, rect.bottom, found);
+        found.sort();
+        LinkedHashSet<String> ids = new LinkedHashSet<String>();
+        for (int i = 0; i < found.size; i++) {
+            String id = all.ids[found.values[i]];
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        return new ArrayList<String>(ids);
+    }
+
+    /**
+     * Gets the shapes and their index together, so a caller never pairs an index with the shapes of another version
+     * of the document.
+     */
+    private synchronized Shapes getShapes() {
+        if (shapes == null) {
+            // The groups with ids, by the nodes they were turned in to. A group folded in to its parent shares nodes
+            // with it, and the smaller (inner) group is the one that names them
+            ArrayList<Map.Entry<String, ArrayList<DisplayNode>>> groups =
+                    new ArrayList<Map.Entry<String, ArrayList<DisplayNode>>>(groupElements.entrySet());
+            Collections.sort(groups, new Comparator<Map.Entry<String, ArrayList<DisplayNode>>>() {
+                public int compare(Map.Entry<String, ArrayList<DisplayNode>> a, Map.Entry<String, ArrayList<DisplayNode>> b) {
+                    return b.getValue().size() - a.getValue().size();
+                }
+            });
+            IdentityHashMap<DisplayNode, String> groupIds = new IdentityHashMap<DisplayNode, String>();
+            for (Map.Entry<String, ArrayList<DisplayNode>> group : groups) {
+                for (DisplayNode node : group.getValue()) {
+                    groupIds.put(node, group.getKey());
+                }
+            }
+            ArrayList<DisplayNode> list = new ArrayList<DisplayNode>();
+            ArrayList<String> ids = new ArrayList<String>();
+            ArrayList<RectF> bounds = new ArrayList<RectF>();
+            collectShapes(nodes, null, null, groupIds, list, ids, bounds);
+            shapes = new Shapes(list.toArray(new DisplayNode[list.size()]), ids.toArray(new String[ids.size()]),
+                    new SpatialIndex(bounds.toArray(new RectF[bounds.size()])));
+        }
+        return shapes;
+    }
+
+    /**
+     * The shapes in drawing order, the id each is picked by, and an index over their bounds that refers to them by
+     * position.
+     */
+    private static class Shapes {
+        final DisplayNode[] nodes;
+        final String[] ids;
+        final SpatialIndex index;
+
+        Shapes(DisplayNode[] nodes, String[] ids, SpatialIndex index) {
+            this.nodes = nodes;
+            this.ids = ids;
+            this.index = index;
+        }
+    }
+
+    private static void collectShapes(ArrayList<DisplayNode> nodes, RectF clip, String groupId,
+                                      IdentityHashMap<DisplayNode, String> groupIds, ArrayList<DisplayNode> out,
+                                      ArrayList<String> ids, ArrayList<RectF> bounds) {
+        for (DisplayNode node : nodes) {
+            RectF b = new RectF(node.bounds);
+            if (!node.visible || (clip != null && !b.intersect(clip))) {
+                continue;
+            }
+            String id = groupIds.get(node);
+            if (id == null) {
+                id = groupId;
+            }
+            if (node.kind == DisplayNode.KIND_GROUP) {
+                collectShapes(node.children, b, id, groupIds, out, ids, bounds);
+            } else {
+                out.add(node);
+                ids.add(node.id != null ? node.id : id);
+                bounds.add(b);
+            }
+        }
+    }
+
+    /**
+     * Gets an element of the SVG, to change it.
+     * @param id the id of a shape or group in the document.
+     * @return the element, or null if nothing with that id is drawn.
+     */
+    public synchronized SVGElement getElement(String id) {
+        if (elements == null) {
+            elements = new HashMap<String, SVGElement>();
+        }
+        SVGElement element = elements.get(id);
+        if (element == null) {
+            ArrayList<DisplayNode> found = findElement(id);
+            if (found == null) {
+                return null;
+            }
+            element = new SVGElement(this, id, found);
+            elements.put(id, element);
+        }
+        return element;
+    }
+
+    /**
+     * Finds the nodes a shape or group was turned in to.
+     * @param id the id of the shape or group.
+     * @return the nodes, or null if nothing with that id is drawn.
+     */
+    ArrayList<DisplayNode> findElement(String id) {
+        ArrayList<DisplayNode> found = groupElements.get(id);
+        if (found == null) {
+            DisplayNode node = findNode(nodes, id);
+            if (node == null) {
+                return null;
+            }
+            found = new ArrayList<DisplayNode>();
+            found.add(node);
+        }
+        return found;
+    }
+
+    /**
+     * Called after an element has been changed, to mark the area it covered before and covers now as dirty and
+     * to throw away everything made from the old display list.
+     * @param element the element.
+     * @param before the bounds of the element before the change.
+     * @param moved true if the element's transform changed, so the bounds of the groups around it must be updated.
+     */
+    synchronized void elementChanged(SVGElement element, RectF before, boolean moved) {
+        uncache(element.getNodes());
+        RectF dirty = new RectF(before);
+        dirty.union(element.getBounds());
+        changed(dirty, moved);
+    }
+
+    /**
+     * Called after nodes have been replaced by an incremental update of the source. Elements looked up before are
+     * left behind, since they hold on to the state the nodes were parsed with.
+     * @param patched the nodes replaced.
+     * @param dirty the area covered by the nodes before and after they were replaced.
+     */
+    synchronized void sourceChanged(ArrayList<DisplayNode> patched, RectF dirty) {
+        patchedCount = patched.size();
+        if (patched.isEmpty()) {
+            return;
+        }
+        elements = null;
+        uncache(patched);
+        changed(dirty, true);
+        RectF union = new RectF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        for (DisplayNode node : nodes) {
+            union.union(node.bounds);
+        }
+        limits = Float.isInfinite(union.top) ? null : union;
+    }
+
+    /**
+     * Drops the cached filter output of changed nodes, and of the filtered groups around them, which would otherwise
+     * go on showing the nodes as they were.
+     * @param changed the changed nodes.
+     */
+    private void uncache(ArrayList<DisplayNode> changed) {
+        IdentityHashMap<DisplayNode, Boolean> targets = new IdentityHashMap<DisplayNode, Boolean>();
+        for (DisplayNode node : changed) {
+            targets.put(node, Boolean.TRUE);
+        }
+        ArrayList<DisplayNode> owners = new ArrayList<DisplayNode>();
+        DisplayNode.findFilteredOwners(nodes, targets, true, owners);
+        for (DisplayNode owner : owners) {
+            BitmapCache.SHARED.removeAll(owner);
+        }
+    }
+
+    private void changed(RectF dirty, boolean moved) {
+        if (moved) {
+            for (DisplayNode node : nodes) {
+                if (node.kind == DisplayNode.KIND_GROUP) {
+                    node.updateBounds();
+                }
+            }
+            nodeIndex = null;
+        }
+        if (dirtyBounds == null) {
+            dirtyBounds = new RectF(dirty);
+        } else {
+            dirtyBounds.union(dirty);
+        }
+        pictureStale = true;
+        shapes = null;
+        mesh = null;
+        levelsOfDetail = null;
+    }
+
+    /**
+     * Gets the area of the SVG changed by changes to its elements since the dirty bounds were last cleared. Drawing
+     * with the canvas clipped to this area, through {@link #draw(Canvas)}, only draws the elements that overlap it.
+     * @return the area in document co-ordinates, or null if nothing has changed.
+     */
+    public synchronized RectF getDirtyBounds() {
+        return dirtyBounds == null ? null : new RectF(dirtyBounds);
+    }
+
+    /**
+     * Clears the dirty bounds, once the changed area has been drawn again.
+     */
+    public synchronized void clearDirtyBounds() {
+        dirtyBounds = null;
+    }
+
+    private static DisplayNode findNode(ArrayList<DisplayNode> nodes, String id) {
+        for (DisplayNode node : nodes) {
+            if (id.equals(node.id)) {
+                return node;
+            }
+            if (node.children != null) {
+                DisplayNode found = findNode(node.children, id);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of elements reparsed when this SVG was last updated from an edited source with
+     * {@link SVGParser#updateSVGFromString(SVG, String)}. Everything else was left as it was.
+     * @return the number of elements reparsed, or 0 if the SVG has only been parsed in full.
+     */
+    public int getPatchedCount() {
+        return patchedCount;
+    }
+
+    /**
+     * Gets the number of offscreen layers the picture uses to draw translucent groups. A group only needs a layer if
+     * its children overlap each other.
+     * @return the number of layers in the picture.
+     */
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    /**
+     * Gets the number of translucent groups that were drawn without an offscreen layer, by folding the group opacity
+     * in to the paint of each child.
+     * @return the number of layers avoided.
+     */
+    public int getLayersAvoided() {
+        return layersAvoided;
+    }
+
+    /**
+     * Gets the number of points (including curve control points) removed from paths by simplification while parsing.
+     * @return the number of points, 0 unless simplification was turned on.
+     * @see SVGParser#setSimplifyTolerance(float)
+     */
+    public int getPointsRemoved() {
+        return pointsRemoved;
+    }
+
+    /**
+     * Gets the number of shapes removed while parsing because they were entirely hidden behind opaque shapes.
+     * @return the number of shapes, 0 unless occlusion culling was turned on.
+     * @see SVGParser#setOcclusionCulling(float)
+     */
+    public int getOccludedCount() {
+        return occludedCount;
+    }
+
+    /**
+     * Gets an estimate of the overdraw saved by removing hidden shapes: the total area of their bounds, which is
+     * roughly the number of pixels no longer drawn each time the SVG is drawn at its natural size.
+     * @return the area in square user units.
+     */
+    public float getOverdrawSaved() {
+        return overdrawSaved;
+    }
+
+    /**
+     * Gets the number of shapes drawn by the last call to {@link #draw(Canvas)}.
+     * @return the number of shapes drawn.
+     */
+    public int getDrawnCount() {
+        return drawnCount;
+    }
+
+    /**
+     * Gets the number of shapes skipped by the last call to {@link #draw(Canvas)} because they were entirely outside
+     * the canvas's clip. Compared with {@link #getDrawnCount()}, this shows how much work is saved by culling.
+     * @return the number of shapes skipped.
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
 }
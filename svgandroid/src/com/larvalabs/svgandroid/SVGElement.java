@@ -0,0 +1,225 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * An element of a parsed SVG (a shape, or a group of shapes) that can be changed after parsing: recoloured, moved or
+ * hidden. Each change marks the area of the SVG it affects as dirty (see {@link SVG#getDirtyBounds()}), so that only
+ * that area needs to be drawn again, and the SVG's picture is recorded again the next time it is asked for.
+ * <p/>
+ * Elements are found with {@link SVG#getElement(String)}. Changes should be made on the same thread that draws the
+ * SVG. Elements removed by occlusion culling while parsing can't be brought back by changing what was covering them,
+ * so culling should be left off for SVGs that will be changed.
+ *
+ * @author Larva Labs, LLC
+ */
+public class SVGElement {
+
+    private final SVG svg;
+    private final String id;
+
+    // The nodes that make up the element, and every shape and group within them
+    private final ArrayList<DisplayNode> nodes;
+    private final ArrayList<DisplayNode> shapes = new ArrayList<DisplayNode>();
+    private final ArrayList<DisplayNode> groups = new ArrayList<DisplayNode>();
+
+    // The state of each shape and group as parsed, which changes are made relative to
+    private final ArrayList<Matrix> parsedMatrices = new ArrayList<Matrix>();
+    private final ArrayList<Clip> parsedShapeClips = new ArrayList<Clip>();
+    private final ArrayList<Clip> parsedGroupClips = new ArrayList<Clip>();
+    private final ArrayList<Mask> parsedGroupMasks = new ArrayList<Mask>();
+    private final int[] parsedFillAlphas;
+    private final int[] parsedStrokeAlphas;
+
+    private Matrix transform = null;
+    private boolean visible = true;
+
+    SVGElement(SVG svg, String id, ArrayList<DisplayNode> nodes) {
+        this.svg = svg;
+        this.id = id;
+        this.nodes = nodes;
+        collect(nodes);
+        parsedFillAlphas = new int[shapes.size()];
+        parsedStrokeAlphas = new int[shapes.size()];
+        for (int i = 0; i < shapes.size(); i++) {
+            DisplayNode shape = shapes.get(i);
+            parsedMatrices.add(shape.matrix);
+            parsedShapeClips.add(shape.clip);
+            parsedFillAlphas[i] = shape.fill == null ? 255 : shape.fill.getAlpha();
+            parsedStrokeAlphas[i] = shape.stroke == null ? 255 : shape.stroke.getAlpha();
+        }
+        for (DisplayNode group : groups) {
+            parsedGroupClips.add(group.clip);
+            parsedGroupMasks.add(group.mask);
+        }
+    }
+
+    private void collect(ArrayList<DisplayNode> list) {
+        for (DisplayNode node : list) {
+            if (node.kind == DisplayNode.KIND_GROUP) {
+                groups.add(node);
+                collect(node.children);
+            } else {
+                shapes.add(node);
+            }
+        }
+    }
+
+    /**
+     * @return the nodes the element was parsed in to.
+     */
+    ArrayList<DisplayNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the element's id.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the bounds of the element as it is now drawn.
+     * @return the bounds in document co-ordinates.
+     */
+    public RectF getBounds() {
+        RectF bounds = new RectF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        for (DisplayNode node : nodes) {
+            bounds.union(node.bounds);
+        }
+        if (Float.isInfinite(bounds.left)) {
+            bounds.setEmpty();
+        }
+        return bounds;
+    }
+
+    /**
+     * Sets the colour of the element's fills, replacing any gradient or pattern. Shapes that aren't filled stay that
+     * way.
+     * @param color the colour. Its alpha is combined with the opacity the element was parsed with.
+     */
+    public void setFillColor(int color) {
+        for (int i = 0; i < shapes.size(); i++) {
+            DisplayNode shape = shapes.get(i);
+            if (shape.fill != null && shape.kind != DisplayNode.KIND_IMAGE) {
+                shape.fill.setShader(null);
+                shape.fill.setColor(withAlpha(color, parsedFillAlphas[i]));
+                shape.fillGradient = null;
+                shape.fillPattern = null;
+            }
+        }
+        svg.elementChanged(this, getBounds(), false);
+    }
+
+    /**
+     * Sets the colour of the element's strokes. Shapes that aren't stroked stay that way.
+     * @param color the colour. Its alpha is combined with the opacity the element was parsed with.
+     */
+    public void setStrokeColor(int color) {
+        for (int i = 0; i < shapes.size(); i++) {
+            DisplayNode shape = shapes.get(i);
+            if (shape.stroke != null) {
+                shape.stroke.setShader(null);
+                shape.stroke.setColor(withAlpha(color, parsedStrokeAlphas[i]));
+            }
+        }
+        svg.elementChanged(this, getBounds(), false);
+    }
+
+    private static int withAlpha(int color, int parsedAlpha) {
+        int alpha = (color >>> 24) * parsedAlpha / 255;
+        return (alpha << 24) | (color & 0xFFFFFF);
+    }
+
+    /**
+     * Shows or hides the element.
+     * @param visible false to stop drawing the element.
+     */
+    public void setVisible(boolean visible) {
+        if (this.visible == visible) {
+            return;
+        }
+        this.visible = visible;
+        for (DisplayNode node : nodes) {
+            node.visible = visible;
+        }
+        svg.elementChanged(this, getBounds(), false);
+    }
+
+    /**
+     * @return false if the element has been hidden.
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Moves the element by applying a transform on top of the transforms it was parsed with, in the co-ordinates of
+     * the document. Replaces any transform set before.
+     * @param matrix the transform, or null to put the element back where it was parsed.
+     */
+    public void setTransform(Matrix matrix) {
+        RectF before = getBounds();
+        transform = matrix == null || matrix.isIdentity() ? null : new Matrix(matrix);
+        for (int i = 0; i < shapes.size(); i++) {
+            DisplayNode shape = shapes.get(i);
+            Matrix parsed = parsedMatrices.get(i);
+            Clip clip = parsedShapeClips.get(i);
+            if (transform == null) {
+                shape.matrix = parsed;
+            } else {
+                shape.matrix = new Matrix(transform);
+                if (parsed != null) {
+                    shape.matrix.preConcat(parsed);
+                }
+                // Clips are kept in the parent's co-ordinates, so they have to be moved too
+                if (clip != null) {
+                    clip = clip.transform(transform);
+                }
+            }
+            shape.clip = clip;
+            shape.updateBounds();
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            DisplayNode group = groups.get(i);
+            Clip clip = parsedGroupClips.get(i);
+            group.clip = transform == null || clip == null ? clip : clip.transform(transform);
+            // Groups have no matrix of their own, so their masks are moved like their clips
+            Mask mask = parsedGroupMasks.get(i);
+            if (group.mask != mask) {
+                BitmapCache.SHARED.removeAll(group.mask);
+            }
+            group.mask = transform == null || mask == null ? mask : mask.transform(transform);
+        }
+        svg.elementChanged(this, before, true);
+    }
+
+    /**
+     * @return a copy of the transform set by {@link #setTransform(Matrix)}, or null if there is none.
+     */
+    public Matrix getTransform() {
+        return transform == null ? null : new Matrix(transform);
+    }
+}
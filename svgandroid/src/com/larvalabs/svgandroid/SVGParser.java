@@ -9,15 +9,18 @@ import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 /*
 
@@ -55,6 +58,12 @@ public class SVGParser {
 
     static final String TAG = "SVGAndroid";
 
+    /**
+     * The properties that can refer to other elements of the document by url.
+     */
+    private static final String[] REFERENCE_PROPERTIES = {"fill", "stroke", "clip-path", "mask", "filter", "marker",
+            "marker-start", "marker-mid", "marker-end"};
+
     /**
      * Parse SVG data from an input stream.
      *
@@ -163,6 +172,49 @@ public class SVGParser {
         return svg;
     }
 
+    /**
+     * Parse SVG data from a string that is an edited version of an SVG parsed before, such as a document being
+     * worked on in a preview tool. The new source is compared with the old one element by element, and if the only
+     * changes are to the attributes of shapes that don't refer to anything else in the document (gradients, clip
+     * paths and so on), just those shapes are parsed again and swapped in to the previous SVG, which is returned.
+     * Otherwise, or if too much has changed, the new source is parsed in full.
+     * <p/>
+     * The previous SVG must itself have come from this method to be updated; pass null for the first version of the
+     * document. Its picture is recorded again the next time it is asked for, and {@link SVG#getDirtyBounds()} covers
+     * the changed shapes. Updates should be made on the thread that draws the SVG.
+     *
+     * @param previous the SVG parsed from the previous version of the source, or null.
+     * @param svgData the string containing the new SVG XML data.
+     * @return the previous SVG updated in place, or a newly parsed SVG.
+     * @throws SVGParseException if there is an error while parsing.
+     */
+    public static SVG updateSVGFromString(SVG previous, String svgData) throws SVGParseException {
+        return update(previous, svgData.getBytes());
+    }
+
+    /**
+     * Parse SVG data from an input stream that is an edited version of an SVG parsed before, updating that SVG in
+     * place where possible. See {@link #updateSVGFromString(SVG, String)}.
+     *
+     * @param previous the SVG parsed from the previous version of the source, or null.
+     * @param svgData the input stream, with SVG XML data in UTF-8 character encoding.
+     * @return the previous SVG updated in place, or a newly parsed SVG.
+     * @throws SVGParseException if there is an error while parsing.
+     */
+    public static SVG updateSVGFromInputStream(SVG previous, InputStream svgData) throws SVGParseException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = svgData.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+            return update(previous, bytes.toByteArray());
+        } catch (IOException e) {
+            throw new SVGParseException(e);
+        }
+    }
+
     /**
      * Parses a single SVG path and returns it as a <code>android.graphics.Path</code> object.
      * An example path is <code>M250,150L150,350L350,350Z</code>, which draws a triangle.
@@ -173,7 +225,50 @@ public class SVGParser {
         return doPath(pathString);
     }
 
+    /**
+     * Parses a single SVG path in to packed form, normalized to absolute move, line, quadratic, cubic and close verbs.
+     * The result can be hit-tested, transformed and serialized without any native calls. Identical path strings are
+     * only parsed once, and share the same (immutable) result.
+     *
+     * @param pathString the SVG path, see the specification <a href="http://www.w3.org/TR/SVG/paths.html">here</a>.
+     */
+    public static PackedPath parsePackedPath(String pathString) {
+        return PathCache.SHARED.get(pathString);
+    }
+
+    /**
+     * Sets the maximum number of parsed paths cached by path data. The cache is shared by all SVGs and by
+     * {@link #parsePath(String)}, so identical paths are only parsed once.
+     *
+     * @param paths the maximum number of paths, the default is 256.
+     */
+    public static void setPathCacheSize(int paths) {
+        PathCache.SHARED.setMaxPaths(paths);
+    }
+
+    /**
+     * Gets the number of times parsed path data was found in the path cache, for sizing the cache.
+     */
+    public static int getPathCacheHits() {
+        return PathCache.SHARED.getHits();
+    }
+
+    /**
+     * Gets the number of times path data had to be parsed because it wasn't in the path cache.
+     */
+    public static int getPathCacheMisses() {
+        return PathCache.SHARED.getMisses();
+    }
+
     private static SVG parse(InputStream in, Integer searchColor, Integer replaceColor, boolean whiteMode) throws SVGParseException {
+        return parse(in, searchColor, replaceColor, whiteMode, false);
+    }
+
+    /**
+     * @param keepSource true to keep the elements of the source, so that the SVG can be updated incrementally.
+     */
+    private static SVG parse(InputStream in, Integer searchColor, Integer replaceColor, boolean whiteMode,
+                             boolean keepSource) throws SVGParseException {
 //        Util.debug("Parsing SVG...");
         try {
             long start = System.currentTimeMillis();
@@ -184,13 +279,32 @@ public class SVGParser {
             SVGHandler handler = new SVGHandler(picture);
             handler.setColorSwap(searchColor, replaceColor);
             handler.setWhiteMode(whiteMode);
+            if (keepSource) {
+                handler.source = new ArrayList<SourceElement>();
+            }
             xr.setContentHandler(handler);
             xr.parse(new InputSource(in));
 //        Util.debug("Parsing complete in " + (System.currentTimeMillis() - start) + " millis.");
             SVG result = new SVG(picture, handler.bounds);
-            // Skip bounds if it was an empty pic
-            if (!Float.isInfinite(handler.limits.top)) {
-                result.setLimits(handler.limits);
+            // The limits are the union of the exact bounds of everything drawn, skipped if it was an empty pic
+            RectF limits = new RectF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+            for (DisplayNode node : handler.groups.get(0).nodes) {
+                limits.union(node.bounds);
+            }
+            if (!Float.isInfinite(limits.top)) {
+                result.setLimits(limits);
+            }
+            result.setLayerCounts(handler.layerCount, handler.layersAvoided);
+            result.setPointsRemoved(handler.pointsRemoved);
+            result.setOcclusion(handler.occludedCount, handler.overdrawSaved);
+            result.setDisplayList(handler.groups.get(0).nodes);
+            result.setImages(handler.images);
+            result.setGroupElements(handler.groupElements);
+            if (!handler.animations.isEmpty()) {
+                result.setTimeline(SVGTimeline.compile(handler.animations, result));
+            }
+            if (keepSource) {
+                result.setSource(new Source(handler, result.getDisplayList()));
             }
             return result;
         } catch (Exception e) {
@@ -198,6 +312,272 @@ public class SVGParser {
         }
     }
 
+    /**
+     * The largest fraction of a document's shapes that is reparsed on its own, rather than parsing the whole document.
+     */
+    private static final float MAX_PATCHED_FRACTION = 0.25f;
+
+    private static SVG update(SVG previous, byte[] data) throws SVGParseException {
+        Source source = previous == null ? null : previous.getSource();
+        // Animations and occlusion culling both depend on the whole document
+        if (source != null && previous.getTimeline().isEmpty() && previous.getOccludedCount() == 0
+                && occlusionMinScale <= 0) {
+            SourceDiff diff = new SourceDiff(source.elements);
+            try {
+                XMLReader xr = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+                xr.setContentHandler(diff);
+                xr.parse(new InputSource(new ByteArrayInputStream(data)));
+            } catch (Exception e) {
+                // Reported by the full parse below
+                diff.structural = true;
+            }
+            if (!diff.structural && diff.changed.size() <= MAX_PATCHED_FRACTION * source.shapeCount
+                    && source.patch(previous, diff)) {
+                return previous;
+            }
+        }
+        SVGHandler old = source == null ? null : source.handler;
+        return parse(new ByteArrayInputStream(data), old == null ? 0 : old.searchColor,
+                old == null ? 0 : old.replaceColor, old != null && old.whiteMode, true);
+    }
+
+    private static final long FINGERPRINT_OFFSET = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    /**
+     * Adds characters to a 64-bit FNV-1a hash.
+     */
+    private static long fingerprint(long hash, char[] ch, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            hash = (hash ^ ch[i]) * FINGERPRINT_PRIME;
+        }
+        return hash;
+    }
+
+    private static long fingerprint(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash = (hash ^ s.charAt(i)) * FINGERPRINT_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Fingerprints an element's tag and attributes. The order of the attributes doesn't matter.
+     */
+    private static long fingerprint(String tag, Attributes atts) {
+        long hash = fingerprint(FINGERPRINT_OFFSET, tag);
+        int n = atts.getLength();
+        for (int i = 0; i < n; i++) {
+            long a = fingerprint(FINGERPRINT_OFFSET, atts.getLocalName(i));
+            a = fingerprint((a ^ '=') * FINGERPRINT_PRIME, atts.getValue(i));
+            hash += a * FINGERPRINT_PRIME;
+        }
+        return hash;
+    }
+
+    private static boolean isWhitespace(char[] ch, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            if (!Character.isWhitespace(ch[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An element of a parsed source, in document order, with what is needed to parse a shape again on its own.
+     */
+    private static class SourceElement {
+        final int depth;
+        final String tag;
+        long hash;
+        long contentHash = FINGERPRINT_OFFSET;
+
+        // For a shape: the node it was parsed in to, the inherited properties it was parsed with, and whether it
+        // refers to anything else in the document
+        DisplayNode node;
+        InheritedStyle style;
+        boolean references;
+
+        // The opacities and clip the node was given, which change if the enclosing groups fold theirs in to it
+        int fillAlpha;
+        int strokeAlpha;
+        Clip clip;
+
+        // The stroke settings of the shared paint before and after the element, which carry on to later elements
+        float widthBefore, widthAfter;
+        Paint.Cap capBefore, capAfter;
+        Paint.Join joinBefore, joinAfter;
+
+        // Whether the shape can be parsed again on its own and swapped in for the node
+        boolean patchable;
+
+        SourceElement(int depth, String tag, long hash) {
+            this.depth = depth;
+            this.tag = tag;
+            this.hash = hash;
+        }
+
+        boolean sameStrokeAfter(SourceElement other) {
+            return widthAfter == other.widthAfter && capAfter == other.capAfter && joinAfter == other.joinAfter;
+        }
+    }
+
+    /**
+     * The elements of a parsed source, kept with the handler that parsed it for parsing changed shapes again.
+     */
+    static class Source {
+        private final SVGHandler handler;
+        private final ArrayList<SourceElement> elements;
+        private final int shapeCount;
+
+        private Source(SVGHandler handler, ArrayList<DisplayNode> nodes) {
+            this.handler = handler;
+            elements = handler.source;
+            handler.source = null;
+            IdentityHashMap<DisplayNode, Boolean> drawn = new IdentityHashMap<DisplayNode, Boolean>();
+            collect(nodes, drawn);
+            int count = 0;
+            for (SourceElement element : elements) {
+                if (element.node != null) {
+                    element.patchable = isUnchanged(element) && drawn.containsKey(element.node);
+                    count++;
+                }
+            }
+            shapeCount = count;
+        }
+
+        private static void collect(ArrayList<DisplayNode> nodes, IdentityHashMap<DisplayNode, Boolean> out) {
+            for (DisplayNode node : nodes) {
+                out.put(node, Boolean.TRUE);
+                if (node.kind == DisplayNode.KIND_GROUP) {
+                    collect(node.children, out);
+                }
+            }
+        }
+
+        /**
+         * Determines whether a shape is drawn just as it was parsed, without any group's clip or opacity folded in.
+         */
+        private static boolean isUnchanged(SourceElement element) {
+            DisplayNode node = element.node;
+            return !element.references && node.kind != DisplayNode.KIND_IMAGE && node.clip == element.clip
+                    && (node.fill == null ? 255 : node.fill.getAlpha()) == element.fillAlpha
+                    && (node.stroke == null ? 255 : node.stroke.getAlpha()) == element.strokeAlpha;
+        }
+
+        /**
+         * Parses the changed shapes again and swaps them in to the SVG. Nothing is changed unless every changed
+         * element can be swapped.
+         * @return true if the SVG was updated.
+         */
+        boolean patch(SVG svg, SourceDiff diff) {
+            int n = diff.changed.size();
+            SourceElement[] fresh = new SourceElement[n];
+            for (int i = 0; i < n; i++) {
+                SourceElement old = diff.changed.get(i);
+                if (!old.patchable) {
+                    return false;
+                }
+                fresh[i] = handler.reparse(old, diff.changedAtts.get(i));
+                if (fresh[i] == null || fresh[i].references || !fresh[i].sameStrokeAfter(old)) {
+                    return false;
+                }
+            }
+            RectF dirty = null;
+            ArrayList<DisplayNode> patched = new ArrayList<DisplayNode>(n);
+            for (int i = 0; i < n; i++) {
+                SourceElement old = diff.changed.get(i);
+                patched.add(old.node);
+                if (dirty == null) {
+                    dirty = new RectF(old.node.bounds);
+                } else {
+                    dirty.union(old.node.bounds);
+                }
+                old.node.setFrom(fresh[i].node);
+                dirty.union(old.node.bounds);
+                old.hash = fresh[i].hash;
+                old.fillAlpha = fresh[i].fillAlpha;
+                old.strokeAlpha = fresh[i].strokeAlpha;
+                old.clip = fresh[i].clip;
+            }
+            svg.sourceChanged(patched, dirty);
+            return true;
+        }
+    }
+
+    /**
+     * Compares a new version of a source with the elements of the old one, finding the elements whose attributes have
+     * changed. Any other change (an element added, removed or moved, or different text) makes the change structural.
+     */
+    private static class SourceDiff extends DefaultHandler {
+        private final ArrayList<SourceElement> elements;
+        private int next = 0;
+        private int depth = 0;
+        // The old elements currently open, and the fingerprints of the new content of each
+        private final ArrayList<SourceElement> open = new ArrayList<SourceElement>();
+        private final ArrayList<Long> content = new ArrayList<Long>();
+
+        boolean structural = false;
+        final ArrayList<SourceElement> changed = new ArrayList<SourceElement>();
+        final ArrayList<Attributes> changedAtts = new ArrayList<Attributes>();
+
+        SourceDiff(ArrayList<SourceElement> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public void startElement(String namespaceURI, String localName, String qName, Attributes atts) {
+            depth++;
+            if (structural) {
+                return;
+            }
+            if (next >= elements.size()) {
+                structural = true;
+                return;
+            }
+            SourceElement old = elements.get(next++);
+            if (old.depth != depth || !old.tag.equals(localName)) {
+                structural = true;
+                return;
+            }
+            if (old.hash != fingerprint(localName, atts)) {
+                changed.add(old);
+                // The parser reuses its attributes
+                changedAtts.add(new AttributesImpl(atts));
+            }
+            open.add(old);
+            content.add(FINGERPRINT_OFFSET);
+        }
+
+        @Override
+        public void characters(char ch[], int start, int length) {
+            if (!structural && !open.isEmpty() && !isWhitespace(ch, start, length)) {
+                int last = content.size() - 1;
+                content.set(last, fingerprint(content.get(last), ch, start, length));
+            }
+        }
+
+        @Override
+        public void endElement(String namespaceURI, String localName, String qName) {
+            depth--;
+            if (structural) {
+                return;
+            }
+            SourceElement old = open.remove(open.size() - 1);
+            if (old.contentHash != content.remove(content.size() - 1)) {
+                structural = true;
+            }
+        }
+
+        @Override
+        public void endDocument() {
+            if (next != elements.size()) {
+                structural = true;
+            }
+        }
+    }
+
     private static NumberParse parseNumbers(String s) {
         //Util.debug("Parsing numbers from: '" + s + "'");
         int n = s.length();
@@ -375,6 +755,7 @@ public class SVGParser {
      * <li>S/s - (x2 y2 x y)+ - Smooth cubic bezier to (shorthand that assumes the x2, y2 from previous C/S is the x1, y1 of this bezier)
      * <li>Q/q - (x1 y1 x y)+ - Quadratic bezier to
      * <li>T/t - (x y)+ - Smooth quadratic bezier to (assumes previous control point is "reflection" of last one w.r.t. to current point)
+     * <li>A/a - (rx ry x-axis-rotation large-arc-flag sweep-flag x y)+ - Elliptical arc to
      * </ol>
      * <p/>
      * Numbers are separate by whitespace, comma or nothing at all (!) if they are self-delimiting, (ie. begin with a - sign)
@@ -382,14 +763,30 @@ public class SVGParser {
      * @param s the path string from the XML
      */
     private static Path doPath(String s) {
-        int n = s.length();
+        return PathCache.SHARED.get(s).toPath();
+    }
+
+    /**
+     * Parses a path in to packed form, normalized to absolute move, line, quadratic, cubic and close verbs.
+     *
+     * @param s the path string from the XML
+     */
+    static PackedPath doPackedPath(String s) {
+        int n = s == null ? 0 : s.length();
+        PackedPath p = new PackedPath();
+        if (n == 0) {
+            return p;
+        }
         ParserHelper ph = new ParserHelper(s, 0);
         ph.skipWhitespace();
-        Path p = new Path();
         float lastX = 0;
         float lastY = 0;
+        // The last control point of the previous cubic (for S) and quadratic (for T), or the current point if the
+        // previous segment wasn't of the same kind
         float lastX1 = 0;
         float lastY1 = 0;
+        float lastQX = 0;
+        float lastQY = 0;
         float subPathStartX = 0;
         float subPathStartY = 0;
         char prevCmd = 0;
@@ -398,6 +795,7 @@ public class SVGParser {
             switch (cmd) {
                 case '-':
                 case '+':
+                case '.':
                 case '0':
                 case '1':
                 case '2':
@@ -409,12 +807,11 @@ public class SVGParser {
                 case '8':
                 case '9':
                     if (prevCmd == 'm' || prevCmd == 'M') {
+                        // Further points after a move are lines
                         cmd = (char) (((int) prevCmd) - 1);
                         break;
-                    } else if (prevCmd == 'c' || prevCmd == 'C') {
-                        cmd = prevCmd;
-                        break;
-                    } else if (prevCmd == 'l' || prevCmd == 'L') {
+                    } else if (prevCmd != 0 && prevCmd != 'z' && prevCmd != 'Z') {
+                        // Any other command repeats with further arguments
                         cmd = prevCmd;
                         break;
                     }
@@ -425,35 +822,26 @@ public class SVGParser {
             }
 
             boolean wasCurve = false;
+            boolean wasQuad = false;
             switch (cmd) {
                 case 'M':
                 case 'm': {
                     float x = ph.nextFloat();
                     float y = ph.nextFloat();
                     if (cmd == 'm') {
-                        subPathStartX += x;
-                        subPathStartY += y;
-                        p.rMoveTo(x, y);
-                        lastX += x;
-                        lastY += y;
-                    } else {
-                        subPathStartX = x;
-                        subPathStartY = y;
-                        p.moveTo(x, y);
-                        lastX = x;
-                        lastY = y;
+                        x += lastX;
+                        y += lastY;
                     }
+                    p.moveTo(x, y);
+                    subPathStartX = lastX = x;
+                    subPathStartY = lastY = y;
                     break;
                 }
                 case 'Z':
                 case 'z': {
                     p.close();
-                    p.moveTo(subPathStartX, subPathStartY);
                     lastX = subPathStartX;
                     lastY = subPathStartY;
-                    lastX1 = subPathStartX;
-                    lastY1 = subPathStartY;
-                    wasCurve = true;
                     break;
                 }
                 case 'L':
@@ -461,38 +849,32 @@ public class SVGParser {
                     float x = ph.nextFloat();
                     float y = ph.nextFloat();
                     if (cmd == 'l') {
-                        p.rLineTo(x, y);
-                        lastX += x;
-                        lastY += y;
-                    } else {
-                        p.lineTo(x, y);
-                        lastX = x;
-                        lastY = y;
+                        x += lastX;
+                        y += lastY;
                     }
+                    p.lineTo(x, y);
+                    lastX = x;
+                    lastY = y;
                     break;
                 }
                 case 'H':
                 case 'h': {
                     float x = ph.nextFloat();
                     if (cmd == 'h') {
-                        p.rLineTo(x, 0);
-                        lastX += x;
-                    } else {
-                        p.lineTo(x, lastY);
-                        lastX = x;
+                        x += lastX;
                     }
+                    p.lineTo(x, lastY);
+                    lastX = x;
                     break;
                 }
                 case 'V':
                 case 'v': {
                     float y = ph.nextFloat();
                     if (cmd == 'v') {
-                        p.rLineTo(0, y);
-                        lastY += y;
-                    } else {
-                        p.lineTo(lastX, y);
-                        lastY = y;
+                        y += lastY;
                     }
+                    p.lineTo(lastX, y);
+                    lastY = y;
                     break;
                 }
                 case 'C':
@@ -541,32 +923,265 @@ public class SVGParser {
                     lastY = y;
                     break;
                 }
+                case 'Q':
+                case 'q': {
+                    wasQuad = true;
+                    float x1 = ph.nextFloat();
+                    float y1 = ph.nextFloat();
+                    float x = ph.nextFloat();
+                    float y = ph.nextFloat();
+                    if (cmd == 'q') {
+                        x1 += lastX;
+                        x += lastX;
+                        y1 += lastY;
+                        y += lastY;
+                    }
+                    p.quadTo(x1, y1, x, y);
+                    lastQX = x1;
+                    lastQY = y1;
+                    lastX = x;
+                    lastY = y;
+                    break;
+                }
+                case 'T':
+                case 't': {
+                    wasQuad = true;
+                    float x = ph.nextFloat();
+                    float y = ph.nextFloat();
+                    if (cmd == 't') {
+                        x += lastX;
+                        y += lastY;
+                    }
+                    float x1 = 2 * lastX - lastQX;
+                    float y1 = 2 * lastY - lastQY;
+                    p.quadTo(x1, y1, x, y);
+                    lastQX = x1;
+                    lastQY = y1;
+                    lastX = x;
+                    lastY = y;
+                    break;
+                }
                 case 'A':
                 case 'a': {
                     float rx = ph.nextFloat();
                     float ry = ph.nextFloat();
                     float theta = ph.nextFloat();
-                    int largeArc = (int) ph.nextFloat();
-                    int sweepArc = (int) ph.nextFloat();
+                    boolean largeArc = ph.nextFlag();
+                    boolean sweepArc = ph.nextFlag();
                     float x = ph.nextFloat();
                     float y = ph.nextFloat();
+                    if (cmd == 'a') {
+                        x += lastX;
+                        y += lastY;
+                    }
                     drawArc(p, lastX, lastY, x, y, rx, ry, theta, largeArc, sweepArc);
                     lastX = x;
                     lastY = y;
                     break;
                 }
+                default:
+                    // Unknown command, skip it
+                    break;
             }
+            // A smooth curve after anything else has no control point to reflect
             if (!wasCurve) {
                 lastX1 = lastX;
                 lastY1 = lastY;
             }
+            if (!wasQuad) {
+                lastQX = lastX;
+                lastQY = lastY;
+            }
             ph.skipWhitespace();
         }
+        p.trim();
         return p;
     }
 
-    private static void drawArc(Path p, float lastX, float lastY, float x, float y, float rx, float ry, float theta, int largeArc, int sweepArc) {
-        // todo - not implemented yet, may be very hard to do using Android drawing facilities.
+    /**
+     * Sets the maximum distance by which the cubic curves that elliptical arcs are converted in to may stray from the
+     * true arc. Smaller tolerances use more curves for each arc.
+     *
+     * @param tolerance the tolerance in user units, the default is 0.05.
+     */
+    public static void setArcTolerance(float tolerance) {
+        arcTolerance = tolerance;
+        // Paths already parsed used the old tolerance
+        PathCache.SHARED.clear();
+    }
+
+    private static volatile float arcTolerance = 0.05f;
+
+    /**
+     * Turns on simplification of the paths, polylines and polygons in parsed SVGs. Curves that are flat to within the
+     * tolerance are drawn as lines, segments shorter than the tolerance are dropped, and collinear lines are merged,
+     * which makes the picture quicker to draw. Markers are still placed on the original vertices.
+     *
+     * @param tolerance the largest allowed error in user units, or 0 (the default) to keep paths exactly as written.
+     * @see SVG#getPointsRemoved()
+     */
+    public static void setSimplifyTolerance(float tolerance) {
+        simplifyTolerance = tolerance;
+    }
+
+    private static volatile float simplifyTolerance = 0f;
+
+    /**
+     * Turns on removal of elements that are entirely hidden behind opaque rectangles, ovals and convex paths drawn over
+     * them. The picture looks exactly the same, but draws less, as long as it is drawn no smaller than the given scale
+     * (below that, the antialiased edges of the hidden elements could show through faintly). Hidden elements are gone
+     * from the SVG altogether, so they also can't be found by id.
+     *
+     * @param minScale the smallest scale, relative to the document's user units, that pictures will be drawn at, or 0
+     * (the default) to keep every element.
+     * @see SVG#getOccludedCount()
+     */
+    public static void setOcclusionCulling(float minScale) {
+        occlusionMinScale = minScale;
+    }
+
+    private static volatile float occlusionMinScale = 0f;
+
+    /**
+     * The number of entries in {@link #ARC_ERROR}.
+     */
+    private static final int ARC_STEPS = 64;
+
+    /**
+     * The error of a single cubic approximating an arc of a unit circle, for arcs of 1 to {@link #ARC_STEPS} steps of a
+     * quarter turn divided by {@link #ARC_STEPS}. The error of an arc of radius r is r times this.
+     */
+    private static final float[] ARC_ERROR = new float[ARC_STEPS];
+
+    static {
+        for (int i = 0; i < ARC_STEPS; i++) {
+            double angle = (i + 1) * (Math.PI / 2) / ARC_STEPS;
+            double s = Math.sin(angle / 4);
+            double c = Math.cos(angle / 4);
+            ARC_ERROR[i] = (float) (4.0 / 27.0 * Math.pow(s, 6) / (c * c));
+        }
+    }
+
+    /**
+     * Adds an elliptical arc to a path as a sequence of cubic curves, using as few curves as the arc tolerance allows
+     * (and no more than one per quarter turn). See the <a href="http://www.w3.org/TR/SVG/implnote.html#ArcImplementationNotes">
+     * implementation notes</a> in the SVG specification.
+     *
+     * @param p the path.
+     * @param x0 the start point (the current point).
+     * @param y0 the start point.
+     * @param x the end point.
+     * @param y the end point.
+     * @param rx the radius along the ellipse's x axis.
+     * @param ry the radius along the ellipse's y axis.
+     * @param theta the rotation of the ellipse's x axis, in degrees.
+     * @param largeArc true to take the larger of the two possible arcs.
+     * @param sweep true to sweep in the positive angle direction.
+     */
+    private static void drawArc(PackedPath p, float x0, float y0, float x, float y, float rx, float ry, float theta,
+                                boolean largeArc, boolean sweep) {
+        if (x0 == x && y0 == y) {
+            // Omitted entirely
+            return;
+        }
+        if (rx == 0 || ry == 0) {
+            // Treated as a straight line
+            p.lineTo(x, y);
+            return;
+        }
+        double radiusX = Math.abs(rx);
+        double radiusY = Math.abs(ry);
+        double phi = Math.toRadians(theta % 360);
+        double cosPhi = Math.cos(phi);
+        double sinPhi = Math.sin(phi);
+
+        // Step 1: the start point in the ellipse's rotated frame, relative to the chord midpoint
+        double dx2 = (x0 - x) / 2.0;
+        double dy2 = (y0 - y) / 2.0;
+        double x1 = cosPhi * dx2 + sinPhi * dy2;
+        double y1 = -sinPhi * dx2 + cosPhi * dy2;
+
+        // Scale up radii that are too small to reach from one point to the other
+        double lambda = (x1 * x1) / (radiusX * radiusX) + (y1 * y1) / (radiusY * radiusY);
+        if (lambda > 1) {
+            double scale = Math.sqrt(lambda);
+            radiusX *= scale;
+            radiusY *= scale;
+        }
+
+        // Step 2: the center in the rotated frame
+        double rx2 = radiusX * radiusX;
+        double ry2 = radiusY * radiusY;
+        double den = rx2 * y1 * y1 + ry2 * x1 * x1;
+        double coef = Math.sqrt(Math.max(0, (rx2 * ry2 - den) / den));
+        if (largeArc == sweep) {
+            coef = -coef;
+        }
+        double cxr = coef * radiusX * y1 / radiusY;
+        double cyr = -coef * radiusY * x1 / radiusX;
+
+        // Step 3: the center in user space
+        double cx = cosPhi * cxr - sinPhi * cyr + (x0 + x) / 2.0;
+        double cy = sinPhi * cxr + cosPhi * cyr + (y0 + y) / 2.0;
+
+        // Step 4: the start angle and sweep
+        double ux = (x1 - cxr) / radiusX;
+        double uy = (y1 - cyr) / radiusY;
+        double vx = (-x1 - cxr) / radiusX;
+        double vy = (-y1 - cyr) / radiusY;
+        double startAngle = Math.atan2(uy, ux);
+        double sweepAngle = Math.atan2(ux * vy - uy * vx, ux * vx + uy * vy);
+        if (!sweep && sweepAngle > 0) {
+            sweepAngle -= 2 * Math.PI;
+        } else if (sweep && sweepAngle < 0) {
+            sweepAngle += 2 * Math.PI;
+        }
+
+        // Find the largest segment angle within tolerance, for the larger radius
+        float maxError = (float) (arcTolerance / Math.max(radiusX, radiusY));
+        int steps = 1;
+        while (steps < ARC_STEPS && ARC_ERROR[steps] <= maxError) {
+            steps++;
+        }
+        double maxAngle = steps * (Math.PI / 2) / ARC_STEPS;
+        int segments = Math.max(1, (int) Math.ceil(Math.abs(sweepAngle) / maxAngle - 1e-6));
+
+        double segmentAngle = sweepAngle / segments;
+        double t = 4.0 / 3.0 * Math.tan(segmentAngle / 4);
+        double cosSegment = Math.cos(segmentAngle);
+        double sinSegment = Math.sin(segmentAngle);
+        // Unit circle point at the start of the current segment
+        double c1 = Math.cos(startAngle);
+        double s1 = Math.sin(startAngle);
+        // Maps from the unit circle to user space
+        double ax = radiusX * cosPhi;
+        double bx = -radiusY * sinPhi;
+        double ay = radiusX * sinPhi;
+        double by = radiusY * cosPhi;
+        for (int i = 0; i < segments; i++) {
+            double c2 = c1 * cosSegment - s1 * sinSegment;
+            double s2 = s1 * cosSegment + c1 * sinSegment;
+            double p1x = c1 - t * s1;
+            double p1y = s1 + t * c1;
+            double p2x = c2 + t * s2;
+            double p2y = s2 - t * c2;
+            float x1u = (float) (cx + ax * p1x + bx * p1y);
+            float y1u = (float) (cy + ay * p1x + by * p1y);
+            float x2u = (float) (cx + ax * p2x + bx * p2y);
+            float y2u = (float) (cy + ay * p2x + by * p2y);
+            float xu, yu;
+            if (i == segments - 1) {
+                // Land exactly on the end point
+                xu = x;
+                yu = y;
+            } else {
+                xu = (float) (cx + ax * c2 + bx * s2);
+                yu = (float) (cy + ay * c2 + by * s2);
+            }
+            p.cubicTo(x1u, y1u, x2u, y2u, xu, yu);
+            c1 = c2;
+            s1 = s2;
+        }
     }
 
     private static NumberParse getNumberParseAttr(String name, Attributes attributes) {
@@ -606,28 +1221,180 @@ public class SVGParser {
         }
     }
 
-    private static Integer getHexAttr(String name, Attributes attributes) {
-        String v = getStringAttr(name, attributes);
-        //Util.debug("Hex parsing '" + name + "=" + v + "'");
-        if (v == null) {
-            return null;
-        } else {
-            try {
-                return Integer.parseInt(v.substring(1), 16);
-            } catch (NumberFormatException nfe) {
-                // todo - parse word-based color here
-                return null;
+    /**
+     * Parses a clock value: "2s", "500ms", "1.5min", "1h", "01:30" or "00:01:30", or a number of seconds.
+     * @return the time in seconds, infinite for "indefinite", or null if it isn't a clock value.
+     */
+    static Float parseClock(String s) {
+        s = s.trim();
+        if (s.equals("indefinite")) {
+            return Float.POSITIVE_INFINITY;
+        }
+        try {
+            if (s.indexOf(':') >= 0) {
+                String[] parts = s.split(":");
+                float total = 0;
+                for (String part : parts) {
+                    total = total * 60 + Float.parseFloat(part);
+                }
+                return total;
+            } else if (s.endsWith("ms")) {
+                return Float.parseFloat(s.substring(0, s.length() - 2)) / 1000;
+            } else if (s.endsWith("min")) {
+                return Float.parseFloat(s.substring(0, s.length() - 3)) * 60;
+            } else if (s.endsWith("h")) {
+                return Float.parseFloat(s.substring(0, s.length() - 1)) * 3600;
+            } else if (s.endsWith("s")) {
+                return Float.parseFloat(s.substring(0, s.length() - 1));
             }
+            return Float.parseFloat(s);
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
-    private static class NumberParse {
-        private ArrayList<Float> numbers;
-        private int nextCmd;
-
-        public NumberParse(ArrayList<Float> numbers, int nextCmd) {
-            this.numbers = numbers;
-            this.nextCmd = nextCmd;
+    /**
+     * Parses a list of numbers separated by semicolons, commas or whitespace.
+     */
+    private static float[] parseFloats(String s) {
+        ArrayList<Float> numbers = parseNumbers(s.trim().replace(';', ' ')).numbers;
+        float[] values = new float[numbers.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = numbers.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Parses the semicolon separated values of an animation in to a flat array, with each value taking up a fixed
+     * number of floats.
+     * @return the values, or null if there are none or any can't be parsed.
+     */
+    private static float[] parseAnimationValues(String s, int attribute, int transformType, int stride) {
+        if (s == null) {
+            return null;
+        }
+        String[] parts = s.split(";");
+        float[] values = new float[parts.length * stride];
+        for (int i = 0; i < parts.length; i++) {
+            String v = parts[i].trim();
+            int at = i * stride;
+            switch (attribute) {
+                case SVGTimeline.ATTRIBUTE_FILL:
+                case SVGTimeline.ATTRIBUTE_STROKE: {
+                    Integer color = parseColor(v);
+                    if (color == null) {
+                        return null;
+                    }
+                    values[at] = (color >> 16) & 0xFF;
+                    values[at + 1] = (color >> 8) & 0xFF;
+                    values[at + 2] = color & 0xFF;
+                    break;
+                }
+                case SVGTimeline.ATTRIBUTE_VISIBILITY:
+                    values[at] = v.equals("hidden") || v.equals("collapse") || v.equals("none") ? 0 : 1;
+                    break;
+                case SVGTimeline.ATTRIBUTE_TRANSFORM: {
+                    ArrayList<Float> numbers = parseNumbers(v).numbers;
+                    if (numbers.isEmpty()) {
+                        return null;
+                    }
+                    values[at] = numbers.get(0);
+                    // Fill in the parameters that can be left out, as in the transform attribute
+                    if (numbers.size() > 1) {
+                        values[at + 1] = numbers.get(1);
+                    } else if (transformType == Animation.TRANSFORM_SCALE) {
+                        values[at + 1] = values[at];
+                    }
+                    if (numbers.size() > 2) {
+                        values[at + 2] = numbers.get(2);
+                    }
+                    break;
+                }
+                default:
+                    try {
+                        values[at] = Float.parseFloat(v);
+                    } catch (NumberFormatException nfe) {
+                        return null;
+                    }
+            }
+        }
+        return values;
+    }
+
+    private static Integer getHexAttr(String name, Attributes attributes) {
+        String v = getStringAttr(name, attributes);
+        //Util.debug("Hex parsing '" + name + "=" + v + "'");
+        if (v == null) {
+            return null;
+        } else {
+            try {
+                return Integer.parseInt(v.substring(1), 16);
+            } catch (NumberFormatException nfe) {
+                // todo - parse word-based color here
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The basic named colours of CSS.
+     */
+    private static final HashMap<String, Integer> NAMED_COLORS = new HashMap<String, Integer>();
+
+    static {
+        String[] names = {"black", "silver", "gray", "grey", "white", "maroon", "red", "purple", "fuchsia", "green",
+                "lime", "olive", "yellow", "navy", "blue", "teal", "aqua", "orange"};
+        int[] colors = {0x000000, 0xC0C0C0, 0x808080, 0x808080, 0xFFFFFF, 0x800000, 0xFF0000, 0x800080, 0xFF00FF,
+                0x008000, 0x00FF00, 0x808000, 0xFFFF00, 0x000080, 0x0000FF, 0x008080, 0x00FFFF, 0xFFA500};
+        for (int i = 0; i < names.length; i++) {
+            NAMED_COLORS.put(names[i], colors[i]);
+        }
+    }
+
+    /**
+     * Parses a colour: "#rgb", "#rrggbb", "rgb(r, g, b)" with numbers or percentages, or a basic named colour.
+     * @return the colour as 0xRRGGBB, or null if it isn't a colour this parser understands (such as "none").
+     */
+    static Integer parseColor(String v) {
+        v = v.trim();
+        try {
+            if (v.startsWith("#")) {
+                String hex = v.substring(1);
+                if (hex.length() == 3) {
+                    int c = Integer.parseInt(hex, 16);
+                    int r = (c >> 8) & 0xF, g = (c >> 4) & 0xF, b = c & 0xF;
+                    return (r * 0x11 << 16) | (g * 0x11 << 8) | (b * 0x11);
+                }
+                return Integer.parseInt(hex, 16) & 0xFFFFFF;
+            } else if (v.startsWith("rgb(") && v.endsWith(")")) {
+                String[] parts = v.substring(4, v.length() - 1).split(",");
+                if (parts.length != 3) {
+                    return null;
+                }
+                int color = 0;
+                for (String part : parts) {
+                    part = part.trim();
+                    float channel = part.endsWith("%")
+                            ? Float.parseFloat(part.substring(0, part.length() - 1)) * 255 / 100
+                            : Float.parseFloat(part);
+                    color = (color << 8) | Math.max(0, Math.min(255, Math.round(channel)));
+                }
+                return color;
+            }
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        return NAMED_COLORS.get(v.toLowerCase());
+    }
+
+    private static class NumberParse {
+        private ArrayList<Float> numbers;
+        private int nextCmd;
+
+        public NumberParse(ArrayList<Float> numbers, int nextCmd) {
+            this.numbers = numbers;
+            this.nextCmd = nextCmd;
         }
 
         public int getNextCmd() {
@@ -640,7 +1407,7 @@ public class SVGParser {
 
     }
 
-    private static class Gradient {
+    static class Gradient {
         String id;
         String xlink;
         boolean isLinear;
@@ -696,45 +1463,62 @@ public class SVGParser {
         }
     }
 
-    private static class Properties {
+    private static class Properties implements InheritedStyle.Source {
         StyleSet styles = null;
         Attributes atts;
 
-        private Properties(Attributes atts) {
+        /**
+         * The inherited properties in effect where the element appears.
+         */
+        InheritedStyle inherited;
+
+        /**
+         * The declarations from the document's style sheet that match this element, or null. These take precedence
+         * over presentation attributes, but not over the element's own <code>style</code> attribute.
+         */
+        HashMap<String, String> sheet = null;
+
+        private Properties(Attributes atts, InheritedStyle inherited) {
             this.atts = atts;
+            this.inherited = inherited;
             String styleAttr = getStringAttr("style", atts);
             if (styleAttr != null) {
                 styles = new StyleSet(styleAttr);
             }
         }
 
-        public String getAttr(String name) {
+        /**
+         * Gets a property set on the element itself, ignoring inherited values.
+         */
+        public String getOwn(String name) {
             String v = null;
             if (styles != null) {
                 v = styles.getStyle(name);
             }
+            if (v == null && sheet != null) {
+                v = sheet.get(name);
+            }
             if (v == null) {
                 v = getStringAttr(name, atts);
             }
             return v;
         }
 
+        public String getAttr(String name) {
+            String v = getOwn(name);
+            if (v == null || v.equals("inherit")) {
+                v = inherited.get(name);
+            }
+            return v;
+        }
+
         public String getString(String name) {
             return getAttr(name);
         }
 
         public Integer getHex(String name) {
             String v = getAttr(name);
-            if (v == null || !v.startsWith("#")) {
-                return null;
-            } else {
-                try {
-                    return Integer.parseInt(v.substring(1), 16);
-                } catch (NumberFormatException nfe) {
-                    // todo - parse word-based color here
-                    return null;
-                }
-            }
+            return v == null ? null : parseColor(v);
         }
 
         public Float getFloat(String name, float defaultValue) {
@@ -760,6 +1544,36 @@ public class SVGParser {
         }
     }
 
+    /**
+     * Collects the nodes drawn inside a single &lt;g&gt; element until the group is closed.
+     */
+    private static class Group {
+        String id;
+        int depth;
+        float opacity;
+        Clip clip;
+        Mask mask;
+        Filter filter;
+        ArrayList<DisplayNode> nodes = new ArrayList<DisplayNode>();
+
+        /**
+         * The animations of the group itself, which target whatever nodes the group is turned in to.
+         */
+        ArrayList<SVGTimeline.Binding> animations = null;
+
+        /**
+         * The inherited properties in effect inside the group, shared with the enclosing group if this group doesn't
+         * set any.
+         */
+        InheritedStyle style;
+
+        private Group(float opacity, Clip clip, InheritedStyle style) {
+            this.opacity = opacity;
+            this.clip = clip;
+            this.style = style;
+        }
+    }
+
     private static class SVGHandler extends DefaultHandler {
 
         Picture picture;
@@ -768,19 +1582,86 @@ public class SVGParser {
         // Scratch rect (so we aren't constantly making new ones)
         RectF rect = new RectF();
         RectF bounds = null;
-        RectF limits = new RectF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
 
         Integer searchColor = null;
         Integer replaceColor = null;
 
         boolean whiteMode = false;
 
-        boolean pushed = false;
-
         HashMap<String, Shader> gradientMap = new HashMap<String, Shader>();
         HashMap<String, Gradient> gradientRefMap = new HashMap<String, Gradient>();
         Gradient gradient = null;
 
+        // The stack of open groups, the bottom of which holds the top-level nodes of the document
+        ArrayList<Group> groups = new ArrayList<Group>();
+        // Counts of offscreen layers created for translucent groups, and avoided by folding opacity into paints
+        int layerCount = 0;
+        int layersAvoided = 0;
+        // The number of points removed from paths by simplification
+        int pointsRemoved = 0;
+        // The number of shapes removed for being hidden behind opaque shapes, and the area they would have covered
+        int occludedCount = 0;
+        float overdrawSaved = 0;
+
+        // Parsed clip paths, and the geometry of the clip path currently being parsed (if any)
+        HashMap<String, Clip> clipMap = new HashMap<String, Clip>();
+        String clipId = null;
+        Path clipGeometry = null;
+        Matrix clipTransform = null;
+
+        // Parsed masks, and the mask currently being parsed (if any) with its region
+        HashMap<String, Mask> maskMap = new HashMap<String, Mask>();
+        Mask mask = null;
+        RectF maskRegion = null;
+
+        // Parsed patterns, the pattern currently being parsed (if any) and the pattern set by the last doFill
+        HashMap<String, Pattern> patternMap = new HashMap<String, Pattern>();
+        Pattern pattern = null;
+        Pattern fillPattern = null;
+        // The gradient set by the last doFill, if any
+        Gradient fillGradient = null;
+
+        // Parsed filters, and the filter currently being parsed (if any)
+        HashMap<String, Filter> filterMap = new HashMap<String, Filter>();
+        Filter filter = null;
+
+        // Parsed markers, and the marker currently being parsed (if any)
+        HashMap<String, Marker> markerMap = new HashMap<String, Marker>();
+        Marker marker = null;
+
+        // The document's style sheet, and the text of the <style> element currently being parsed (if any)
+        StyleSheet styleSheet = null;
+        StringBuilder styleText = null;
+
+        // The embedded images used by the document
+        ArrayList<EmbeddedImage> images = new ArrayList<EmbeddedImage>();
+
+        // The nodes that each group with an id was turned in to, as most groups are merged in to their parent
+        HashMap<String, ArrayList<DisplayNode>> groupElements = new HashMap<String, ArrayList<DisplayNode>>();
+
+        // The depth of the element being parsed, and the shape added last with the depth of its element, which is the
+        // target of any animation elements inside it
+        int depth = 0;
+        DisplayNode lastNode = null;
+        int lastNodeDepth = -1;
+        // The animations parsed so far, in document order
+        ArrayList<SVGTimeline.Binding> animations = new ArrayList<SVGTimeline.Binding>();
+
+        // The elements of the source so far, and those currently open, when kept for incremental updates
+        ArrayList<SourceElement> source = null;
+        ArrayList<SourceElement> openSource = new ArrayList<SourceElement>();
+
+        // While inside a <text> element: the properties of the text and any open <tspan>s, the text cursor, the
+        // start of the current text chunk (for text-anchor), and the runs of glyph outlines laid out so far
+        ArrayList<Properties> textSpans = null;
+        float textX = 0;
+        float textY = 0;
+        float textChunkX = 0;
+        int textChunkStart = 0;
+        ArrayList<DisplayNode> textRuns = null;
+        boolean textSpace = true;
+        float textTrailingSpace = 0;
+
         private SVGHandler(Picture picture) {
             this.picture = picture;
             paint = new Paint();
@@ -807,6 +1688,8 @@ public class SVGParser {
         }
 
         private boolean doFill(Properties atts, HashMap<String, Shader> gradients) {
+            fillPattern = null;
+            fillGradient = null;
             if ("none".equals(atts.getString("display"))) {
                 return false;
             }
@@ -824,6 +1707,14 @@ public class SVGParser {
                     //Util.debug("Found shader!");
                     paint.setShader(shader);
                     paint.setStyle(Paint.Style.FILL);
+                    fillGradient = gradientRefMap.get(id);
+                    return true;
+                } else if (patternMap.containsKey(id)) {
+                    // The shader is set from the pattern when the shape is drawn
+                    fillPattern = patternMap.get(id);
+                    paint.setShader(null);
+                    paint.setColor(0xFF000000);
+                    paint.setStyle(Paint.Style.FILL);
                     return true;
                 } else {
                     //Util.debug("Didn't find shader!");
@@ -934,56 +1825,744 @@ public class SVGParser {
         private boolean hidden = false;
         private int hiddenLevel = 0;
         private boolean boundsMode = false;
+        private int boundsLevel = 0;
+
+        /**
+         * Simplifies the geometry of a path or polyline, if simplification is turned on.
+         * @param packed the path as parsed.
+         * @return the path to draw.
+         */
+        private PackedPath simplify(PackedPath packed) {
+            float tolerance = simplifyTolerance;
+            if (tolerance <= 0) {
+                return packed;
+            }
+            PackedPath simplified = packed.simplify(tolerance);
+            pointsRemoved += (packed.getCoordCount() - simplified.getCoordCount()) / 2;
+            return simplified;
+        }
+
+        /**
+         * Adds a shape to the currently open group, provided it is filled or stroked. Inside a &lt;clipPath&gt; the
+         * shape's geometry is added to the clip instead.
+         * @param node the shape, with its paints already set.
+         * @param props the element properties, used to look up the transform and clip.
+         */
+        private void addNode(DisplayNode node, Properties props) {
+            final String transform = getStringAttr("transform", props.atts);
+            if (transform != null) {
+                node.matrix = parseTransform(transform);
+            }
+            if (clipGeometry != null) {
+                if (node.matrix != null) {
+                    clipGeometry.addPath(node.toPath(), node.matrix);
+                } else {
+                    clipGeometry.addPath(node.toPath());
+                }
+                return;
+            }
+            if (node.fill == null && node.stroke == null && node.markers == null) {
+                return;
+            }
+            node.id = getStringAttr("id", props.atts);
+            if (node.fill != null && node.fillGradient == null) {
+                node.fillGradient = fillGradient;
+            }
+            if (node.kind == DisplayNode.KIND_PATH && node.packed != null && "evenodd".equals(props.getString("fill-rule"))) {
+                node.evenOdd = true;
+                node.path.setFillType(Path.FillType.EVEN_ODD);
+            }
+            // Text runs are laid out before they are added, so they carry their own (unresolved) pattern
+            Pattern pattern = node.fillPattern != null ? node.fillPattern : fillPattern;
+            if (node.fill != null && pattern != null) {
+                RectF box = new RectF();
+                node.getGeometryBounds(box);
+                node.fillPattern = pattern.forBounds(box);
+            }
+            node.computeBounds();
+            // The clip cuts the filtered result, so it comes after the filter spreads the bounds
+            node.filter = getFilter(props);
+            if (node.filter != null) {
+                node.filter.outset(node);
+            }
+            Clip clip = getClip(props);
+            if (clip != null) {
+                // The clip is in the element's user space, which includes its transform
+                if (node.matrix != null) {
+                    clip = clip.transform(node.matrix);
+                }
+                if (!node.applyClip(clip)) {
+                    return;
+                }
+            }
+            node.mask = getMask(props);
+            if (node.mask != null) {
+                RectF maskBounds = new RectF(node.mask.bounds);
+                if (node.matrix != null) {
+                    node.matrix.mapRect(maskBounds);
+                }
+                if (!node.bounds.intersect(maskBounds)) {
+                    return;
+                }
+            }
+            groups.get(groups.size() - 1).nodes.add(node);
+            // Text runs are only added once their element has ended
+            if (textSpans == null) {
+                lastNode = node;
+                lastNodeDepth = depth;
+                if (source != null) {
+                    SourceElement element = openSource.get(openSource.size() - 1);
+                    element.node = node;
+                    element.style = getInheritedStyle();
+                    element.references = hasReferences(props);
+                    element.fillAlpha = node.fill == null ? 255 : node.fill.getAlpha();
+                    element.strokeAlpha = node.stroke == null ? 255 : node.stroke.getAlpha();
+                    element.clip = node.clip;
+                }
+            }
+        }
+
+        /**
+         * Determines whether an element's properties refer to anything else in the document, such as a gradient or a
+         * clip path.
+         */
+        private boolean hasReferences(Properties props) {
+            for (String name : REFERENCE_PROPERTIES) {
+                String v = props.getString(name);
+                if (v != null && v.startsWith("url(")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Parses a single shape again with new attributes, as it would be parsed in the same place in the document.
+         * @param old the shape's element as parsed before.
+         * @param atts the new attributes.
+         * @return the new element, with its node, or null if it no longer draws a single node.
+         */
+        private SourceElement reparse(SourceElement old, Attributes atts) {
+            groups.clear();
+            groups.add(new Group(1f, null, old.style));
+            depth = old.depth - 1;
+            paint.setStrokeWidth(old.widthBefore);
+            paint.setStrokeCap(old.capBefore);
+            paint.setStrokeJoin(old.joinBefore);
+            source = new ArrayList<SourceElement>();
+            openSource.clear();
+            try {
+                startElement("", old.tag, old.tag, atts);
+                endElement("", old.tag, old.tag);
+            } catch (Exception e) {
+                return null;
+            } finally {
+                lastNode = null;
+            }
+            SourceElement element = source.get(0);
+            source = null;
+            return groups.get(0).nodes.size() == 1 && element.node != null ? element : null;
+        }
+
+        /**
+         * Gets the inherited properties in effect inside the innermost open group.
+         */
+        private InheritedStyle getInheritedStyle() {
+            return groups.get(groups.size() - 1).style;
+        }
 
-        private void doLimits(float x, float y) {
-            if (x < limits.left) {
-                limits.left = x;
+        /**
+         * Gets the properties of an element, including any matching rules from the document's style sheet.
+         * @param tag the element's tag name.
+         * @param atts the element's attributes.
+         * @param inherited the inherited properties in effect where the element appears.
+         */
+        private Properties getProperties(String tag, Attributes atts, InheritedStyle inherited) {
+            Properties props = new Properties(atts, inherited);
+            if (styleSheet != null) {
+                props.sheet = styleSheet.match(tag, getStringAttr("id", atts), getStringAttr("class", atts));
+            }
+            return props;
+        }
+
+        /**
+         * Lays out characters of the current text element as glyph outlines, in the style of the innermost open
+         * span, and advances the text cursor. Whitespace is collapsed as for the default <code>xml:space</code>.
+         */
+        private void layoutText(char[] ch, int start, int length) {
+            Properties span = textSpans.get(textSpans.size() - 1);
+            Path path = new Path();
+            DisplayNode node = DisplayNode.path(path);
+            if (doFill(span, gradientMap)) {
+                node.fill = new Paint(paint);
+                node.fillPattern = fillPattern;
+            }
+            if (doStroke(span)) {
+                node.stroke = new Paint(paint);
+            }
+            String family = getFontFamily(span);
+            int style = getFontStyle(span);
+            float size = parseLength(span.getString("font-size"), 16f);
+            GlyphCache cache = GlyphCache.SHARED;
+            boolean empty = true;
+            for (int i = start; i < start + length; i++) {
+                char c = ch[i];
+                if (c == '\n' || c == '\r' || c == '\t') {
+                    c = ' ';
+                }
+                if (c == ' ') {
+                    if (textSpace) {
+                        continue;
+                    }
+                    textSpace = true;
+                } else {
+                    textSpace = false;
+                }
+                GlyphCache.Glyph glyph = cache.get(family, style, size, c);
+                if (c != ' ') {
+                    path.addPath(glyph.path, textX, textY);
+                    empty = false;
+                }
+                textX += glyph.advance;
+                textTrailingSpace = c == ' ' ? glyph.advance : 0;
             }
-            if (x > limits.right) {
-                limits.right = x;
+            if (!empty) {
+                textRuns.add(node);
             }
-            if (y < limits.top) {
-                limits.top = y;
+        }
+
+        /**
+         * Ends the current chunk of text, shifting it according to the <code>text-anchor</code> of the text element.
+         */
+        private void finishTextChunk() {
+            String anchor = textSpans.get(0).getString("text-anchor");
+            float width = textX - textTrailingSpace - textChunkX;
+            float shift = 0;
+            if ("middle".equals(anchor)) {
+                shift = -width / 2;
+            } else if ("end".equals(anchor)) {
+                shift = -width;
             }
-            if (y > limits.bottom) {
-                limits.bottom = y;
+            if (shift != 0) {
+                for (int i = textChunkStart; i < textRuns.size(); i++) {
+                    textRuns.get(i).path.offset(shift, 0);
+                }
             }
+            textChunkStart = textRuns.size();
+            textChunkX = textX;
+            textTrailingSpace = 0;
         }
 
-        private void doLimits(float x, float y, float width, float height) {
-            doLimits(x, y);
-            doLimits(x + width, y + height);
+        /**
+         * Moves the text cursor as given by the <code>x</code>, <code>y</code>, <code>dx</code> and <code>dy</code>
+         * attributes of a text element or span. Only the first value of each is used. An absolute position starts a
+         * new chunk of text.
+         */
+        private void moveTextCursor(Attributes atts) {
+            Float x = getFirstNumber("x", atts);
+            Float y = getFirstNumber("y", atts);
+            if (x != null || y != null) {
+                finishTextChunk();
+                if (x != null) {
+                    textX = x;
+                }
+                if (y != null) {
+                    textY = y;
+                }
+                textChunkX = textX;
+            }
+            Float dx = getFirstNumber("dx", atts);
+            Float dy = getFirstNumber("dy", atts);
+            if (dx != null) {
+                textX += dx;
+                textChunkX += dx;
+            }
+            if (dy != null) {
+                textY += dy;
+            }
         }
 
-        private void doLimits(Path path) {
-            path.computeBounds(rect, false);
-            doLimits(rect.left, rect.top);
-            doLimits(rect.right, rect.bottom);
+        private Float getFirstNumber(String name, Attributes atts) {
+            NumberParse numbers = getNumberParseAttr(name, atts);
+            if (numbers == null || numbers.numbers.isEmpty()) {
+                return null;
+            }
+            return numbers.numbers.get(0);
         }
 
-        private void pushTransform(Attributes atts) {
-            final String transform = getStringAttr("transform", atts);
-            pushed = transform != null;
-            if (pushed) {
-                final Matrix matrix = parseTransform(transform);
-                canvas.save();
-                canvas.concat(matrix);
+        private String getFontFamily(Properties props) {
+            String family = props.getString("font-family");
+            if (family == null) {
+                return null;
+            }
+            int comma = family.indexOf(',');
+            if (comma >= 0) {
+                family = family.substring(0, comma);
             }
+            family = family.trim();
+            if (family.length() > 1 && (family.charAt(0) == '\'' || family.charAt(0) == '"')) {
+                family = family.substring(1, family.length() - 1);
+            }
+            return family;
         }
 
-        private void popTransform() {
-            if (pushed) {
-                canvas.restore();
+        private int getFontStyle(Properties props) {
+            int style = Typeface.NORMAL;
+            String weight = props.getString("font-weight");
+            if (weight != null) {
+                weight = weight.trim();
+                if (weight.equals("bold") || weight.equals("bolder")) {
+                    style |= Typeface.BOLD;
+                } else {
+                    try {
+                        if (Integer.parseInt(weight) >= 600) {
+                            style |= Typeface.BOLD;
+                        }
+                    } catch (NumberFormatException e) {
+                        // Normal weight
+                    }
+                }
+            }
+            String fontStyle = props.getString("font-style");
+            if ("italic".equals(fontStyle) || "oblique".equals(fontStyle)) {
+                style |= Typeface.ITALIC;
             }
+            return style;
+        }
+
+        /**
+         * Parses a length in user units, ignoring a trailing <code>px</code>.
+         */
+        private float parseLength(String v, float defaultValue) {
+            if (v == null) {
+                return defaultValue;
+            }
+            v = v.trim();
+            if (v.endsWith("px")) {
+                v = v.substring(0, v.length() - 2);
+            }
+            try {
+                return Float.parseFloat(v);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        /**
+         * Determines whether an element has any markers placed on it.
+         */
+        private boolean hasMarkers(Properties props) {
+            return props.getString("marker-start") != null || props.getString("marker-mid") != null
+                    || props.getString("marker-end") != null || props.getString("marker") != null;
+        }
+
+        /**
+         * Places the markers referenced by an element on the vertices of its shape. Must be called before
+         * {@link #addNode(DisplayNode, Properties)}, so that the node's bounds take in the markers.
+         * @param node the shape.
+         * @param props the element properties.
+         * @param vertices the vertices of the shape.
+         */
+        private void setMarkers(DisplayNode node, Properties props, PackedPath vertices) {
+            if (vertices.getVerbCount() == 0 || "none".equals(props.getString("display"))) {
+                return;
+            }
+            Marker start = getMarker(props, "marker-start");
+            Marker mid = getMarker(props, "marker-mid");
+            Marker end = getMarker(props, "marker-end");
+            if (start == null && mid == null && end == null) {
+                return;
+            }
+            Marker.Placement placement = new Marker.Placement();
+            placement.start = start;
+            placement.mid = mid;
+            placement.end = end;
+            placement.vertices = Marker.computeVertices(vertices);
+            placement.vertexCount = vertices.getVerbCount();
+            placement.strokeWidth = props.getFloat("stroke-width", 1f);
+            node.markers = placement;
+        }
+
+        /**
+         * Looks up the marker referenced by one of an element's marker properties, falling back on the
+         * <code>marker</code> shorthand.
+         * @return the marker, or null if there isn't one.
+         */
+        private Marker getMarker(Properties props, String name) {
+            String markerString = props.getString(name);
+            if (markerString == null) {
+                markerString = props.getString("marker");
+            }
+            if (markerString != null && markerString.startsWith("url(#")) {
+                String id = markerString.substring("url(#".length(), markerString.length() - 1);
+                return markerMap.get(id);
+            }
+            return null;
+        }
+
+        /**
+         * Looks up the filter referenced by an element's <code>filter</code> property.
+         * @return the filter, or null if the element isn't filtered or the filter isn't supported.
+         */
+        private Filter getFilter(Properties props) {
+            String filterString = props.getString("filter");
+            if (filterString != null && filterString.startsWith("url(#")) {
+                String id = filterString.substring("url(#".length(), filterString.length() - 1);
+                Filter f = filterMap.get(id);
+                if (f != null && f.supported) {
+                    return f;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Looks up the mask referenced by an element's <code>mask</code> property.
+         * @return the mask, or null if the element isn't masked.
+         */
+        private Mask getMask(Properties props) {
+            String maskString = props.getString("mask");
+            if (maskString != null && maskString.startsWith("url(#")) {
+                String id = maskString.substring("url(#".length(), maskString.length() - 1);
+                return maskMap.get(id);
+            }
+            return null;
+        }
+
+        /**
+         * Determines whether the parser is inside an element whose content defines something to be used elsewhere,
+         * rather than being drawn.
+         */
+        private boolean inDefinition() {
+            return clipGeometry != null || mask != null || pattern != null || marker != null;
+        }
+
+        /**
+         * Looks up the clip referenced by an element's <code>clip-path</code> property.
+         * @return the clip, or null if the element isn't clipped.
+         */
+        private Clip getClip(Properties props) {
+            String clipString = props.getString("clip-path");
+            if (clipString != null && clipString.startsWith("url(#")) {
+                String id = clipString.substring("url(#".length(), clipString.length() - 1);
+                return clipMap.get(id);
+            }
+            return null;
+        }
+
+        private void pushGroup(Attributes atts) {
+            InheritedStyle style = getInheritedStyle();
+            Properties props = getProperties("g", atts, style);
+            // Read from the style too, where editors like Inkscape put it
+            Float opacity = props.getFloat("opacity");
+            Group group = new Group(opacity == null ? 1f : Math.max(0f, Math.min(1f, opacity)), getClip(props),
+                    style.derive(props));
+            group.id = getStringAttr("id", atts);
+            group.depth = depth;
+            group.mask = getMask(props);
+            group.filter = getFilter(props);
+            groups.add(group);
+        }
+
+        /**
+         * Closes the current group, adding its nodes to the enclosing group, and remembers which nodes make up the group
+         * if it has an id.
+         */
+        private void popGroup() {
+            Group group = groups.remove(groups.size() - 1);
+            ArrayList<DisplayNode> parent = groups.get(groups.size() - 1).nodes;
+            int before = parent.size();
+            closeGroup(group, parent);
+            if (parent.size() == before) {
+                return;
+            }
+            ArrayList<DisplayNode> nodes = new ArrayList<DisplayNode>(parent.subList(before, parent.size()));
+            if (group.id != null) {
+                groupElements.put(group.id, nodes);
+            }
+            if (group.animations != null) {
+                for (SVGTimeline.Binding binding : group.animations) {
+                    binding.nodes = nodes;
+                }
+            }
+        }
+
+        /**
+         * Adds the nodes of a group to the enclosing group. A translucent group is only given an offscreen layer if its
+         * contents overlap, otherwise the opacity is folded in to each child's paint.
+         */
+        private void closeGroup(Group group, ArrayList<DisplayNode> parent) {
+            if (group.nodes.isEmpty()) {
+                return;
+            }
+            int alpha = Math.round(255 * group.opacity);
+            if (group.mask != null || group.filter != null) {
+                // A masked or filtered group is always drawn as a whole, through a layer or an offscreen bitmap, which
+                // also takes care of the group opacity
+                DisplayNode node = DisplayNode.group(group.nodes, alpha);
+                node.mask = group.mask;
+                if (node.mask != null && !node.bounds.intersect(group.mask.bounds)) {
+                    return;
+                }
+                node.filter = group.filter;
+                if (node.filter != null) {
+                    node.filter.outset(node);
+                }
+                if (group.clip == null || node.applyClip(group.clip)) {
+                    parent.add(node);
+                    layerCount++;
+                }
+                return;
+            }
+            if (group.clip != null) {
+                // Push the clip down on to the children if possible, otherwise clip the group as a whole
+                boolean pushDown = true;
+                for (DisplayNode node : group.nodes) {
+                    if (!node.canTakeClip(group.clip)) {
+                        pushDown = false;
+                        break;
+                    }
+                }
+                if (!pushDown) {
+                    DisplayNode node = DisplayNode.group(group.nodes, alpha);
+                    if (node.applyClip(group.clip)) {
+                        parent.add(node);
+                        if (alpha < 255) {
+                            layerCount++;
+                        }
+                    }
+                    return;
+                }
+                ArrayList<DisplayNode> clipped = new ArrayList<DisplayNode>(group.nodes.size());
+                for (DisplayNode node : group.nodes) {
+                    if (node.applyClip(group.clip)) {
+                        clipped.add(node);
+                    }
+                }
+                if (clipped.isEmpty()) {
+                    return;
+                }
+                group.nodes = clipped;
+            }
+            if (alpha == 255) {
+                parent.addAll(group.nodes);
+            } else if (!DisplayNode.anyOverlap(group.nodes)) {
+                // A child group drawn without a layer (one kept only for its clip) needs one once it is translucent
+                int newLayers = 0;
+                for (DisplayNode node : group.nodes) {
+                    if (node.kind == DisplayNode.KIND_GROUP && node.alpha == 255 && node.mask == null
+                            && node.filter == null) {
+                        newLayers++;
+                    }
+                    node.foldAlpha(alpha);
+                }
+                parent.addAll(group.nodes);
+                if (newLayers == 0) {
+                    layersAvoided++;
+                } else {
+                    layerCount += newLayers;
+                }
+            } else {
+                parent.add(DisplayNode.group(group.nodes, alpha));
+                layerCount++;
+            }
+        }
+
+        /**
+         * Parses an &lt;animate&gt;, &lt;animateTransform&gt; or &lt;set&gt; element, which animates the element it is
+         * inside or the element its href points to. Animations of unsupported attributes, or that begin on events, are
+         * skipped.
+         */
+        private void addAnimation(String localName, Attributes atts) {
+            String name = getStringAttr("attributeName", atts);
+            int attribute;
+            if (localName.equals("animateTransform")) {
+                attribute = "transform".equals(name) ? SVGTimeline.ATTRIBUTE_TRANSFORM : -1;
+            } else if ("fill".equals(name)) {
+                attribute = SVGTimeline.ATTRIBUTE_FILL;
+            } else if ("stroke".equals(name)) {
+                attribute = SVGTimeline.ATTRIBUTE_STROKE;
+            } else if ("opacity".equals(name)) {
+                attribute = SVGTimeline.ATTRIBUTE_OPACITY;
+            } else if ("fill-opacity".equals(name)) {
+                attribute = SVGTimeline.ATTRIBUTE_FILL_OPACITY;
+            } else if ("stroke-opacity".equals(name)) {
+                attribute = SVGTimeline.ATTRIBUTE_STROKE_OPACITY;
+            } else if ("visibility".equals(name) || "display".equals(name)) {
+                attribute = SVGTimeline.ATTRIBUTE_VISIBILITY;
+            } else {
+                attribute = -1;
+            }
+            if (attribute < 0) {
+                Log.d(TAG, "Unsupported animated attribute: " + name);
+                return;
+            }
+            int transformType = Animation.TRANSFORM_TRANSLATE;
+            if (attribute == SVGTimeline.ATTRIBUTE_TRANSFORM) {
+                String type = getStringAttr("type", atts);
+                if ("scale".equals(type)) {
+                    transformType = Animation.TRANSFORM_SCALE;
+                } else if ("rotate".equals(type)) {
+                    transformType = Animation.TRANSFORM_ROTATE;
+                } else if ("skewX".equals(type)) {
+                    transformType = Animation.TRANSFORM_SKEW_X;
+                } else if ("skewY".equals(type)) {
+                    transformType = Animation.TRANSFORM_SKEW_Y;
+                }
+            }
+            int stride = attribute == SVGTimeline.ATTRIBUTE_FILL || attribute == SVGTimeline.ATTRIBUTE_STROKE
+                    || attribute == SVGTimeline.ATTRIBUTE_TRANSFORM ? 3 : 1;
+
+            // Only the first begin time is used, and only if it is an offset
+            String beginList = getStringAttr("begin", atts);
+            Float begin = 0f;
+            if (beginList != null) {
+                int semicolon = beginList.indexOf(';');
+                begin = parseClock(semicolon < 0 ? beginList : beginList.substring(0, semicolon));
+            }
+            if (begin == null || Float.isInfinite(begin)) {
+                Log.d(TAG, "Unsupported animation begin: " + beginList);
+                return;
+            }
+            String durValue = getStringAttr("dur", atts);
+            Float duration = durValue == null ? Float.POSITIVE_INFINITY : parseClock(durValue);
+            if (duration == null || duration <= 0) {
+                return;
+            }
+            float activeDuration = duration;
+            String repeatCount = getStringAttr("repeatCount", atts);
+            if ("indefinite".equals(repeatCount)) {
+                activeDuration = Float.POSITIVE_INFINITY;
+            } else if (repeatCount != null) {
+                float repeats;
+                try {
+                    repeats = Float.parseFloat(repeatCount);
+                } catch (NumberFormatException e) {
+                    repeats = Float.NaN;
+                }
+                if (!(repeats > 0)) {
+                    Log.d(TAG, "Unsupported animation repeatCount: " + repeatCount);
+                    return;
+                }
+                activeDuration = duration * repeats;
+            }
+            String repeatDur = getStringAttr("repeatDur", atts);
+            if (repeatDur != null) {
+                Float d = parseClock(repeatDur);
+                if (d != null) {
+                    activeDuration = repeatCount == null ? d : Math.min(activeDuration, d);
+                }
+            }
+            boolean freeze = "freeze".equals(getStringAttr("fill", atts));
+            boolean additive = "sum".equals(getStringAttr("additive", atts));
+
+            float[] values;
+            String valueList = getStringAttr("values", atts);
+            String to = getStringAttr("to", atts);
+            if (localName.equals("set")) {
+                values = parseAnimationValues(to, attribute, transformType, stride);
+            } else if (valueList != null) {
+                values = parseAnimationValues(valueList, attribute, transformType, stride);
+            } else {
+                float[] from = parseAnimationValues(getStringAttr("from", atts), attribute, transformType, stride);
+                float[] by = parseAnimationValues(getStringAttr("by", atts), attribute, transformType, stride);
+                float[] end = parseAnimationValues(to, attribute, transformType, stride);
+                if (end == null && by != null) {
+                    // A by animation starts from zero, added on to the element's own value
+                    if (from == null) {
+                        from = new float[stride];
+                        additive = true;
+                    }
+                    end = new float[stride];
+                    for (int i = 0; i < stride; i++) {
+                        end[i] = from[i] + by[i];
+                    }
+                }
+                if (from == null || end == null) {
+                    // The element's own value isn't known here, so a to animation just switches to its value
+                    values = end;
+                } else {
+                    values = new float[2 * stride];
+                    System.arraycopy(from, 0, values, 0, stride);
+                    System.arraycopy(end, 0, values, stride, stride);
+                }
+            }
+            if (values == null || values.length == 0) {
+                Log.d(TAG, "Unsupported animation values for " + name);
+                return;
+            }
+            if (additive && attribute != SVGTimeline.ATTRIBUTE_TRANSFORM) {
+                // Only transforms are added on to the element's own value, anything else would be animated from zero
+                Log.d(TAG, "Unsupported additive animation of " + name);
+                return;
+            }
+            int keyCount = values.length / stride;
+
+            String mode = getStringAttr("calcMode", atts);
+            int calcMode = Animation.CALC_LINEAR;
+            if (localName.equals("set") || attribute == SVGTimeline.ATTRIBUTE_VISIBILITY || "discrete".equals(mode)) {
+                calcMode = Animation.CALC_DISCRETE;
+            } else if ("spline".equals(mode)) {
+                calcMode = Animation.CALC_SPLINE;
+            }
+            float[] keyTimes = null;
+            String keyTimeList = getStringAttr("keyTimes", atts);
+            if (keyTimeList != null) {
+                keyTimes = parseFloats(keyTimeList);
+                if (keyTimes.length != keyCount) {
+                    keyTimes = null;
+                }
+            }
+            float[] keySplines = null;
+            if (calcMode == Animation.CALC_SPLINE) {
+                String splineList = getStringAttr("keySplines", atts);
+                keySplines = splineList == null ? null : parseFloats(splineList);
+                if (keySplines == null || keySplines.length != 4 * (keyCount - 1)) {
+                    calcMode = Animation.CALC_LINEAR;
+                    keySplines = null;
+                }
+            }
+            SVGTimeline.Binding binding = new SVGTimeline.Binding(new Animation(begin, duration, activeDuration, freeze,
+                    additive, calcMode, transformType, stride, values, keyTimes, keySplines), attribute);
+
+            String href = getStringAttr("href", atts);
+            Group group = groups.get(groups.size() - 1);
+            if (href != null) {
+                if (!href.startsWith("#")) {
+                    return;
+                }
+                binding.href = href.substring(1);
+            } else if (lastNode != null && lastNodeDepth == depth - 1) {
+                binding.node = lastNode;
+            } else if (groups.size() > 1 && group.depth == depth - 1) {
+                if (group.animations == null) {
+                    group.animations = new ArrayList<SVGTimeline.Binding>();
+                }
+                group.animations.add(binding);
+            } else {
+                return;
+            }
+            animations.add(binding);
         }
 
         @Override
         public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SAXException {
+            depth++;
+            if (source != null) {
+                SourceElement element = new SourceElement(depth, localName, fingerprint(localName, atts));
+                element.widthBefore = paint.getStrokeWidth();
+                element.capBefore = paint.getStrokeCap();
+                element.joinBefore = paint.getStrokeJoin();
+                source.add(element);
+                openSource.add(element);
+            }
             // Reset paint opacity
             paint.setAlpha(255);
             // Ignore everything but rectangles in bounds mode
             if (boundsMode) {
-                if (localName.equals("rect")) {
+                if (localName.equals("g")) {
+                    boundsLevel++;
+                } else if (localName.equals("rect")) {
                     Float x = getFloatAttr("x", atts);
                     if (x == null) {
                         x = 0f;
@@ -1002,8 +2581,85 @@ public class SVGParser {
                 int width = (int) Math.ceil(getFloatAttr("width", atts));
                 int height = (int) Math.ceil(getFloatAttr("height", atts));
                 canvas = picture.beginRecording(width, height);
+                groups.clear();
+                Properties props = getProperties(localName, atts, InheritedStyle.ROOT);
+                groups.add(new Group(1f, null, InheritedStyle.ROOT.derive(props)));
             } else if (localName.equals("defs")) {
                 // Ignore
+            } else if (localName.equals("style")) {
+                styleText = new StringBuilder();
+            } else if (localName.equals("clipPath")) {
+                clipId = getStringAttr("id", atts);
+                clipGeometry = new Path();
+                String transform = getStringAttr("transform", atts);
+                clipTransform = transform == null ? null : parseTransform(transform);
+                if ("objectBoundingBox".equals(getStringAttr("clipPathUnits", atts))) {
+                    // The geometry would be in units of each clipped element's bounds, so leave it unclipped instead
+                    Log.w(TAG, "Unsupported clipPathUnits objectBoundingBox, ignoring clip path " + clipId);
+                    clipId = null;
+                }
+            } else if (localName.equals("mask")) {
+                Properties props = getProperties(localName, atts, getInheritedStyle());
+                mask = new Mask(getStringAttr("id", atts), !"alpha".equals(props.getString("mask-type")));
+                maskRegion = null;
+                if ("userSpaceOnUse".equals(getStringAttr("maskUnits", atts))) {
+                    Float x = getFloatAttr("x", atts);
+                    Float y = getFloatAttr("y", atts);
+                    Float width = getFloatAttr("width", atts);
+                    Float height = getFloatAttr("height", atts);
+                    if (x != null && y != null && width != null && height != null) {
+                        maskRegion = new RectF(x, y, x + width, y + height);
+                    }
+                }
+                // Collect the mask content in its own group
+                groups.add(new Group(1f, null, getInheritedStyle()));
+            } else if (localName.equals("filter")) {
+                filter = new Filter(getStringAttr("id", atts));
+            } else if (filter != null && localName.startsWith("fe")) {
+                filter.addPrimitive(localName, getStringAttr("stdDeviation", atts), getStringAttr("in", atts));
+            } else if (localName.equals("pattern")) {
+                boolean objectBoundingBox = !"userSpaceOnUse".equals(getStringAttr("patternUnits", atts));
+                Float x = getFloatAttr("x", atts, 0f);
+                Float y = getFloatAttr("y", atts, 0f);
+                Float width = getFloatAttr("width", atts, 0f);
+                Float height = getFloatAttr("height", atts, 0f);
+                String transform = getStringAttr("patternTransform", atts);
+                pattern = new Pattern(getStringAttr("id", atts), new RectF(x, y, x + width, y + height), objectBoundingBox,
+                        transform == null ? null : parseTransform(transform));
+                // Collect the pattern content in its own group
+                groups.add(new Group(1f, null, getInheritedStyle()));
+            } else if (localName.equals("marker")) {
+                marker = new Marker(getStringAttr("id", atts));
+                marker.refX = getFloatAttr("refX", atts, 0f);
+                marker.refY = getFloatAttr("refY", atts, 0f);
+                marker.strokeWidthUnits = !"userSpaceOnUse".equals(getStringAttr("markerUnits", atts));
+                String orient = getStringAttr("orient", atts);
+                if ("auto".equals(orient)) {
+                    marker.orient = Marker.ORIENT_AUTO;
+                } else if ("auto-start-reverse".equals(orient)) {
+                    marker.orient = Marker.ORIENT_AUTO_START_REVERSE;
+                } else if (orient != null) {
+                    try {
+                        marker.angle = Float.parseFloat(orient.endsWith("deg") ? orient.substring(0, orient.length() - 3) : orient);
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "Bad marker orient: " + orient);
+                    }
+                }
+                NumberParse viewBox = getNumberParseAttr("viewBox", atts);
+                if (viewBox != null && viewBox.numbers.size() == 4) {
+                    float markerWidth = getFloatAttr("markerWidth", atts, 3f);
+                    float markerHeight = getFloatAttr("markerHeight", atts, 3f);
+                    float viewWidth = viewBox.numbers.get(2);
+                    float viewHeight = viewBox.numbers.get(3);
+                    if (viewWidth > 0 && viewHeight > 0) {
+                        // Uniform scale, as for the default preserveAspectRatio
+                        float scale = Math.min(markerWidth / viewWidth, markerHeight / viewHeight);
+                        marker.viewScaleX = scale;
+                        marker.viewScaleY = scale;
+                    }
+                }
+                // Collect the marker content in its own group
+                groups.add(new Group(1f, null, getInheritedStyle()));
             } else if (localName.equals("linearGradient")) {
                 gradient = doGradient(true, atts);
             } else if (localName.equals("radialGradient")) {
@@ -1011,21 +2667,13 @@ public class SVGParser {
             } else if (localName.equals("stop")) {
                 if (gradient != null) {
                     float offset = getFloatAttr("offset", atts);
-                    String styles = getStringAttr("style", atts);
-                    StyleSet styleSet = new StyleSet(styles);
-                    String colorStyle = styleSet.getStyle("stop-color");
-                    int color = Color.BLACK;
-                    if (colorStyle != null) {
-                        if (colorStyle.startsWith("#")) {
-                            color = Integer.parseInt(colorStyle.substring(1), 16);
-                        } else {
-                            color = Integer.parseInt(colorStyle, 16);
-                        }
-                    }
-                    String opacityStyle = styleSet.getStyle("stop-opacity");
-                    if (opacityStyle != null) {
-                        float alpha = Float.parseFloat(opacityStyle);
-                        int alphaInt = Math.round(255 * alpha);
+                    Properties props = getProperties(localName, atts, getInheritedStyle());
+                    // Stops default to opaque black, as do colours that can't be parsed
+                    Integer stopColor = props.getHex("stop-color");
+                    int color = stopColor == null ? 0 : stopColor;
+                    Float opacity = props.getFloat("stop-opacity");
+                    if (opacity != null) {
+                        int alphaInt = Math.round(255 * Math.max(0f, Math.min(1f, opacity)));
                         color |= (alphaInt << 24);
                     } else {
                         color |= 0xFF000000;
@@ -1038,6 +2686,7 @@ public class SVGParser {
                 if ("bounds".equalsIgnoreCase(getStringAttr("id", atts))) {
                     boundsMode = true;
                 }
+                pushGroup(atts);
                 if (hidden) {
                     hiddenLevel++;
                     //Util.debug("Hidden up: " + hiddenLevel);
@@ -1061,45 +2710,46 @@ public class SVGParser {
                 }
                 Float width = getFloatAttr("width", atts);
                 Float height = getFloatAttr("height", atts);
-                pushTransform(atts);
-                Properties props = new Properties(atts);
+                Properties props = getProperties(localName, atts, getInheritedStyle());
+                DisplayNode node = DisplayNode.rect(x, y, x + width, y + height);
                 if (doFill(props, gradientMap)) {
-                    doLimits(x, y, width, height);
-                    canvas.drawRect(x, y, x + width, y + height, paint);
+                    node.fill = new Paint(paint);
                 }
                 if (doStroke(props)) {
-                    canvas.drawRect(x, y, x + width, y + height, paint);
+                    node.stroke = new Paint(paint);
                 }
-                popTransform();
+                addNode(node, props);
             } else if (!hidden && localName.equals("line")) {
                 Float x1 = getFloatAttr("x1", atts);
                 Float x2 = getFloatAttr("x2", atts);
                 Float y1 = getFloatAttr("y1", atts);
                 Float y2 = getFloatAttr("y2", atts);
-                Properties props = new Properties(atts);
+                Properties props = getProperties(localName, atts, getInheritedStyle());
+                DisplayNode node = DisplayNode.line(x1, y1, x2, y2);
                 if (doStroke(props)) {
-                    pushTransform(atts);
-                    doLimits(x1, y1);
-                    doLimits(x2, y2);
-                    canvas.drawLine(x1, y1, x2, y2, paint);
-                    popTransform();
+                    node.stroke = new Paint(paint);
+                }
+                if (hasMarkers(props)) {
+                    PackedPath vertices = new PackedPath();
+                    vertices.moveTo(x1, y1);
+                    vertices.lineTo(x2, y2);
+                    setMarkers(node, props, vertices);
                 }
+                addNode(node, props);
             } else if (!hidden && localName.equals("circle")) {
                 Float centerX = getFloatAttr("cx", atts);
                 Float centerY = getFloatAttr("cy", atts);
                 Float radius = getFloatAttr("r", atts);
                 if (centerX != null && centerY != null && radius != null) {
-                    pushTransform(atts);
-                    Properties props = new Properties(atts);
+                    Properties props = getProperties(localName, atts, getInheritedStyle());
+                    DisplayNode node = DisplayNode.oval(centerX - radius, centerY - radius, centerX + radius, centerY + radius);
                     if (doFill(props, gradientMap)) {
-                        doLimits(centerX - radius, centerY - radius);
-                        doLimits(centerX + radius, centerY + radius);
-                        canvas.drawCircle(centerX, centerY, radius, paint);
+                        node.fill = new Paint(paint);
                     }
                     if (doStroke(props)) {
-                        canvas.drawCircle(centerX, centerY, radius, paint);
+                        node.stroke = new Paint(paint);
                     }
-                    popTransform();
+                    addNode(node, props);
                 }
             } else if (!hidden && localName.equals("ellipse")) {
                 Float centerX = getFloatAttr("cx", atts);
@@ -1107,59 +2757,98 @@ public class SVGParser {
                 Float radiusX = getFloatAttr("rx", atts);
                 Float radiusY = getFloatAttr("ry", atts);
                 if (centerX != null && centerY != null && radiusX != null && radiusY != null) {
-                    pushTransform(atts);
-                    Properties props = new Properties(atts);
-                    rect.set(centerX - radiusX, centerY - radiusY, centerX + radiusX, centerY + radiusY);
+                    Properties props = getProperties(localName, atts, getInheritedStyle());
+                    DisplayNode node = DisplayNode.oval(centerX - radiusX, centerY - radiusY, centerX + radiusX, centerY + radiusY);
                     if (doFill(props, gradientMap)) {
-                        doLimits(centerX - radiusX, centerY - radiusY);
-                        doLimits(centerX + radiusX, centerY + radiusY);
-                        canvas.drawOval(rect, paint);
+                        node.fill = new Paint(paint);
                     }
                     if (doStroke(props)) {
-                        canvas.drawOval(rect, paint);
+                        node.stroke = new Paint(paint);
                     }
-                    popTransform();
+                    addNode(node, props);
                 }
             } else if (!hidden && (localName.equals("polygon") || localName.equals("polyline"))) {
                 NumberParse numbers = getNumberParseAttr("points", atts);
                 if (numbers != null) {
-                    Path p = new Path();
+                    PackedPath packed = new PackedPath();
                     ArrayList<Float> points = numbers.numbers;
                     if (points.size() > 1) {
-                        pushTransform(atts);
-                        Properties props = new Properties(atts);
-                        p.moveTo(points.get(0), points.get(1));
-                        for (int i = 2; i < points.size(); i += 2) {
-                            float x = points.get(i);
-                            float y = points.get(i + 1);
-                            p.lineTo(x, y);
+                        Properties props = getProperties(localName, atts, getInheritedStyle());
+                        packed.moveTo(points.get(0), points.get(1));
+                        for (int i = 2; i + 1 < points.size(); i += 2) {
+                            packed.lineTo(points.get(i), points.get(i + 1));
                         }
                         // Don't close a polyline
                         if (localName.equals("polygon")) {
-                            p.close();
+                            packed.close();
+                        }
+                        packed.trim();
+                        DisplayNode node = DisplayNode.path(simplify(packed));
+                        if (hasMarkers(props)) {
+                            setMarkers(node, props, packed);
                         }
                         if (doFill(props, gradientMap)) {
-                            doLimits(p);
-                            canvas.drawPath(p, paint);
+                            node.fill = new Paint(paint);
                         }
                         if (doStroke(props)) {
-                            canvas.drawPath(p, paint);
+                            node.stroke = new Paint(paint);
                         }
-                        popTransform();
+                        addNode(node, props);
+                    }
+                }
+            } else if (!hidden && localName.equals("image")) {
+                float x = getFloatAttr("x", atts, 0f);
+                float y = getFloatAttr("y", atts, 0f);
+                float width = getFloatAttr("width", atts, 0f);
+                float height = getFloatAttr("height", atts, 0f);
+                EmbeddedImage image = EmbeddedImage.get(getStringAttr("href", atts));
+                Properties props = getProperties(localName, atts, getInheritedStyle());
+                if (image == null) {
+                    Log.d(TAG, "Only base64 data URIs are supported for images");
+                } else if (width > 0 && height > 0 && !"none".equals(props.getString("display"))) {
+                    DisplayNode node = DisplayNode.image(image, x, y, width, height,
+                            "none".equals(getStringAttr("preserveAspectRatio", atts)));
+                    Float opacity = props.getFloat("opacity");
+                    if (opacity != null) {
+                        node.fill.setAlpha(Math.round(255 * Math.max(0f, Math.min(1f, opacity))));
+                    }
+                    addNode(node, props);
+                    if (!images.contains(image)) {
+                        images.add(image);
                     }
                 }
+            } else if (!hidden && localName.equals("text")) {
+                textSpans = new ArrayList<Properties>();
+                textSpans.add(getProperties(localName, atts, getInheritedStyle()));
+                textRuns = new ArrayList<DisplayNode>();
+                textX = textY = textChunkX = 0;
+                textChunkStart = 0;
+                textSpace = true;
+                textTrailingSpace = 0;
+                moveTextCursor(atts);
+            } else if (textSpans != null && localName.equals("tspan")) {
+                Properties parent = textSpans.get(textSpans.size() - 1);
+                textSpans.add(getProperties(localName, atts, parent.inherited.derive(parent)));
+                moveTextCursor(atts);
             } else if (!hidden && localName.equals("path")) {
-                Path p = doPath(getStringAttr("d", atts));
-                pushTransform(atts);
-                Properties props = new Properties(atts);
+                Properties props = getProperties(localName, atts, getInheritedStyle());
+                PackedPath packed = PathCache.SHARED.get(getStringAttr("d", atts));
+                DisplayNode node = DisplayNode.path(simplify(packed));
                 if (doFill(props, gradientMap)) {
-                    doLimits(p);
-                    canvas.drawPath(p, paint);
+                    node.fill = new Paint(paint);
                 }
                 if (doStroke(props)) {
-                    canvas.drawPath(p, paint);
+                    node.stroke = new Paint(paint);
+                }
+                if (hasMarkers(props)) {
+                    setMarkers(node, props, packed);
+                }
+                addNode(node, props);
+            } else if (localName.equals("animate") || localName.equals("animateTransform") || localName.equals("set")) {
+                // Animations of anything not drawn directly (such as the content of patterns) are ignored
+                if (!hidden && pattern == null && marker == null && mask == null && clipGeometry == null) {
+                    addAnimation(localName, atts);
                 }
-                popTransform();
             } else if (!hidden) {
                 Log.d(TAG, "UNRECOGNIZED SVG COMMAND: " + localName);
             }
@@ -1167,14 +2856,94 @@ public class SVGParser {
 
         @Override
         public void characters(char ch[], int start, int length) {
-            // no-op
+            if (source != null && !openSource.isEmpty() && !isWhitespace(ch, start, length)) {
+                SourceElement element = openSource.get(openSource.size() - 1);
+                element.contentHash = fingerprint(element.contentHash, ch, start, length);
+            }
+            if (styleText != null) {
+                styleText.append(ch, start, length);
+            } else if (textSpans != null) {
+                layoutText(ch, start, length);
+            }
         }
 
         @Override
         public void endElement(String namespaceURI, String localName, String qName)
                 throws SAXException {
+            if (depth == lastNodeDepth) {
+                lastNode = null;
+            }
+            depth--;
+            if (source != null) {
+                SourceElement element = openSource.remove(openSource.size() - 1);
+                element.widthAfter = paint.getStrokeWidth();
+                element.capAfter = paint.getStrokeCap();
+                element.joinAfter = paint.getStrokeJoin();
+            }
             if (localName.equals("svg")) {
+                float minScale = occlusionMinScale;
+                // Culling goes by where shapes are parsed, which animations may change
+                if (minScale > 0 && animations.isEmpty()) {
+                    OcclusionCuller culler = new OcclusionCuller(minScale);
+                    culler.cull(groups.get(0).nodes);
+                    occludedCount = culler.removed;
+                    overdrawSaved = culler.overdrawSaved;
+                }
+                for (DisplayNode node : groups.get(0).nodes) {
+                    node.draw(canvas, null);
+                }
                 picture.endRecording();
+            } else if (localName.equals("filter")) {
+                if (filter.id != null) {
+                    filterMap.put(filter.id, filter);
+                }
+                filter = null;
+            } else if (localName.equals("pattern")) {
+                pattern.content = groups.remove(groups.size() - 1).nodes;
+                if (pattern.id != null) {
+                    patternMap.put(pattern.id, pattern);
+                }
+                pattern = null;
+            } else if (localName.equals("style")) {
+                if (styleText != null) {
+                    if (styleSheet == null) {
+                        styleSheet = new StyleSheet();
+                    }
+                    styleSheet.parse(styleText.toString());
+                    styleText = null;
+                }
+            } else if (textSpans != null && localName.equals("tspan")) {
+                textSpans.remove(textSpans.size() - 1);
+            } else if (textSpans != null && localName.equals("text")) {
+                finishTextChunk();
+                Properties props = textSpans.get(0);
+                for (DisplayNode node : textRuns) {
+                    addNode(node, props);
+                }
+                textSpans = null;
+                textRuns = null;
+            } else if (localName.equals("marker")) {
+                marker.setContent(groups.remove(groups.size() - 1).nodes);
+                if (marker.id != null) {
+                    markerMap.put(marker.id, marker);
+                }
+                marker = null;
+            } else if (localName.equals("mask")) {
+                mask.setContent(groups.remove(groups.size() - 1).nodes, maskRegion);
+                if (mask.id != null) {
+                    maskMap.put(mask.id, mask);
+                }
+                mask = null;
+            } else if (localName.equals("clipPath")) {
+                if (clipId != null) {
+                    if (clipTransform != null) {
+                        clipGeometry.transform(clipTransform);
+                    }
+                    clipMap.put(clipId, new Clip(clipGeometry));
+                }
+                clipId = null;
+                clipGeometry = null;
+                clipTransform = null;
             } else if (localName.equals("linearGradient")) {
                 if (gradient.id != null) {
                     if (gradient.xlink != null) {
@@ -1232,8 +3001,13 @@ public class SVGParser {
                 }
             } else if (localName.equals("g")) {
                 if (boundsMode) {
+                    if (boundsLevel > 0) {
+                        boundsLevel--;
+                        return;
+                    }
                     boundsMode = false;
                 }
+                popGroup();
                 // Break out of hidden mode
                 if (hidden) {
                     hiddenLevel--;
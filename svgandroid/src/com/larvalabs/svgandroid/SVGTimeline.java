@@ -0,0 +1,443 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Plays the &lt;animate&gt;, &lt;animateTransform&gt; and &lt;set&gt; elements of an SVG. The animations are compiled
+ * while parsing, so setting the time only samples arrays of key frames and writes the animated attributes (colours,
+ * opacities, visibility and transforms) straight in to the elements they animate, without allocating anything.
+ * <p/>
+ * Animations are played by drawing the SVG with {@link SVG#draw(Canvas)} after each call to {@link #setTime(float)};
+ * the recorded picture always shows the SVG as it was parsed. Only offset begin times (such as "2s") are supported,
+ * animations that begin on events are ignored, as are animations of any other attributes. Setting the time should be
+ * done on the thread that draws the SVG.
+ * <p/>
+ * Example:
+ * <pre>
+ * SVGTimeline timeline = svg.getTimeline();
+ * timeline.setTime((SystemClock.uptimeMillis() - start) / 1000f);
+ * svg.draw(canvas);
+ * </pre>
+ *
+ * @author Larva Labs, LLC
+ */
+public class SVGTimeline {
+
+    static final int ATTRIBUTE_FILL = 0;
+    static final int ATTRIBUTE_STROKE = 1;
+    static final int ATTRIBUTE_OPACITY = 2;
+    static final int ATTRIBUTE_FILL_OPACITY = 3;
+    static final int ATTRIBUTE_STROKE_OPACITY = 4;
+    static final int ATTRIBUTE_VISIBILITY = 5;
+    static final int ATTRIBUTE_TRANSFORM = 6;
+
+    /**
+     * An animation as parsed, with what it animates. The target is the element the animation was nested in (a shape,
+     * or the nodes a group was turned in to), or an element found by id once the whole document has been parsed.
+     */
+    static class Binding {
+        final Animation animation;
+        final int attribute;
+        DisplayNode node;
+        ArrayList<DisplayNode> nodes;
+        String href;
+
+        Binding(Animation animation, int attribute) {
+            this.animation = animation;
+            this.attribute = attribute;
+        }
+    }
+
+    /**
+     * The timeline of an SVG without animations.
+     */
+    static final SVGTimeline EMPTY = new SVGTimeline(new Track[0], new DisplayNode[0], 0);
+
+    private final Track[] tracks;
+    // The nodes with a transform animation, which are reset before each frame
+    private final DisplayNode[] transformed;
+    private final float duration;
+
+    private SVGTimeline(Track[] tracks, DisplayNode[] transformed, float duration) {
+        this.tracks = tracks;
+        this.transformed = transformed;
+        this.duration = duration;
+    }
+
+    /**
+     * Compiles the animations of a parsed SVG, grouping together the animations of the same attribute of the same
+     * element.
+     * @param bindings the animations in document order.
+     * @param svg the SVG, for finding animations' targets by id.
+     * @return the timeline.
+     */
+    static SVGTimeline compile(ArrayList<Binding> bindings, SVG svg) {
+        LinkedHashMap<List<Object>, ArrayList<Animation>> grouped = new LinkedHashMap<List<Object>, ArrayList<Animation>>();
+        LinkedHashMap<List<Object>, ArrayList<DisplayNode>> targets = new LinkedHashMap<List<Object>, ArrayList<DisplayNode>>();
+        float duration = 0;
+        for (Binding b : bindings) {
+            ArrayList<DisplayNode> target = b.nodes;
+            if (b.node != null) {
+                target = new ArrayList<DisplayNode>();
+                target.add(b.node);
+            } else if (b.href != null) {
+                target = svg.findElement(b.href);
+            }
+            if (target == null || target.isEmpty()) {
+                continue;
+            }
+            List<Object> key = Arrays.<Object>asList(b.attribute, target);
+            ArrayList<Animation> list = grouped.get(key);
+            if (list == null) {
+                list = new ArrayList<Animation>();
+                grouped.put(key, list);
+                targets.put(key, target);
+            }
+            list.add(b.animation);
+            duration = Math.max(duration, b.animation.getEnd());
+        }
+        ArrayList<Track> tracks = new ArrayList<Track>();
+        ArrayList<DisplayNode> transformed = new ArrayList<DisplayNode>();
+        for (List<Object> key : grouped.keySet()) {
+            ArrayList<Animation> list = grouped.get(key);
+            Track track = new Track((Integer) key.get(0), list.toArray(new Animation[list.size()]), targets.get(key),
+                    svg.getDisplayList());
+            if (track.kind == ATTRIBUTE_TRANSFORM) {
+                if (track.inverse == null) {
+                    continue;
+                }
+                for (DisplayNode node : track.nodes) {
+                    if (node.animation == null) {
+                        node.animation = new Matrix();
+                        transformed.add(node);
+                    }
+                }
+            }
+            tracks.add(track);
+        }
+        // A transform animation of a shape has to be applied before that of a group around it, and a shape animated on
+        // its own always makes up less than the group
+        Collections.sort(tracks, new Comparator<Track>() {
+            public int compare(Track a, Track b) {
+                return a.shapes.length - b.shapes.length;
+            }
+        });
+        markAnimated(svg.getDisplayList());
+        return new SVGTimeline(tracks.toArray(new Track[tracks.size()]),
+                transformed.toArray(new DisplayNode[transformed.size()]), duration);
+    }
+
+    /**
+     * Marks the nodes with a transform animation, and the groups containing them, as animated, so that they are
+     * never skipped for being outside the canvas.
+     */
+    private static boolean markAnimated(ArrayList<DisplayNode> nodes) {
+        boolean any = false;
+        for (DisplayNode node : nodes) {
+            if (node.animation != null || (node.kind == DisplayNode.KIND_GROUP && markAnimated(node.children))) {
+                node.animated = true;
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    /**
+     * @return true if the SVG has no animations that can be played.
+     */
+    public boolean isEmpty() {
+        return tracks.length == 0;
+    }
+
+    /**
+     * @return the time, in seconds, after which nothing changes any more. Infinite if an animation repeats forever.
+     */
+    public float getDuration() {
+        return duration;
+    }
+
+    /**
+     * Sets every animated attribute to its value at a time.
+     * @param seconds the time since the start of the document's timeline.
+     */
+    public void setTime(float seconds) {
+        for (int i = 0; i < transformed.length; i++) {
+            transformed[i].animation.reset();
+        }
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i].apply(seconds);
+        }
+    }
+
+    /**
+     * The animations of a single attribute of an element, with the element's own value of the attribute.
+     */
+    private static class Track {
+        final int kind;
+        final Animation[] animations;
+        // The nodes the element was parsed in to, and every shape within them
+        final DisplayNode[] nodes;
+        final DisplayNode[] shapes;
+        // Whether each shape is one of the nodes, rather than inside a group among them
+        final boolean[] direct;
+        final float[] value = new float[3];
+
+        // The filtered nodes whose cached output shows the element, and what was applied last frame, so that the cached
+        // output is only dropped when the animation changes it
+        final DisplayNode[] owners;
+        boolean lastActive = false;
+        final float[] last = new float[3];
+        final Matrix lastTotal = new Matrix();
+
+        // The values as parsed, which are put back whenever no animation is in effect
+        final boolean[] baseVisible;
+        final int[] baseAlpha;
+        final int[] baseFill;
+        final int[] baseStroke;
+        final Shader[] baseFillShader;
+        final Shader[] baseStrokeShader;
+        final Pattern[] basePattern;
+
+        // For transforms: the inverse of the element's own transform, and the matrices built up each frame
+        Matrix inverse = new Matrix();
+        final Matrix underlying = new Matrix();
+        final Matrix total = new Matrix();
+        final Matrix piece = new Matrix();
+        final Matrix scratch = new Matrix();
+
+        Track(int kind, Animation[] animations, ArrayList<DisplayNode> targets, ArrayList<DisplayNode> displayList) {
+            this.kind = kind;
+            this.animations = animations;
+            nodes = targets.toArray(new DisplayNode[targets.size()]);
+            IdentityHashMap<DisplayNode, Boolean> targetSet = new IdentityHashMap<DisplayNode, Boolean>();
+            for (DisplayNode node : targets) {
+                targetSet.put(node, Boolean.TRUE);
+            }
+            ArrayList<DisplayNode> filtered = new ArrayList<DisplayNode>();
+            // A filtered node's own animated transform is applied outside its filter, so its output still holds
+            DisplayNode.findFilteredOwners(displayList, targetSet, kind != ATTRIBUTE_TRANSFORM, filtered);
+            owners = filtered.toArray(new DisplayNode[filtered.size()]);
+            ArrayList<DisplayNode> list = new ArrayList<DisplayNode>();
+            collectShapes(targets, list);
+            shapes = list.toArray(new DisplayNode[list.size()]);
+            baseVisible = new boolean[nodes.length];
+            baseAlpha = new int[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                baseVisible[i] = nodes[i].visible;
+                baseAlpha[i] = nodes[i].alpha;
+            }
+            baseFill = new int[shapes.length];
+            baseStroke = new int[shapes.length];
+            baseFillShader = new Shader[shapes.length];
+            baseStrokeShader = new Shader[shapes.length];
+            basePattern = new Pattern[shapes.length];
+            direct = new boolean[shapes.length];
+            for (int i = 0; i < shapes.length; i++) {
+                DisplayNode shape = shapes[i];
+                direct[i] = targets.contains(shape);
+                if (shape.fill != null) {
+                    baseFill[i] = shape.fill.getColor();
+                    baseFillShader[i] = shape.fill.getShader();
+                }
+                if (shape.stroke != null) {
+                    baseStroke[i] = shape.stroke.getColor();
+                    baseStrokeShader[i] = shape.stroke.getShader();
+                }
+                basePattern[i] = shape.fillPattern;
+            }
+            // A transform that replaces a shape's own transform is drawn on top of it, so that has to be undone
+            if (kind == ATTRIBUTE_TRANSFORM && nodes.length == 1 && nodes[0].kind != DisplayNode.KIND_GROUP
+                    && nodes[0].matrix != null) {
+                underlying.set(nodes[0].matrix);
+                if (!underlying.invert(inverse)) {
+                    inverse = null;
+                }
+            }
+        }
+
+        private static void collectShapes(ArrayList<DisplayNode> nodes, ArrayList<DisplayNode> out) {
+            for (DisplayNode node : nodes) {
+                if (node.kind == DisplayNode.KIND_GROUP) {
+                    collectShapes(node.children, out);
+                } else {
+                    out.add(node);
+                }
+            }
+        }
+
+        void apply(float time) {
+            if (kind == ATTRIBUTE_TRANSFORM) {
+                applyTransform(time);
+                return;
+            }
+            // The last animation in effect wins
+            boolean active = false;
+            for (int i = animations.length - 1; i >= 0 && !active; i--) {
+                active = animations[i].sample(time, value);
+            }
+            if (active != lastActive || (active && (value[0] != last[0] || value[1] != last[1] || value[2] != last[2]))) {
+                uncache();
+                lastActive = active;
+                last[0] = value[0];
+                last[1] = value[1];
+                last[2] = value[2];
+            }
+            switch (kind) {
+                case ATTRIBUTE_FILL:
+                case ATTRIBUTE_STROKE:
+                    applyColor(active);
+                    break;
+                case ATTRIBUTE_OPACITY:
+                    // Groups still drawn as groups fade their layer, anything else fades its own paints
+                    for (int i = 0; i < nodes.length; i++) {
+                        DisplayNode node = nodes[i];
+                        if (node.kind == DisplayNode.KIND_GROUP) {
+                            node.alpha = active ? fade(baseAlpha[i], value[0]) : baseAlpha[i];
+                        }
+                    }
+                    for (int i = 0; i < shapes.length; i++) {
+                        DisplayNode shape = shapes[i];
+                        if (!direct[i]) {
+                            continue;
+                        }
+                        if (shape.fill != null) {
+                            shape.fill.setAlpha(active ? fade(baseFill[i] >>> 24, value[0]) : baseFill[i] >>> 24);
+                        }
+                        if (shape.stroke != null) {
+                            shape.stroke.setAlpha(active ? fade(baseStroke[i] >>> 24, value[0]) : baseStroke[i] >>> 24);
+                        }
+                    }
+                    break;
+                case ATTRIBUTE_FILL_OPACITY:
+                    for (int i = 0; i < shapes.length; i++) {
+                        if (shapes[i].fill != null) {
+                            shapes[i].fill.setAlpha(active ? fade(255, value[0]) : baseFill[i] >>> 24);
+                        }
+                    }
+                    break;
+                case ATTRIBUTE_STROKE_OPACITY:
+                    for (int i = 0; i < shapes.length; i++) {
+                        if (shapes[i].stroke != null) {
+                            shapes[i].stroke.setAlpha(active ? fade(255, value[0]) : baseStroke[i] >>> 24);
+                        }
+                    }
+                    break;
+                case ATTRIBUTE_VISIBILITY:
+                    for (int i = 0; i < nodes.length; i++) {
+                        nodes[i].visible = active ? value[0] != 0 : baseVisible[i];
+                    }
+                    break;
+            }
+        }
+
+        private void applyColor(boolean active) {
+            int rgb = (clamp(value[0]) << 16) | (clamp(value[1]) << 8) | clamp(value[2]);
+            for (int i = 0; i < shapes.length; i++) {
+                DisplayNode shape = shapes[i];
+                Paint paint = kind == ATTRIBUTE_FILL ? shape.fill : shape.stroke;
+                if (paint == null || shape.kind == DisplayNode.KIND_IMAGE) {
+                    continue;
+                }
+                // Keeps the alpha, which may be animated separately
+                int base = kind == ATTRIBUTE_FILL ? baseFill[i] : baseStroke[i];
+                paint.setShader(active ? null : kind == ATTRIBUTE_FILL ? baseFillShader[i] : baseStrokeShader[i]);
+                paint.setColor((paint.getAlpha() << 24) | (active ? rgb : base & 0xFFFFFF));
+                if (kind == ATTRIBUTE_FILL) {
+                    shape.fillPattern = active ? null : basePattern[i];
+                }
+            }
+        }
+
+        private void applyTransform(float time) {
+            boolean active = false;
+            total.set(underlying);
+            for (int i = 0; i < animations.length; i++) {
+                Animation a = animations[i];
+                if (!a.sample(time, value)) {
+                    continue;
+                }
+                active = true;
+                switch (a.transformType) {
+                    case Animation.TRANSFORM_TRANSLATE:
+                        piece.setTranslate(value[0], value[1]);
+                        break;
+                    case Animation.TRANSFORM_SCALE:
+                        piece.setScale(value[0], value[1]);
+                        break;
+                    case Animation.TRANSFORM_ROTATE:
+                        piece.setRotate(value[0], value[1], value[2]);
+                        break;
+                    case Animation.TRANSFORM_SKEW_X:
+                        piece.setSkew((float) Math.tan(Math.toRadians(value[0])), 0);
+                        break;
+                    case Animation.TRANSFORM_SKEW_Y:
+                        piece.setSkew(0, (float) Math.tan(Math.toRadians(value[0])));
+                        break;
+                }
+                if (a.additive) {
+                    total.preConcat(piece);
+                } else {
+                    total.set(piece);
+                }
+            }
+            if (active != lastActive || (active && !total.equals(lastTotal))) {
+                uncache();
+                lastActive = active;
+                lastTotal.set(total);
+            }
+            if (!active) {
+                return;
+            }
+            // The nodes are drawn with the animation and then their own transform, which the total already includes
+            scratch.setConcat(total, inverse);
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i].animation.postConcat(scratch);
+            }
+        }
+
+        /**
+         * Drops the cached output of the filtered nodes showing the element, which no longer matches it.
+         */
+        private void uncache() {
+            for (int i = 0; i < owners.length; i++) {
+                BitmapCache.SHARED.removeAll(owners[i]);
+            }
+        }
+
+        private static int clamp(float channel) {
+            return Math.max(0, Math.min(255, Math.round(channel)));
+        }
+
+        private static int fade(int alpha, float opacity) {
+            return Math.round(alpha * Math.max(0, Math.min(1, opacity)));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.RectF;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * A static R-tree over a list of bounding rectangles, bulk loaded with the Sort-Tile-Recursive method: the items are
+ * sorted in to vertical slices by x, each slice is sorted by y, and runs of {@link #NODE_SIZE} items make up the
+ * leaves. Each level above is packed the same way from the one below, so a node's children are always a contiguous
+ * run of the level below and the whole tree is held in a few flat arrays.
+ * <p/>
+ * Queries report items by their index in the original list.
+ *
+ * @author Larva Labs, LLC
+ */
+class SpatialIndex {
+
+    private static final int NODE_SIZE = 16;
+
+    // The bounds of the nodes at each level, four floats each, level 0 being the items themselves
+    private final float[][] levels;
+    private final int[] levelCounts;
+    // The original index of each item, in tree order
+    private final int[] items;
+
+    /**
+     * Builds the index.
+     * @param bounds the bounds of each item. Empty rectangles are never found.
+     */
+    SpatialIndex(final RectF[] bounds) {
+        int n = bounds.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        // Sort in to slices by x, then each slice by y
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Float.compare(bounds[a].centerX(), bounds[b].centerX());
+            }
+        });
+        int leafCount = (n + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = NODE_SIZE * (int) Math.ceil(Math.sqrt(leafCount));
+        for (int start = 0; start < n; start += sliceSize) {
+            Arrays.sort(order, start, Math.min(n, start + sliceSize), new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Float.compare(bounds[a].centerY(), bounds[b].centerY());
+                }
+            });
+        }
+        items = new int[n];
+        float[] level = new float[n * 4];
+        for (int i = 0; i < n; i++) {
+            RectF r = bounds[order[i]];
+            items[i] = order[i];
+            level[4 * i] = r.left;
+            level[4 * i + 1] = r.top;
+            level[4 * i + 2] = r.right;
+            level[4 * i + 3] = r.bottom;
+        }
+        int depth = 1;
+        for (int count = n; count > NODE_SIZE; count = (count + NODE_SIZE - 1) / NODE_SIZE) {
+            depth++;
+        }
+        levels = new float[depth][];
+        levelCounts = new int[depth];
+        levels[0] = level;
+        levelCounts[0] = n;
+        // Each level above holds the union of each run of children in the level below
+        for (int d = 1; d < depth; d++) {
+            float[] below = levels[d - 1];
+            int belowCount = levelCounts[d - 1];
+            int count = (belowCount + NODE_SIZE - 1) / NODE_SIZE;
+            float[] above = new float[count * 4];
+            for (int i = 0; i < count; i++) {
+                float left = Float.POSITIVE_INFINITY, top = Float.POSITIVE_INFINITY;
+                float right = Float.NEGATIVE_INFINITY, bottom = Float.NEGATIVE_INFINITY;
+                for (int c = i * NODE_SIZE; c < Math.min(belowCount, (i + 1) * NODE_SIZE); c++) {
+                    left = Math.min(left, below[4 * c]);
+                    top = Math.min(top, below[4 * c + 1]);
+                    right = Math.max(right, below[4 * c + 2]);
+                    bottom = Math.max(bottom, below[4 * c + 3]);
+                }
+                above[4 * i] = left;
+                above[4 * i + 1] = top;
+                above[4 * i + 2] = right;
+                above[4 * i + 3] = bottom;
+            }
+            levels[d] = above;
+            levelCounts[d] = count;
+        }
+    }
+
+    /**
+     * Finds the items whose bounds intersect a rectangle (or touch it, for a rectangle of zero size).
+     * @param left the rectangle.
+     * @param top the rectangle.
+     * @param right the rectangle.
+     * @param bottom the rectangle.
+     * @param out the original indices of the items found are added here, in no particular order.
+     * @return the number of items found.
+     */
+    int query(float left, float top, float right, float bottom, IntList out) {
+        int before = out.size;
+        int d = levels.length - 1;
+        query(d, 0, levelCounts[d], left, top, right, bottom, out);
+        return out.size - before;
+    }
+
+    private void query(int d, int from, int to, float left, float top, float right, float bottom, IntList out) {
+        float[] level = levels[d];
+        for (int i = from; i < to; i++) {
+            if (level[4 * i] <= right && left <= level[4 * i + 2] && level[4 * i + 1] <= bottom && top <= level[4 * i + 3]
+                    && level[4 * i] < level[4 * i + 2] && level[4 * i + 1] < level[4 * i + 3]) {
+                if (d == 0) {
+                    out.add(items[i]);
+                } else {
+                    query(d - 1, i * NODE_SIZE, Math.min(levelCounts[d - 1], (i + 1) * NODE_SIZE), left, top, right, bottom, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * A growable list of ints, so queries don't box their results.
+     */
+    static class IntList {
+        int[] values = new int[16];
+        int size = 0;
+
+        void add(int v) {
+            if (size == values.length) {
+                int[] bigger = new int[size * 2];
+                System.arraycopy(values, 0, bigger, 0, size);
+                values = bigger;
+            }
+            values[size++] = v;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+    }
+}
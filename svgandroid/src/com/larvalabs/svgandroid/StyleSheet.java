@@ -0,0 +1,277 @@
+package com.larvalabs.svgandroid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * The rules of the CSS &lt;style&gt; elements in a document, indexed by id, class and tag name. Only simple selectors
+ * are supported: a tag name, <code>*</code>, or a tag name followed by any number of <code>.class</code> and
+ * <code>#id</code> parts, in comma separated lists. Rules with combinators or pseudo-classes are ignored, as are
+ * at-rules.
+ * <p/>
+ * The declarations matching an element are merged once for each distinct combination of tag, id and class, so every
+ * further element with the same combination (such as all those exported with <code>class="st0"</code>) is resolved
+ * with a single lookup.
+ *
+ * @author Larva Labs, LLC
+ */
+class StyleSheet {
+
+    private static class Rule {
+        // The parts of the selector, null if not given
+        final String tag;
+        final String id;
+        final String[] classes;
+        final int specificity;
+        final int order;
+        final HashMap<String, String> declarations;
+
+        Rule(String tag, String id, String[] classes, int order, HashMap<String, String> declarations) {
+            this.tag = tag;
+            this.id = id;
+            this.classes = classes;
+            this.order = order;
+            this.declarations = declarations;
+            this.specificity = (id != null ? 100 : 0) + 10 * classes.length + (tag != null ? 1 : 0);
+        }
+
+        boolean matches(String elementTag, String elementId, String[] elementClasses) {
+            if (tag != null && !tag.equals(elementTag)) {
+                return false;
+            }
+            if (id != null && !id.equals(elementId)) {
+                return false;
+            }
+            for (String c : classes) {
+                boolean found = false;
+                for (String e : elementClasses) {
+                    if (c.equals(e)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final Comparator<Rule> CASCADE_ORDER = new Comparator<Rule>() {
+        public int compare(Rule a, Rule b) {
+            if (a.specificity != b.specificity) {
+                return a.specificity < b.specificity ? -1 : 1;
+            }
+            return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+        }
+    };
+
+    private static final String[] NO_CLASSES = new String[0];
+
+    private static final HashMap<String, String> EMPTY = new HashMap<String, String>();
+
+    // Each rule is indexed once, under its id if it has one, otherwise its first class, otherwise its tag
+    private final HashMap<String, ArrayList<Rule>> byId = new HashMap<String, ArrayList<Rule>>();
+    private final HashMap<String, ArrayList<Rule>> byClass = new HashMap<String, ArrayList<Rule>>();
+    private final HashMap<String, ArrayList<Rule>> byTag = new HashMap<String, ArrayList<Rule>>();
+    private final ArrayList<Rule> universal = new ArrayList<Rule>();
+    private int ruleCount = 0;
+
+    // The merged declarations for each combination of tag, id and class seen so far
+    private final HashMap<String, HashMap<String, String>> resolved = new HashMap<String, HashMap<String, String>>();
+
+    /**
+     * Adds the rules in the text of a &lt;style&gt; element.
+     * @param css the style sheet text.
+     */
+    void parse(String css) {
+        resolved.clear();
+        int n = css.length();
+        int pos = 0;
+        StringBuilder selector = new StringBuilder();
+        while (pos < n) {
+            char c = css.charAt(pos);
+            if (c == '/' && pos + 1 < n && css.charAt(pos + 1) == '*') {
+                int end = css.indexOf("*/", pos + 2);
+                pos = end < 0 ? n : end + 2;
+            } else if (c == '{') {
+                int end = findBlockEnd(css, pos + 1);
+                String selectors = selector.toString().trim();
+                if (!selectors.startsWith("@")) {
+                    addRules(selectors, parseDeclarations(css.substring(pos + 1, end)));
+                }
+                selector.setLength(0);
+                pos = end + 1;
+            } else {
+                selector.append(c);
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * Finds the brace closing a block, allowing for nested blocks (as in at-rules).
+     */
+    private static int findBlockEnd(String css, int pos) {
+        int depth = 1;
+        int n = css.length();
+        for (; pos < n; pos++) {
+            char c = css.charAt(pos);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return pos;
+            }
+        }
+        return n;
+    }
+
+    private static HashMap<String, String> parseDeclarations(String block) {
+        HashMap<String, String> declarations = new HashMap<String, String>();
+        for (String declaration : block.split(";")) {
+            int colon = declaration.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = declaration.substring(0, colon).trim();
+            String value = declaration.substring(colon + 1).trim();
+            if (value.endsWith("!important")) {
+                value = value.substring(0, value.length() - "!important".length()).trim();
+            }
+            if (name.length() > 0 && value.length() > 0) {
+                declarations.put(name, value);
+            }
+        }
+        return declarations;
+    }
+
+    private void addRules(String selectors, HashMap<String, String> declarations) {
+        if (declarations.isEmpty()) {
+            return;
+        }
+        for (String selector : selectors.split(",")) {
+            selector = selector.trim();
+            if (selector.length() == 0 || !isSimple(selector)) {
+                continue;
+            }
+            String tag = null;
+            String id = null;
+            ArrayList<String> classes = new ArrayList<String>();
+            int start = 0;
+            int n = selector.length();
+            while (start < n) {
+                int end = start + 1;
+                while (end < n && selector.charAt(end) != '.' && selector.charAt(end) != '#') {
+                    end++;
+                }
+                char first = selector.charAt(start);
+                if (first == '.') {
+                    classes.add(selector.substring(start + 1, end));
+                } else if (first == '#') {
+                    id = selector.substring(start + 1, end);
+                } else if (!selector.substring(start, end).equals("*")) {
+                    tag = selector.substring(start, end);
+                }
+                start = end;
+            }
+            Rule rule = new Rule(tag, id, classes.toArray(new String[classes.size()]), ruleCount++, declarations);
+            if (id != null) {
+                add(byId, id, rule);
+            } else if (!classes.isEmpty()) {
+                add(byClass, classes.get(0), rule);
+            } else if (tag != null) {
+                add(byTag, tag, rule);
+            } else {
+                universal.add(rule);
+            }
+        }
+    }
+
+    private static boolean isSimple(String selector) {
+        for (int i = 0; i < selector.length(); i++) {
+            char c = selector.charAt(i);
+            if (c == ' ' || c == '>' || c == '+' || c == '~' || c == ':' || c == '[' || c == '\t' || c == '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void add(HashMap<String, ArrayList<Rule>> index, String key, Rule rule) {
+        ArrayList<Rule> rules = index.get(key);
+        if (rules == null) {
+            rules = new ArrayList<Rule>();
+            index.put(key, rules);
+        }
+        rules.add(rule);
+    }
+
+    /**
+     * Gets the declarations that apply to an element, in cascade order.
+     * @param tag the element's tag name.
+     * @param id the element's id, or null.
+     * @param classAttr the element's class attribute, or null.
+     * @return the merged declarations, which must not be modified.
+     */
+    HashMap<String, String> match(String tag, String id, String classAttr) {
+        String key = tag + '#' + (id == null ? "" : id) + '.' + (classAttr == null ? "" : classAttr);
+        HashMap<String, String> result = resolved.get(key);
+        if (result != null) {
+            return result;
+        }
+        String[] classes = classAttr == null ? NO_CLASSES : classAttr.trim().split("\\s+");
+        ArrayList<Rule> matched = new ArrayList<Rule>();
+        collect(universal, tag, id, classes, matched);
+        collect(byTag.get(tag), tag, id, classes, matched);
+        if (id != null) {
+            collect(byId.get(id), tag, id, classes, matched);
+        }
+        for (String c : classes) {
+            collect(byClass.get(c), tag, id, classes, matched);
+        }
+        if (matched.isEmpty()) {
+            result = EMPTY;
+        } else {
+            Collections.sort(matched, CASCADE_ORDER);
+            result = new HashMap<String, String>();
+            for (Rule rule : matched) {
+                result.putAll(rule.declarations);
+            }
+        }
+        resolved.put(key, result);
+        return result;
+    }
+
+    private static void collect(ArrayList<Rule> rules, String tag, String id, String[] classes, ArrayList<Rule> out) {
+        if (rules == null) {
+            return;
+        }
+        for (Rule rule : rules) {
+            // An element may list the same class more than once, so check for duplicates
+            if (rule.matches(tag, id, classes) && !out.contains(rule)) {
+                out.add(rule);
+            }
+        }
+    }
+}
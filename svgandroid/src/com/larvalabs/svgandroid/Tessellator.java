@@ -0,0 +1,239 @@
+package com.larvalabs.svgandroid;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * Splits the area filled by a flattened path in to trapezoids, which are then split in to triangles. The plane is cut
+ * in to horizontal bands at every vertex and every point where two edges cross, so within a band the edges never
+ * cross and are simply walked from left to right, counting windings to find the spans that are inside. Works for any
+ * path, including self-intersecting ones and ones with holes, under either fill rule.
+ * <p/>
+ * Uses no Android classes, so it runs (and can be tested) on a plain JVM.
+ *
+ * @author Larva Labs, LLC
+ */
+final class Tessellator {
+
+    // The edges, with (x0, y0) the upper end and dir +1 for edges that went downwards in the path, -1 for upwards
+    private float[] x0, y0, x1, y1;
+    private int[] dir;
+    private int edgeCount;
+
+    private Tessellator(int capacity) {
+        x0 = new float[capacity];
+        y0 = new float[capacity];
+        x1 = new float[capacity];
+        y1 = new float[capacity];
+        dir = new int[capacity];
+    }
+
+    /**
+     * Fills a path, adding its trapezoids to the current batch of a mesh.
+     * @param path the flattened path.
+     * @param transform an affine transform applied to the path's points, in the order used by {@link Affine}, or
+     * null for none.
+     * @param evenOdd true for the even-odd fill rule, false for non-zero.
+     * @param out the mesh to add to.
+     */
+    static void fill(FlattenedPath path, float[] transform, boolean evenOdd, TriangleMesh.Builder out) {
+        Tessellator t = new Tessellator(path.getPointCount());
+        for (int contour = 0; contour < path.getContourCount(); contour++) {
+            int start = path.getContourStart(contour);
+            int end = path.getContourEnd(contour);
+            // Every contour is filled as if closed
+            float lastX = Affine.mapX(transform, path.getX(end - 1), path.getY(end - 1));
+            float lastY = Affine.mapY(transform, path.getX(end - 1), path.getY(end - 1));
+            for (int i = start; i < end; i++) {
+                float x = Affine.mapX(transform, path.getX(i), path.getY(i));
+                float y = Affine.mapY(transform, path.getX(i), path.getY(i));
+                t.addEdge(lastX, lastY, x, y);
+                lastX = x;
+                lastY = y;
+            }
+        }
+        t.sweep(evenOdd, out);
+    }
+
+    private void addEdge(float ax, float ay, float bx, float by) {
+        // Horizontal edges don't change the winding along any band, so they are left out
+        if (ay == by || Float.isNaN(ay) || Float.isNaN(by)) {
+            return;
+        }
+        if (edgeCount == x0.length) {
+            int n = Math.max(8, edgeCount * 2);
+            x0 = grow(x0, n);
+            y0 = grow(y0, n);
+            x1 = grow(x1, n);
+            y1 = grow(y1, n);
+            int[] d = new int[n];
+            System.arraycopy(dir, 0, d, 0, edgeCount);
+            dir = d;
+        }
+        if (ay < by) {
+            x0[edgeCount] = ax;
+            y0[edgeCount] = ay;
+            x1[edgeCount] = bx;
+            y1[edgeCount] = by;
+            dir[edgeCount] = 1;
+        } else {
+            x0[edgeCount] = bx;
+            y0[edgeCount] = by;
+            x1[edgeCount] = ax;
+            y1[edgeCount] = ay;
+            dir[edgeCount] = -1;
+        }
+        edgeCount++;
+    }
+
+    private float[] grow(float[] a, int n) {
+        float[] bigger = new float[n];
+        System.arraycopy(a, 0, bigger, 0, edgeCount);
+        return bigger;
+    }
+
+    private float xAt(int e, float y) {
+        return x0[e] + (y - y0[e]) * (x1[e] - x0[e]) / (y1[e] - y0[e]);
+    }
+
+    private void sweep(boolean evenOdd, TriangleMesh.Builder out) {
+        if (edgeCount < 2) {
+            return;
+        }
+        // The distinct y values of every vertex, which bound the bands
+        float[] ys = new float[edgeCount * 2];
+        for (int e = 0; e < edgeCount; e++) {
+            ys[2 * e] = y0[e];
+            ys[2 * e + 1] = y1[e];
+        }
+        Arrays.sort(ys);
+        int yCount = 0;
+        for (int i = 0; i < ys.length; i++) {
+            if (i == 0 || ys[i] != ys[yCount - 1]) {
+                ys[yCount++] = ys[i];
+            }
+        }
+        // Edges in order of their upper ends, to be added to the active list as the sweep reaches them
+        Integer[] order = new Integer[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            order[e] = e;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Float.compare(y0[a], y0[b]);
+            }
+        });
+        int[] active = new int[edgeCount];
+        int activeCount = 0;
+        int next = 0;
+        float[] splits = new float[8];
+        float[] xa = new float[edgeCount];
+        float[] xb = new float[edgeCount];
+        for (int k = 0; k + 1 < yCount; k++) {
+            float top = ys[k];
+            float bottom = ys[k + 1];
+            int kept = 0;
+            for (int i = 0; i < activeCount; i++) {
+                if (y1[active[i]] > top) {
+                    active[kept++] = active[i];
+                }
+            }
+            activeCount = kept;
+            while (next < edgeCount && y0[order[next]] <= top) {
+                active[activeCount++] = order[next++];
+            }
+            if (activeCount < 2) {
+                continue;
+            }
+            // Cut the band again wherever two edges cross inside it
+            int splitCount = 0;
+            for (int i = 0; i < activeCount; i++) {
+                xa[i] = xAt(active[i], top);
+                xb[i] = xAt(active[i], bottom);
+            }
+            for (int i = 0; i < activeCount; i++) {
+                for (int j = i + 1; j < activeCount; j++) {
+                    float da = xa[i] - xa[j];
+                    float db = xb[i] - xb[j];
+                    if ((da < 0 && db > 0) || (da > 0 && db < 0)) {
+                        float y = top + (bottom - top) * da / (da - db);
+                        if (y > top && y < bottom) {
+                            if (splitCount == splits.length) {
+                                float[] bigger = new float[splitCount * 2];
+                                System.arraycopy(splits, 0, bigger, 0, splitCount);
+                                splits = bigger;
+                            }
+                            splits[splitCount++] = y;
+                        }
+                    }
+                }
+            }
+            Arrays.sort(splits, 0, splitCount);
+            float y = top;
+            for (int s = 0; s <= splitCount; s++) {
+                float yEnd = s < splitCount ? splits[s] : bottom;
+                if (yEnd > y) {
+                    fillBand(active, activeCount, y, yEnd, xa, xb, evenOdd, out);
+                    y = yEnd;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the inside spans of a band in which no edges cross.
+     */
+    private void fillBand(int[] active, int activeCount, float top, float bottom, float[] xa, float[] xb,
+                          boolean evenOdd, TriangleMesh.Builder out) {
+        for (int i = 0; i < activeCount; i++) {
+            xa[i] = xAt(active[i], top);
+            xb[i] = xAt(active[i], bottom);
+        }
+        // Sort by the middle of each edge within the band (insertion sort, as the order rarely changes between bands)
+        for (int i = 1; i < activeCount; i++) {
+            int e = active[i];
+            float a = xa[i];
+            float b = xb[i];
+            int j = i - 1;
+            while (j >= 0 && xa[j] + xb[j] > a + b) {
+                active[j + 1] = active[j];
+                xa[j + 1] = xa[j];
+                xb[j + 1] = xb[j];
+                j--;
+            }
+            active[j + 1] = e;
+            xa[j + 1] = a;
+            xb[j + 1] = b;
+        }
+        int winding = 0;
+        int left = 0;
+        for (int i = 0; i < activeCount; i++) {
+            boolean wasInside = evenOdd ? (winding & 1) != 0 : winding != 0;
+            winding += dir[active[i]];
+            boolean inside = evenOdd ? (winding & 1) != 0 : winding != 0;
+            if (!wasInside && inside) {
+                left = i;
+            } else if (wasInside && !inside) {
+                out.addTrapezoid(top, xa[left], xa[i], bottom, xb[left], xb[i]);
+            }
+        }
+    }
+}
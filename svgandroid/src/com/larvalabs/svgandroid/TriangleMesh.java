@@ -0,0 +1,376 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Paint;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * The filled shapes of an SVG as an indexed triangle mesh, for drawing with OpenGL or another GPU API rather than
+ * through a <code>Picture</code>. The vertices and indices are held in direct buffers in native byte order, ready to
+ * upload as they are.
+ * <p/>
+ * Each vertex is {@link #VERTEX_STRIDE} bytes: the position (two floats, in document co-ordinates), a texture
+ * co-ordinate (two floats) and a colour (four unsigned bytes, in R, G, B, A order, not premultiplied). The shapes are
+ * split in to batches, one for each filled element in drawing order. In a solid batch the colour is the fill colour
+ * and the texture co-ordinate is the element's own user space position. In a gradient batch the colour is white
+ * (with the fill opacity) and the texture co-ordinate is the position in the gradient's co-ordinates, from which a
+ * shader can work out the gradient colour using {@link #getGradientPoints(int)} and the gradient stops.
+ * <p/>
+ * Only fills are included: strokes, images, text, pattern fills, clips, masks and filters are left out, and group
+ * opacity is folded in to the vertex colours.
+ *
+ * @author Larva Labs, LLC
+ */
+public final class TriangleMesh {
+
+    /**
+     * The size of each vertex in bytes.
+     */
+    public static final int VERTEX_STRIDE = 20;
+
+    /**
+     * The byte offsets of the parts of each vertex.
+     */
+    public static final int POSITION_OFFSET = 0;
+    public static final int TEXTURE_OFFSET = 8;
+    public static final int COLOR_OFFSET = 16;
+
+    /**
+     * The kinds of fill of a batch.
+     */
+    public static final int GRADIENT_NONE = 0;
+    public static final int GRADIENT_LINEAR = 1;
+    public static final int GRADIENT_RADIAL = 2;
+
+    private final ByteBuffer vertices;
+    private final ByteBuffer indices;
+    private final int vertexCount;
+    private final int indexCount;
+    private final boolean shortIndices;
+
+    private final int batchCount;
+    private final int[] batchFirstIndex;
+    private final int[] batchIndexCount;
+    private final String[] batchIds;
+    private final SVGParser.Gradient[] batchGradients;
+
+    private TriangleMesh(Builder b) {
+        vertexCount = b.vertexCount;
+        indexCount = b.indexCount;
+        vertices = ByteBuffer.allocateDirect(vertexCount * VERTEX_STRIDE).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < vertexCount; i++) {
+            vertices.putFloat(b.vertices[4 * i]);
+            vertices.putFloat(b.vertices[4 * i + 1]);
+            vertices.putFloat(b.vertices[4 * i + 2]);
+            vertices.putFloat(b.vertices[4 * i + 3]);
+            int color = b.colors[i];
+            vertices.put((byte) (color >> 16));
+            vertices.put((byte) (color >> 8));
+            vertices.put((byte) color);
+            vertices.put((byte) (color >>> 24));
+        }
+        vertices.flip();
+        shortIndices = vertexCount <= 0x10000;
+        indices = ByteBuffer.allocateDirect(indexCount * (shortIndices ? 2 : 4)).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < indexCount; i++) {
+            if (shortIndices) {
+                indices.putShort((short) b.indices[i]);
+            } else {
+                indices.putInt(b.indices[i]);
+            }
+        }
+        indices.flip();
+        batchCount = b.batchCount;
+        batchFirstIndex = b.batchFirstIndex;
+        batchIndexCount = b.batchIndexCount;
+        batchIds = b.batchIds;
+        batchGradients = b.batchGradients;
+    }
+
+    /**
+     * Tessellates a single path filled with a solid colour.
+     * @param path the path, for example from {@link SVGParser#parsePackedPath(String)}.
+     * @param evenOdd true for the even-odd fill rule, false for non-zero.
+     * @param color the colour, as ARGB.
+     * @return the mesh, in a single batch.
+     */
+    public static TriangleMesh fromPath(PackedPath path, boolean evenOdd, int color) {
+        Builder b = new Builder();
+        b.beginBatch(null, color, null, null);
+        Tessellator.fill(path.flatten(1), null, evenOdd, b);
+        b.endBatch();
+        return new TriangleMesh(b);
+    }
+
+    /**
+     * Tessellates the filled shapes of a display list.
+     */
+    static TriangleMesh fromDisplayList(ArrayList<DisplayNode> nodes) {
+        Builder b = new Builder();
+        addNodes(nodes, 255, b);
+        return new TriangleMesh(b);
+    }
+
+    private static void addNodes(ArrayList<DisplayNode> nodes, int alpha, Builder b) {
+        for (DisplayNode node : nodes) {
+            if (!node.visible) {
+                continue;
+            }
+            if (node.kind == DisplayNode.KIND_GROUP) {
+                addNodes(node.children, alpha * node.alpha / 255, b);
+                continue;
+            }
+            Paint fill = node.fill;
+            if (fill == null || node.fillPattern != null || node.kind == DisplayNode.KIND_LINE) {
+                continue;
+            }
+            PackedPath geometry = node.toPackedPath();
+            if (geometry == null) {
+                continue;
+            }
+            float[] transform = Affine.fromMatrix(node.matrix);
+            int a = fill.getAlpha() * alpha / 255;
+            SVGParser.Gradient gradient = node.fillGradient;
+            int color = gradient != null ? 0xFFFFFF : fill.getColor() & 0xFFFFFF;
+            // Texture co-ordinates are in the element's user space, or the gradient's space within that
+            float[] toTexture = Affine.invert(Affine.concat(transform,
+                    gradient == null ? null : Affine.fromMatrix(gradient.matrix)));
+            b.beginBatch(node.id, (a << 24) | color, toTexture, gradient);
+            Tessellator.fill(geometry.flatten(Affine.scale(transform)), transform, node.evenOdd, b);
+            b.endBatch();
+        }
+    }
+
+    /**
+     * @return the vertices, {@link #VERTEX_STRIDE} bytes each.
+     */
+    public ByteBuffer getVertices() {
+        return vertices.duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return the indices of the corners of each triangle, three per triangle, as unsigned shorts if
+     * {@link #hasShortIndices()}, otherwise as ints.
+     */
+    public ByteBuffer getIndices() {
+        return indices.duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return true if the indices are unsigned shorts, false if they are ints (only when there are more than 65536
+     * vertices).
+     */
+    public boolean hasShortIndices() {
+        return shortIndices;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * @return the number of batches, one for each filled element.
+     */
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @param batch the index of the batch.
+     * @return the position of the batch's first index in the index buffer.
+     */
+    public int getBatchFirstIndex(int batch) {
+        return batchFirstIndex[batch];
+    }
+
+    /**
+     * @param batch the index of the batch.
+     * @return the number of indices in the batch, three per triangle.
+     */
+    public int getBatchIndexCount(int batch) {
+        return batchIndexCount[batch];
+    }
+
+    /**
+     * @param batch the index of the batch.
+     * @return the id of the element the batch was made from, may be null.
+     */
+    public String getBatchId(int batch) {
+        return batchIds[batch];
+    }
+
+    /**
+     * @param batch the index of the batch.
+     * @return one of {@link #GRADIENT_NONE}, {@link #GRADIENT_LINEAR} or {@link #GRADIENT_RADIAL}.
+     */
+    public int getGradientType(int batch) {
+        SVGParser.Gradient g = batchGradients[batch];
+        return g == null ? GRADIENT_NONE : (g.isLinear ? GRADIENT_LINEAR : GRADIENT_RADIAL);
+    }
+
+    /**
+     * @param batch the index of a gradient batch.
+     * @return the start and end points of a linear gradient (x1, y1, x2, y2), or the center and radius of a radial
+     * gradient (cx, cy, r), in the gradient's co-ordinates.
+     */
+    public float[] getGradientPoints(int batch) {
+        SVGParser.Gradient g = batchGradients[batch];
+        return g.isLinear ? new float[]{g.x1, g.y1, g.x2, g.y2} : new float[]{g.x, g.y, g.radius};
+    }
+
+    /**
+     * @param batch the index of a gradient batch.
+     * @return the colours of the gradient stops, as ARGB.
+     */
+    public int[] getGradientColors(int batch) {
+        ArrayList<Integer> colors = batchGradients[batch].colors;
+        int[] result = new int[colors.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = colors.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @param batch the index of a gradient batch.
+     * @return the positions of the gradient stops, from 0 to 1.
+     */
+    public float[] getGradientPositions(int batch) {
+        ArrayList<Float> positions = batchGradients[batch].positions;
+        float[] result = new float[positions.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = positions.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Collects the triangles of a mesh as they are tessellated. Vertices are shared between the trapezoids of a batch.
+     */
+    static final class Builder {
+
+        // x, y, u, v for each vertex
+        float[] vertices = new float[256];
+        int[] colors = new int[64];
+        int vertexCount = 0;
+        int[] indices = new int[192];
+        int indexCount = 0;
+
+        int batchCount = 0;
+        int[] batchFirstIndex = new int[8];
+        int[] batchIndexCount = new int[8];
+        String[] batchIds = new String[8];
+        SVGParser.Gradient[] batchGradients = new SVGParser.Gradient[8];
+
+        // The current batch
+        private int color;
+        private float[] toTexture;
+        private final HashMap<Long, Integer> shared = new HashMap<Long, Integer>();
+
+        void beginBatch(String id, int color, float[] toTexture, SVGParser.Gradient gradient) {
+            if (batchCount == batchIds.length) {
+                int n = batchCount * 2;
+                int[] first = new int[n];
+                System.arraycopy(batchFirstIndex, 0, first, 0, batchCount);
+                batchFirstIndex = first;
+                int[] count = new int[n];
+                System.arraycopy(batchIndexCount, 0, count, 0, batchCount);
+                batchIndexCount = count;
+                String[] ids = new String[n];
+                System.arraycopy(batchIds, 0, ids, 0, batchCount);
+                batchIds = ids;
+                SVGParser.Gradient[] gradients = new SVGParser.Gradient[n];
+                System.arraycopy(batchGradients, 0, gradients, 0, batchCount);
+                batchGradients = gradients;
+            }
+            batchFirstIndex[batchCount] = indexCount;
+            batchIds[batchCount] = id;
+            batchGradients[batchCount] = gradient;
+            this.color = color;
+            this.toTexture = toTexture;
+            shared.clear();
+        }
+
+        void endBatch() {
+            batchIndexCount[batchCount] = indexCount - batchFirstIndex[batchCount];
+            // Leave out batches with no triangles
+            if (batchIndexCount[batchCount] > 0) {
+                batchCount++;
+            }
+        }
+
+        /**
+         * Adds a trapezoid with horizontal top and bottom edges, as up to two triangles.
+         */
+        void addTrapezoid(float top, float topLeft, float topRight, float bottom, float bottomLeft, float bottomRight) {
+            int tl = vertex(topLeft, top);
+            int br = vertex(bottomRight, bottom);
+            if (topRight > topLeft) {
+                triangle(tl, vertex(topRight, top), br);
+            }
+            if (bottomRight > bottomLeft) {
+                triangle(tl, br, vertex(bottomLeft, bottom));
+            }
+        }
+
+        private int vertex(float x, float y) {
+            Long key = ((long) Float.floatToIntBits(x) << 32) | (Float.floatToIntBits(y) & 0xFFFFFFFFL);
+            Integer index = shared.get(key);
+            if (index != null) {
+                return index;
+            }
+            if (vertexCount == colors.length) {
+                float[] v = new float[vertexCount * 8];
+                System.arraycopy(vertices, 0, v, 0, vertexCount * 4);
+                vertices = v;
+                int[] c = new int[vertexCount * 2];
+                System.arraycopy(colors, 0, c, 0, vertexCount);
+                colors = c;
+            }
+            int i = vertexCount++;
+            vertices[4 * i] = x;
+            vertices[4 * i + 1] = y;
+            vertices[4 * i + 2] = Affine.mapX(toTexture, x, y);
+            vertices[4 * i + 3] = Affine.mapY(toTexture, x, y);
+            colors[i] = color;
+            shared.put(key, i);
+            return i;
+        }
+
+        private void triangle(int a, int b, int c) {
+            if (indexCount + 3 > indices.length) {
+                int[] bigger = new int[indices.length * 2];
+                System.arraycopy(indices, 0, bigger, 0, indexCount);
+                indices = bigger;
+            }
+            indices[indexCount++] = a;
+            indices[indexCount++] = b;
+            indices[indexCount++] = c;
+        }
+    }
+}
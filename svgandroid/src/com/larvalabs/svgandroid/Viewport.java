@@ -0,0 +1,106 @@
+package com.larvalabs.svgandroid;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+/**
+ * The part of a document that can be seen on a canvas, used to skip drawing nodes whose bounds lie entirely outside
+ * of it. Groups are never transformed, so the same rectangle holds at every level of the display list. Long lists of
+ * nodes are searched through a spatial index rather than tested one at a time.
+ * <p/>
+ * Also counts the shapes drawn and skipped. A viewport is made for a single draw, and is not thread safe.
+ *
+ * @author Larva Labs, LLC
+ */
+final class Viewport {
+
+    /**
+     * The fewest nodes in a list for which a spatial index is built, shorter lists are just tested in turn.
+     */
+    static final int INDEX_MIN_NODES = 64;
+
+    private final float left, top, right, bottom;
+
+    int drawn = 0;
+    int skipped = 0;
+
+    private Viewport(float left, float top, float right, float bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * Gets the viewport of a canvas, from its current clip and matrix.
+     * @param canvas the canvas.
+     * @return the viewport, in the co-ordinates of the canvas's current matrix, or null if nothing can be drawn.
+     */
+    static Viewport of(Canvas canvas) {
+        Rect clip = new Rect();
+        if (!canvas.getClipBounds(clip)) {
+            return null;
+        }
+        return new Viewport(clip.left, clip.top, clip.right, clip.bottom);
+    }
+
+    boolean isVisible(RectF bounds) {
+        return bounds.left < right && left < bounds.right && bounds.top < bottom && top < bounds.bottom;
+    }
+
+    /**
+     * Draws the visible nodes of a list, in order.
+     * @param nodes the nodes.
+     * @param index an index over the bounds of the nodes, or null to test each node (which must be used if any of
+     * them are animated).
+     * @param shapeCount the total number of shapes in the nodes, counting those within groups.
+     * @param canvas the canvas on which to draw.
+     * @param cache the bitmap cache.
+     */
+    void draw(ArrayList<DisplayNode> nodes, SpatialIndex index, int shapeCount, Canvas canvas, BitmapCache cache) {
+        if (index == null) {
+            for (DisplayNode node : nodes) {
+                if (node.animated || isVisible(node.bounds)) {
+                    node.draw(canvas, cache, this);
+                } else {
+                    skipped += node.getShapeCount();
+                }
+            }
+            return;
+        }
+        SpatialIndex.IntList found = new SpatialIndex.IntList();
+        index.query(left, top, right, bottom, found);
+        found.sort();
+        int visited = 0;
+        for (int i = 0; i < found.size; i++) {
+            DisplayNode node = nodes.get(found.values[i]);
+            // The index also finds nodes that only touch the viewport
+            if (isVisible(node.bounds)) {
+                visited += node.getShapeCount();
+                node.draw(canvas, cache, this);
+            }
+        }
+        skipped += shapeCount - visited;
+    }
+}
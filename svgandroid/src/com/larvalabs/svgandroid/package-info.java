@@ -9,12 +9,14 @@
  * Note that only SVG features that can be directly converted in to Android graphics calls are supported.
  * The following SVG Basic 1.1 features are not supported and will be ignored by the parser:
  * <ul>
- *     <li>All text and font features.
- *     <li>Styles.
+ *     <li>Text other than simple runs of <code>&lt;text&gt;</code> and <code>&lt;tspan&gt;</code> (no kerning, text
+ *     paths, per-character positions or complex script shaping).
+ *     <li>CSS selectors other than tag names, classes and ids (no combinators or pseudo-classes).
  *     <li>Symbols, conditional processing.
- *     <li>Patterns.
- *     <li>Masks, filters and views.
- *     <li>Interactivity, linking, scripting and animation.
+ *     <li>Filters (other than a single Gaussian blur) and views.
+ *     <li>Interactivity, linking, scripting, and animation other than <code>&lt;animate&gt;</code>,
+ *     <code>&lt;animateTransform&gt;</code> and <code>&lt;set&gt;</code> with offset begin times (see
+ *     {@link com.larvalabs.svgandroid.SVGTimeline SVGTimeline}).
  * </ul>
  * Even with the above features missing, users will find that most Illustrator drawings will render perfectly well on
  * Android with this library.
@@ -0,0 +1,132 @@
+package com.larvalabs.svgandroid;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the sampling of compiled animations, and the timeline applying them to the display list. In the library's
+ * package, since animations aren't public.
+ */
+public class AnimationTest extends TestCase {
+
+    private final float[] out = new float[3];
+
+    public void testLinear() {
+        Animation a = new Animation(0, 2, 2, false, false, Animation.CALC_LINEAR, 0, 1, new float[]{0, 10}, null, null);
+        assertEquals(0f, sample(a, 0), 0.0001f);
+        assertEquals(5f, sample(a, 1), 0.0001f);
+        assertEquals(7.5f, sample(a, 1.5f), 0.0001f);
+        // Not frozen, so it has no effect once it ends
+        assertFalse(a.sample(2, out));
+    }
+
+    public void testBeginOffset() {
+        Animation a = new Animation(1, 2, 2, false, false, Animation.CALC_LINEAR, 0, 1, new float[]{0, 10}, null, null);
+        assertFalse(a.sample(0.5f, out));
+        assertEquals(0f, sample(a, 1), 0.0001f);
+        assertEquals(5f, sample(a, 2), 0.0001f);
+        assertFalse(a.sample(3, out));
+        assertEquals(3f, a.getEnd(), 0);
+    }
+
+    public void testDiscrete() {
+        // Without key times, each value takes an equal share of the duration, the last one included
+        Animation a = new Animation(0, 3, 3, false, false, Animation.CALC_DISCRETE, 0, 1, new float[]{0, 10, 20},
+                null, null);
+        assertEquals(0f, sample(a, 0.5f), 0);
+        assertEquals(10f, sample(a, 1.5f), 0);
+        assertEquals(20f, sample(a, 2.5f), 0);
+    }
+
+    public void testKeyTimes() {
+        Animation a = new Animation(0, 1, 1, false, false, Animation.CALC_LINEAR, 0, 1, new float[]{0, 10, 20},
+                new float[]{0, 0.8f, 1}, null);
+        assertEquals(5f, sample(a, 0.4f), 0.0001f);
+        assertEquals(15f, sample(a, 0.9f), 0.0001f);
+        Animation discrete = new Animation(0, 1, 1, false, false, Animation.CALC_DISCRETE, 0, 1,
+                new float[]{0, 10, 20}, new float[]{0, 0.8f, 0.9f}, null);
+        assertEquals(0f, sample(discrete, 0.7f), 0);
+        assertEquals(10f, sample(discrete, 0.85f), 0);
+        assertEquals(20f, sample(discrete, 0.95f), 0);
+    }
+
+    public void testSpline() {
+        // A straight spline is the same as linear, an ease-in lags behind it
+        Animation straight = new Animation(0, 1, 1, false, false, Animation.CALC_SPLINE, 0, 1, new float[]{0, 10},
+                null, new float[]{0, 0, 1, 1});
+        assertEquals(5f, sample(straight, 0.5f), 0.01f);
+        Animation easeIn = new Animation(0, 1, 1, false, false, Animation.CALC_SPLINE, 0, 1, new float[]{0, 10},
+                null, new float[]{0.42f, 0, 1, 1});
+        float half = sample(easeIn, 0.5f);
+        assertTrue(half > 0 && half < 4);
+        assertEquals(10f, sample(easeIn, 0.9999f), 0.01f);
+    }
+
+    public void testRepeatAndFreeze() {
+        // Two and a half repeats of a one second animation
+        Animation a = new Animation(0, 1, 2.5f, true, false, Animation.CALC_LINEAR, 0, 1, new float[]{0, 10}, null, null);
+        assertEquals(2.5f, sample(a, 1.25f), 0.0001f);
+        assertEquals(5f, sample(a, 2.5f), 0.0001f);
+        // Frozen part way through the last repeat
+        assertEquals(5f, sample(a, 10), 0.0001f);
+        Animation whole = new Animation(0, 1, 2, true, false, Animation.CALC_LINEAR, 0, 1, new float[]{0, 10}, null, null);
+        assertEquals(10f, sample(whole, 5), 0.0001f);
+        Animation notFrozen = new Animation(0, 1, 2.5f, false, false, Animation.CALC_LINEAR, 0, 1, new float[]{0, 10},
+                null, null);
+        assertFalse(notFrozen.sample(3, out));
+    }
+
+    public void testColor() {
+        Animation a = new Animation(0, 1, 1, false, false, Animation.CALC_LINEAR, 0, 3,
+                new float[]{255, 0, 0, 0, 0, 255}, null, null);
+        assertTrue(a.sample(0.5f, out));
+        assertEquals(127.5f, out[0], 0.0001f);
+        assertEquals(0f, out[1], 0.0001f);
+        assertEquals(127.5f, out[2], 0.0001f);
+    }
+
+    public void testSetTime() throws Exception {
+        SVG svg = SVGParser.getSVGFromString("<svg xmlns='http://www.w3.org/2000/svg' width='10' height='10'>"
+                + "<rect width='10' height='10' fill='#ff0000'>"
+                + "<animate attributeName='fill' from='#ff0000' to='#0000ff' begin='1s' dur='2s'/>"
+                + "<animate attributeName='fill-opacity' values='1;0.5' dur='1s' fill='freeze'/></rect>"
+                + "<rect x='5' width='5' height='5'><set attributeName='visibility' to='hidden' begin='0.5s'/></rect>"
+                + "</svg>");
+        SVGTimeline timeline = svg.getTimeline();
+        assertFalse(timeline.isEmpty());
+        // The set has no duration, so it lasts for ever
+        assertTrue(Float.isInfinite(timeline.getDuration()));
+        DisplayNode rect = svg.getDisplayList().get(0);
+        DisplayNode hidden = svg.getDisplayList().get(1);
+
+        timeline.setTime(0);
+        assertEquals(0xFFFF0000, rect.fill.getColor());
+        assertTrue(hidden.visible);
+
+        timeline.setTime(2);
+        assertEquals(0x80800080, rect.fill.getColor());
+        assertFalse(hidden.visible);
+
+        // The colour goes back to the element's own once its animation ends, the frozen opacity stays
+        timeline.setTime(4);
+        assertEquals(0x80FF0000, rect.fill.getColor());
+
+        // Going back in time undoes everything
+        timeline.setTime(0);
+        assertEquals(0xFFFF0000, rect.fill.getColor());
+        assertTrue(hidden.visible);
+    }
+
+    public void testUnsupportedAnimationsDropped() throws Exception {
+        // A bad repeat count, or an opacity added on to the element's own, leave the element as it is
+        SVG svg = SVGParser.getSVGFromString("<svg xmlns='http://www.w3.org/2000/svg' width='10' height='10'>"
+                + "<rect width='10' height='10'>"
+                + "<animate attributeName='opacity' from='0' to='1' dur='1s' repeatCount='twice'/>"
+                + "<animate attributeName='opacity' by='-0.5' dur='1s'/></rect></svg>");
+        assertTrue(svg.getTimeline().isEmpty());
+    }
+
+    private float sample(Animation a, float time) {
+        assertTrue(a.sample(time, out));
+        return out[0];
+    }
+}
@@ -0,0 +1,110 @@
+package com.larvalabs.svgandroid;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the tessellation of flattened paths by the area covered by their triangles. The paths are built and
+ * tessellated without any Android classes, so this runs on a plain JVM as well as on a device. In the library's
+ * package, since the tessellator isn't public.
+ */
+public class TessellatorTest extends TestCase {
+
+    public void testSquare() {
+        TriangleMesh.Builder b = fill(polygon(0, 0, 10, 0, 10, 10, 0, 10), null, false);
+        assertEquals(100f, area(b), 0.001f);
+        assertEquals(4, b.vertexCount);
+        assertEquals(0xFF00FF00, b.colors[0]);
+    }
+
+    public void testFillRules() {
+        // Both squares wind the same way, so the inner one is only a hole under the even-odd rule
+        PackedPath p = polygon(0, 0, 10, 0, 10, 10, 0, 10);
+        addPolygon(p, 3, 3, 7, 3, 7, 7, 3, 7);
+        assertEquals(100f, area(fill(p, null, false)), 0.001f);
+        assertEquals(84f, area(fill(p, null, true)), 0.001f);
+        // Wound the other way, the inner square is a hole under both rules
+        PackedPath reversed = polygon(0, 0, 10, 0, 10, 10, 0, 10);
+        addPolygon(reversed, 3, 3, 3, 7, 7, 7, 7, 3);
+        assertEquals(84f, area(fill(reversed, null, false)), 0.001f);
+    }
+
+    public void testSelfIntersecting() {
+        // A bow tie, made of two triangles that meet in the middle
+        assertEquals(50f, area(fill(polygon(0, 0, 10, 10, 10, 0, 0, 10), null, false)), 0.001f);
+        // A star, which has a pentagon in the middle that is only filled under the non-zero rule
+        PackedPath star = polygon(50, 0, 79, 90, 2, 35, 98, 35, 21, 90);
+        float nonZero = area(fill(star, null, false));
+        float evenOdd = area(fill(star, null, true));
+        assertTrue(nonZero > evenOdd + 100);
+    }
+
+    public void testCurves() {
+        // A circle of radius 50 from four cubic curves
+        float k = 0.5522848f * 50;
+        PackedPath circle = new PackedPath();
+        circle.moveTo(100, 50);
+        circle.cubicTo(100, 50 + k, 50 + k, 100, 50, 100);
+        circle.cubicTo(50 - k, 100, 0, 50 + k, 0, 50);
+        circle.cubicTo(0, 50 - k, 50 - k, 0, 50, 0);
+        circle.cubicTo(50 + k, 0, 100, 50 - k, 100, 50);
+        circle.close();
+        assertEquals((float) (Math.PI * 50 * 50), area(fill(circle, null, false)), 30f);
+    }
+
+    public void testTransform() {
+        // Scaled by 2 and 3, and moved
+        float[] transform = {2, 0, 5, 0, 3, -5};
+        TriangleMesh.Builder b = fill(polygon(0, 0, 10, 0, 10, 10, 0, 10), transform, false);
+        assertEquals(600f, area(b), 0.001f);
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        for (int i = 0; i < b.vertexCount; i++) {
+            minX = Math.min(minX, b.vertices[4 * i]);
+            minY = Math.min(minY, b.vertices[4 * i + 1]);
+        }
+        assertEquals(5f, minX, 0.001f);
+        assertEquals(-5f, minY, 0.001f);
+    }
+
+    public void testEmpty() {
+        // A path with no area adds no triangles
+        assertEquals(0, fill(polygon(0, 0, 10, 0, 20, 0), null, false).indexCount);
+    }
+
+    private static PackedPath polygon(float... points) {
+        PackedPath p = new PackedPath();
+        addPolygon(p, points);
+        return p;
+    }
+
+    private static void addPolygon(PackedPath p, float... points) {
+        p.moveTo(points[0], points[1]);
+        for (int i = 2; i < points.length; i += 2) {
+            p.lineTo(points[i], points[i + 1]);
+        }
+        p.close();
+    }
+
+    private static TriangleMesh.Builder fill(PackedPath path, float[] transform, boolean evenOdd) {
+        TriangleMesh.Builder b = new TriangleMesh.Builder();
+        b.beginBatch(null, 0xFF00FF00, null, null);
+        Tessellator.fill(path.flatten(1), transform, evenOdd, b);
+        b.endBatch();
+        return b;
+    }
+
+    /**
+     * Adds up the areas of all of the triangles in a mesh.
+     */
+    private static float area(TriangleMesh.Builder b) {
+        float total = 0;
+        for (int i = 0; i < b.indexCount; i += 3) {
+            float[] p = new float[6];
+            for (int k = 0; k < 3; k++) {
+                p[2 * k] = b.vertices[4 * b.indices[i + k]];
+                p[2 * k + 1] = b.vertices[4 * b.indices[i + k] + 1];
+            }
+            total += Math.abs((p[2] - p[0]) * (p[5] - p[1]) - (p[4] - p[0]) * (p[3] - p[1])) / 2;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,79 @@
+package com.larvalabs.svgandroid.test;
+
+import com.larvalabs.svgandroid.PackedPath;
+import com.larvalabs.svgandroid.SVGParser;
+import junit.framework.TestCase;
+
+/**
+ * Checks the simplification of packed paths within a tolerance.
+ */
+public class PackedPathTest extends TestCase {
+
+    public void testCollinearMerged() {
+        assertSimplified("M0,0 L5,0 L10,0 L15,0.01 L20,0", 0.1f, "M0,0 L20,0");
+        // Lines that turn by more than the tolerance are kept as they are
+        assertUnchanged("M0,0 L10,0 L10,10", 0.1f);
+        assertUnchanged("M0,0 L10,1 L20,0", 0.5f);
+    }
+
+    public void testMergedStaysWithinTolerance() {
+        // Each step bends only slightly, but the points of a long run mustn't drift away from the merged line
+        String d = "M0,0 L10,0.05 L20,0.15 L30,0.3 L40,0.5 L50,0.75 L60,1.05 L70,1.4 L80,1.8";
+        PackedPath original = SVGParser.parsePackedPath(d);
+        PackedPath simplified = original.simplify(0.1f);
+        assertTrue(simplified.getCoordCount() < original.getCoordCount());
+        assertTrue(simplified.getCoordCount() > 4);
+        for (int i = 0; i < original.getCoordCount(); i += 2) {
+            float x = original.getCoord(i);
+            float y = original.getCoord(i + 1);
+            float nearest = Float.MAX_VALUE;
+            for (int k = 2; k < simplified.getCoordCount(); k += 2) {
+                nearest = Math.min(nearest, distanceToSegment(x, y, simplified.getCoord(k - 2),
+                        simplified.getCoord(k - 1), simplified.getCoord(k), simplified.getCoord(k + 1)));
+            }
+            assertTrue("point " + i / 2 + " is " + nearest + " away", nearest <= 0.1f + 0.0001f);
+        }
+    }
+
+    public void testTinySegmentsDropped() {
+        assertSimplified("M0,0 L10,0 L10.01,0.01 L10,10", 0.1f, "M0,0 L10,0 L10,10");
+        // A path is never reduced to a bare move
+        assertUnchanged("M0,0 L0.01,0", 0.1f);
+    }
+
+    public void testFlatCurves() {
+        assertSimplified("M0,0 C5,0.01 10,-0.01 15,0", 0.1f, "M0,0 L15,0");
+        assertSimplified("M0,0 Q5,0.05 10,0 L20,0", 0.1f, "M0,0 L20,0");
+        assertUnchanged("M0,0 C0,10 10,10 10,0", 0.1f);
+    }
+
+    public void testClosingLineDropped() {
+        // The close draws the last side anyway
+        assertSimplified("M0,0 L10,0 L10,10 L0,10 L0,0 Z", 0.1f, "M0,0 L10,0 L10,10 L0,10 Z");
+        assertSimplified("M0,0 L10,0 L10,10 L0,10 L0.01,0 Z M20,0 L30,0 L30,10 Z", 0.1f,
+                "M0,0 L10,0 L10,10 L0,10 Z M20,0 L30,0 L30,10 Z");
+    }
+
+    public void testZeroTolerance() {
+        assertUnchanged("M0,0 L5,0 L10,0.01 L10,10 Z", 0);
+    }
+
+    private static void assertSimplified(String d, float tolerance, String expected) {
+        assertEquals(SVGParser.parsePackedPath(expected), SVGParser.parsePackedPath(d).simplify(tolerance));
+    }
+
+    private static void assertUnchanged(String d, float tolerance) {
+        PackedPath p = SVGParser.parsePackedPath(d);
+        assertSame(p, p.simplify(tolerance));
+    }
+
+    private static float distanceToSegment(float px, float py, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float t = ((px - x0) * dx + (py - y0) * dy) / (dx * dx + dy * dy);
+        t = Math.max(0, Math.min(1, t));
+        float ex = px - (x0 + t * dx);
+        float ey = py - (y0 + t * dy);
+        return (float) Math.sqrt(ex * ex + ey * ey);
+    }
+}
@@ -0,0 +1,93 @@
+package com.larvalabs.svgandroid.test;
+
+import android.graphics.RectF;
+import com.larvalabs.svgandroid.PackedPath;
+import com.larvalabs.svgandroid.SVGParser;
+import junit.framework.TestCase;
+
+/**
+ * Checks the conversion of elliptical arcs in path data to cubic curves.
+ */
+public class PathArcTest extends TestCase {
+
+    public void testSemicircle() {
+        // Sweeping clockwise from the left end of the chord goes over the top
+        PackedPath p = SVGParser.parsePackedPath("M0,0 A10,10 0 0,1 20,0");
+        assertEquals(PackedPath.MOVE, p.getVerb(0));
+        for (int i = 1; i < p.getVerbCount(); i++) {
+            assertEquals(PackedPath.CUBIC, p.getVerb(i));
+        }
+        assertEnd(p, 20, 0);
+        RectF bounds = new RectF();
+        p.computeTightBounds(bounds);
+        assertEquals(0f, bounds.left, 0.05f);
+        assertEquals(-10f, bounds.top, 0.05f);
+        assertEquals(20f, bounds.right, 0.05f);
+        assertEquals(0f, bounds.bottom, 0.05f);
+
+        // The other sweep goes under
+        SVGParser.parsePackedPath("M0,0 A10,10 0 0,0 20,0").computeTightBounds(bounds);
+        assertEquals(0f, bounds.top, 0.05f);
+        assertEquals(10f, bounds.bottom, 0.05f);
+    }
+
+    public void testRelative() {
+        PackedPath relative = SVGParser.parsePackedPath("M5,5 a10,10 0 0,1 20,0 a5,5 0 1,1 0,10");
+        PackedPath absolute = SVGParser.parsePackedPath("M5,5 A10,10 0 0,1 25,5 A5,5 0 1,1 25,15");
+        assertEquals(absolute, relative);
+        assertEnd(relative, 25, 15);
+    }
+
+    public void testLargeArc() {
+        // Both arcs go clockwise through the same end points, the large one around the far side of the circle
+        RectF small = new RectF();
+        RectF large = new RectF();
+        SVGParser.parsePackedPath("M0,0 A10,10 0 0,1 10,10").computeTightBounds(small);
+        SVGParser.parsePackedPath("M0,0 A10,10 0 1,1 10,10").computeTightBounds(large);
+        assertEquals(10f, small.width(), 0.05f);
+        assertEquals(20f, large.width(), 0.05f);
+        assertEquals(20f, large.height(), 0.05f);
+    }
+
+    public void testRadiiScaledUp() {
+        // Radii too small to span the chord are scaled up until they just do, giving a semicircle
+        RectF bounds = new RectF();
+        SVGParser.parsePackedPath("M0,0 A1,1 0 0,1 20,0").computeTightBounds(bounds);
+        assertEquals(10f, bounds.height(), 0.05f);
+    }
+
+    public void testDegenerate() {
+        // A zero radius is a straight line, and an arc to the current point is left out
+        PackedPath line = SVGParser.parsePackedPath("M0,0 A0,10 0 0,1 20,0");
+        assertEquals(2, line.getVerbCount());
+        assertEquals(PackedPath.LINE, line.getVerb(1));
+        assertEnd(line, 20, 0);
+        assertEquals(1, SVGParser.parsePackedPath("M3,4 A10,10 0 0,1 3,4").getVerbCount());
+    }
+
+    public void testSmoothCurveAfterArc() {
+        // The arc's last control point isn't reflected, a smooth curve after an arc starts from the current point
+        PackedPath cubic = SVGParser.parsePackedPath("M0,0 A10,10 0 0,1 20,0 S40,10 40,0");
+        int n = cubic.getCoordCount();
+        assertEquals(PackedPath.CUBIC, cubic.getVerb(cubic.getVerbCount() - 1));
+        assertEquals(20f, cubic.getCoord(n - 6), 0.0001f);
+        assertEquals(0f, cubic.getCoord(n - 5), 0.0001f);
+
+        PackedPath quad = SVGParser.parsePackedPath("M0,0 A10,10 0 0,1 20,0 T40,0");
+        n = quad.getCoordCount();
+        assertEquals(PackedPath.QUAD, quad.getVerb(quad.getVerbCount() - 1));
+        assertEquals(20f, quad.getCoord(n - 4), 0.0001f);
+        assertEquals(0f, quad.getCoord(n - 3), 0.0001f);
+    }
+
+    public void testRelativeAfterArc() {
+        // Relative commands carry on from the end of the arc
+        assertEnd(SVGParser.parsePackedPath("M0,0 a10,10 0 0,1 20,0 l10,5"), 30, 5);
+    }
+
+    private static void assertEnd(PackedPath p, float x, float y) {
+        int n = p.getCoordCount();
+        assertEquals(x, p.getCoord(n - 2), 0.0001f);
+        assertEquals(y, p.getCoord(n - 1), 0.0001f);
+    }
+}
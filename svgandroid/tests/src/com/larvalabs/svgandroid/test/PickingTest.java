@@ -0,0 +1,62 @@
+package com.larvalabs.svgandroid.test;
+
+import android.graphics.RectF;
+import com.larvalabs.svgandroid.SVG;
+import com.larvalabs.svgandroid.SVGParser;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Checks finding the elements drawn at a point or in a rectangle.
+ */
+public class PickingTest extends TestCase {
+
+    /**
+     * A map: an ocean, a country made of two paths without ids of their own, and a country with a region inside it
+     * that has an id.
+     */
+    private static final String MAP = "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>"
+            + "<rect id='ocean' width='100' height='100' fill='#00f'/>"
+            + "<g id='FR' fill='#0f0'><path d='M10,10 L30,10 L30,30 L10,30 Z'/><path d='M10,40 L30,40 L30,60 Z'/></g>"
+            + "<g id='DE' fill='#f00'><g><rect x='50' y='10' width='30' height='30'/>"
+            + "<rect id='BY' x='60' y='20' width='10' height='10'/></g></g>"
+            + "<circle cx='90' cy='90' r='5' fill='#000'/>"
+            + "</svg>";
+
+    public void testTopmostShape() throws Exception {
+        SVG svg = SVGParser.getSVGFromString(MAP);
+        assertEquals("ocean", svg.getElementAt(5, 5, 0));
+        assertEquals("BY", svg.getElementAt(65, 25, 0));
+        assertNull(svg.getElementAt(150, 150, 0));
+    }
+
+    public void testGroupIds() throws Exception {
+        // Shapes without ids are picked by the innermost group around them that has one
+        SVG svg = SVGParser.getSVGFromString(MAP);
+        assertEquals("FR", svg.getElementAt(20, 20, 0));
+        assertEquals("FR", svg.getElementAt(28, 45, 0));
+        assertEquals("DE", svg.getElementAt(55, 15, 0));
+        // Outside the triangle, but inside its bounds
+        assertEquals("ocean", svg.getElementAt(12, 58, 0));
+    }
+
+    public void testCoveredShapesNotPicked() throws Exception {
+        // A shape with no id, and no group with one, hides what is under it rather than letting it be picked
+        SVG svg = SVGParser.getSVGFromString(MAP);
+        assertNull(svg.getElementAt(90, 90, 0));
+        assertEquals("ocean", svg.getElementAt(98, 98, 0));
+    }
+
+    public void testSlop() throws Exception {
+        SVG svg = SVGParser.getSVGFromString(MAP);
+        assertEquals("ocean", svg.getElementAt(8, 20, 0));
+        assertEquals("FR", svg.getElementAt(8, 20, 3));
+    }
+
+    public void testElementsIn() throws Exception {
+        SVG svg = SVGParser.getSVGFromString(MAP);
+        assertEquals(Arrays.asList("ocean", "FR"), svg.getElementsIn(new RectF(0, 0, 20, 20)));
+        assertEquals(Arrays.asList("ocean", "DE", "BY"), svg.getElementsIn(new RectF(55, 15, 65, 25)));
+    }
+}
@@ -0,0 +1,106 @@
+package com.larvalabs.svgandroid.test;
+
+import android.graphics.RectF;
+import com.larvalabs.svgandroid.SVG;
+import com.larvalabs.svgandroid.SVGParser;
+import junit.framework.TestCase;
+
+/**
+ * Checks when an edited source is patched in to the SVG parsed from the previous version, and when it is parsed
+ * again in full.
+ */
+public class SourceUpdateTest extends TestCase {
+
+    private static final String HEADER = "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>"
+            + "<defs><linearGradient id='g'><stop offset='0' stop-color='#fff'/></linearGradient></defs>";
+
+    private static final String SHAPES = "<circle cx='10' cy='80' r='5'/><circle cx='20' cy='80' r='5'/>"
+            + "<circle cx='30' cy='80' r='5'/><circle cx='40' cy='80' r='5'/><circle cx='50' cy='80' r='5'/>"
+            + "<circle cx='60' cy='80' r='5'/>";
+
+    /**
+     * A document of eight shapes, one of them in a group.
+     */
+    private static String doc(String rect, String group) {
+        return HEADER + "<rect id='r' " + rect + "/><g " + group + "><path d='M0,50 L20,50' stroke='#000'/></g>"
+                + SHAPES + "</svg>";
+    }
+
+    private static final String RECT = "x='0' y='0' width='10' height='10' fill='#f00'";
+
+    public void testAttributeChangePatched() throws Exception {
+        SVG svg = SVGParser.updateSVGFromString(null, doc(RECT, ""));
+        assertEquals(0, svg.getPatchedCount());
+        assertSame(svg, SVGParser.updateSVGFromString(svg, doc(RECT, "")));
+        assertEquals(0, svg.getPatchedCount());
+        assertNull(svg.getDirtyBounds());
+
+        SVG updated = SVGParser.updateSVGFromString(svg, doc("x='20' y='0' width='10' height='10' fill='#f00'", ""));
+        assertSame(svg, updated);
+        assertEquals(1, svg.getPatchedCount());
+        RectF bounds = svg.getElementBounds("r");
+        assertEquals(20f, bounds.left, 0.001f);
+        assertEquals(30f, bounds.right, 0.001f);
+        // The dirty area covers where the shape was and where it is now
+        RectF dirty = svg.getDirtyBounds();
+        assertTrue(dirty.contains(new RectF(0, 0, 30, 10)));
+        assertTrue(dirty.bottom < 50);
+
+        // Whitespace between elements isn't a change
+        assertSame(svg, SVGParser.updateSVGFromString(svg,
+                doc("x='20' y='0' width='10' height='10' fill='#f00'", "").replace("><", ">\n  <")));
+    }
+
+    public void testStructuralChangeParsed() throws Exception {
+        SVG svg = SVGParser.updateSVGFromString(null, doc(RECT, ""));
+        // An element added or removed
+        SVG added = SVGParser.updateSVGFromString(svg, doc(RECT, "").replace("</svg>", "<rect width='1' height='1'/></svg>"));
+        assertNotSame(svg, added);
+        assertNotSame(added, SVGParser.updateSVGFromString(added, doc(RECT, "")));
+        // An element changed to another kind
+        svg = SVGParser.updateSVGFromString(null, doc(RECT, ""));
+        assertNotSame(svg, SVGParser.updateSVGFromString(svg, doc(RECT, "").replace("<circle cx='60'", "<ellipse cx='60'")));
+        // Text content changed
+        svg = SVGParser.updateSVGFromString(null, doc(RECT, "").replace("<defs>", "<style>.a { fill: red }</style><defs>"));
+        assertNotSame(svg, SVGParser.updateSVGFromString(svg,
+                doc(RECT, "").replace("<defs>", "<style>.a { fill: blue }</style><defs>")));
+    }
+
+    public void testUnpatchableChangesParsed() throws Exception {
+        // A shape that comes to refer to a gradient
+        SVG svg = SVGParser.updateSVGFromString(null, doc(RECT, ""));
+        assertNotSame(svg, SVGParser.updateSVGFromString(svg, doc(RECT.replace("#f00", "url(#g)"), "")));
+        // A shape that referred to a gradient already
+        svg = SVGParser.updateSVGFromString(null, doc(RECT.replace("#f00", "url(#g)"), ""));
+        assertNotSame(svg, SVGParser.updateSVGFromString(svg, doc(RECT.replace("#f00", "url(#g)").replace("x='0'", "x='5'"), "")));
+        // A group, whose attributes are inherited by what it holds
+        svg = SVGParser.updateSVGFromString(null, doc(RECT, "opacity='0.5'"));
+        assertNotSame(svg, SVGParser.updateSVGFromString(svg, doc(RECT, "opacity='0.25'")));
+        // A shape that a group's opacity was folded in to
+        svg = SVGParser.updateSVGFromString(null, doc(RECT, "opacity='0.5'"));
+        assertNotSame(svg, SVGParser.updateSVGFromString(svg, doc(RECT, "opacity='0.5'").replace("L20,50", "L30,50")));
+    }
+
+    public void testTooManyChangesParsed() throws Exception {
+        // Two of the eight shapes is within the limit, three is too many
+        SVG svg = SVGParser.updateSVGFromString(null, doc(RECT, ""));
+        String two = doc(RECT.replace("#f00", "#0f0"), "").replace("cx='10'", "cx='11'");
+        assertSame(svg, SVGParser.updateSVGFromString(svg, two));
+        assertEquals(2, svg.getPatchedCount());
+        String three = two.replace("#0f0", "#00f").replace("cx='20'", "cx='21'").replace("cx='30'", "cx='31'");
+        SVG parsed = SVGParser.updateSVGFromString(svg, three);
+        assertNotSame(svg, parsed);
+        assertEquals(0, parsed.getPatchedCount());
+    }
+
+    public void testOnlyUpdatableSourcesPatched() throws Exception {
+        // An SVG that didn't come from an update has no source to compare with
+        SVG svg = SVGParser.getSVGFromString(doc(RECT, ""));
+        assertNotSame(svg, SVGParser.updateSVGFromString(svg, doc(RECT, "")));
+        // Nor is an animated one patched
+        String animated = doc(RECT, "").replace("</svg>",
+                "<rect width='5' height='5'><animate attributeName='opacity' from='0' to='1' dur='1s'/></rect></svg>");
+        svg = SVGParser.updateSVGFromString(null, animated);
+        assertNotSame(svg, SVGParser.updateSVGFromString(svg, animated.replace("#f00", "#0f0")));
+    }
+}
@@ -0,0 +1,87 @@
+package com.larvalabs.svgandroid.test;
+
+import com.larvalabs.svgandroid.SVGParser;
+import com.larvalabs.svgandroid.TriangleMesh;
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Checks which rules of a &lt;style&gt; element apply to an element, by the fill color it ends up with.
+ */
+public class StyleSheetTest extends TestCase {
+
+    public void testSpecificity() throws Exception {
+        // An id beats classes, which beat a tag, whatever order they come in
+        String css = "#a { fill: #0000ff } .c { fill: #00ff00 } rect { fill: #ff0000 }";
+        assertEquals(0xFF0000FF, fill(css, "id='a' class='c'"));
+        assertEquals(0xFF00FF00, fill(css, "class='c'"));
+        assertEquals(0xFFFF0000, fill(css, ""));
+        assertEquals(0xFF00FF00, fill("rect.c { fill: #00ff00 } .c { fill: #ff0000 }", "class='c'"));
+        assertEquals(0xFFFF0000, fill("rect { fill: #ff0000 } * { fill: #00ff00 }", ""));
+    }
+
+    public void testOrder() throws Exception {
+        // The later of two equally specific rules wins, even across style elements
+        assertEquals(0xFF00FF00, fill(".c { fill: #ff0000 } .c { fill: #00ff00 }", "class='c'"));
+        assertEquals(0xFF00FF00, fill(".c { fill: #ff0000 } .d { fill: #00ff00 }", "class='d c'"));
+        String svg = "<svg xmlns='http://www.w3.org/2000/svg' width='10' height='10'>"
+                + "<style>.c { fill: #ff0000 }</style><style>.c { fill: #00ff00 }</style>"
+                + "<rect class='c' width='10' height='10'/></svg>";
+        assertEquals(0xFF00FF00, fill(svg));
+    }
+
+    public void testMultipleClasses() throws Exception {
+        String css = ".a.b { fill: #00ff00 } .a { fill: #ff0000 }";
+        assertEquals(0xFF00FF00, fill(css, "class='a b'"));
+        assertEquals(0xFF00FF00, fill(css, "class=' b  a '"));
+        assertEquals(0xFFFF0000, fill(css, "class='a'"));
+        // A rule needing a class the element doesn't have doesn't apply
+        assertEquals(0xFF000000, fill(".a.b { fill: #00ff00 }", "class='b'"));
+    }
+
+    public void testSelectorLists() throws Exception {
+        String css = "circle, .x, #y { fill: #00ff00 }";
+        assertEquals(0xFF00FF00, fill(css, "class='x'"));
+        assertEquals(0xFF00FF00, fill(css, "id='y'"));
+        assertEquals(0xFF000000, fill(css, ""));
+        // Selectors that aren't supported are dropped without losing the rest of the list
+        assertEquals(0xFF00FF00, fill("g > rect, a:hover, .x { fill: #00ff00 }", "class='x'"));
+    }
+
+    public void testCascade() throws Exception {
+        // Style sheet rules override presentation attributes, and are overridden by the style attribute
+        assertEquals(0xFF00FF00, fill(".c { fill: #00ff00 }", "class='c' fill='#ff0000'"));
+        assertEquals(0xFF0000FF, fill(".c { fill: #00ff00 }", "class='c' style='fill: #0000ff'"));
+        // Opacity declarations are applied with the color
+        int translucent = fill(".c { fill: #00ff00; fill-opacity: 0.5 }", "class='c'");
+        assertEquals(0x00FF00, translucent & 0xFFFFFF);
+        assertEquals(128f, translucent >>> 24, 1f);
+        // Comments and at-rules are skipped
+        assertEquals(0xFF00FF00, fill("/* .c { fill: red } */ @media print { .c { fill: #ff0000 } } .c { fill: #00ff00 }",
+                "class='c'"));
+    }
+
+    /**
+     * Parses a document holding a style sheet and a single rect.
+     * @param css the style sheet.
+     * @param attributes the attributes of the rect, other than its geometry.
+     * @return the rect's fill color.
+     */
+    private static int fill(String css, String attributes) throws Exception {
+        return fill("<svg xmlns='http://www.w3.org/2000/svg' width='10' height='10'><style>" + css + "</style>"
+                + "<rect " + attributes + " width='10' height='10'/></svg>");
+    }
+
+    private static int fill(String svg) throws Exception {
+        TriangleMesh mesh = SVGParser.getSVGFromString(svg).getTriangleMesh();
+        assertTrue(mesh.getVertexCount() > 0);
+        ByteBuffer vertices = mesh.getVertices();
+        // The color is stored as red, green, blue and alpha bytes
+        int r = vertices.get(TriangleMesh.COLOR_OFFSET) & 0xFF;
+        int g = vertices.get(TriangleMesh.COLOR_OFFSET + 1) & 0xFF;
+        int b = vertices.get(TriangleMesh.COLOR_OFFSET + 2) & 0xFF;
+        int a = vertices.get(TriangleMesh.COLOR_OFFSET + 3) & 0xFF;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
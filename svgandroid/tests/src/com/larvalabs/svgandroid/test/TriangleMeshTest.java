@@ -0,0 +1,70 @@
+package com.larvalabs.svgandroid.test;
+
+import com.larvalabs.svgandroid.SVGParser;
+import com.larvalabs.svgandroid.TriangleMesh;
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Checks the tessellation of paths by the area covered by their triangles. Parsing the paths uses Android's
+ * graphics classes, so like the other tests this runs on a device or emulator. The tessellation itself is checked
+ * without Android, on a plain JVM, by {@link com.larvalabs.svgandroid.TessellatorTest}.
+ */
+public class TriangleMeshTest extends TestCase {
+
+    public void testSquare() {
+        TriangleMesh mesh = TriangleMesh.fromPath(SVGParser.parsePackedPath("M0,0 L10,0 L10,10 L0,10 Z"), false, 0xFF00FF00);
+        assertEquals(100f, area(mesh), 0.001f);
+        assertEquals(1, mesh.getBatchCount());
+        assertEquals(4, mesh.getVertexCount());
+        ByteBuffer vertices = mesh.getVertices();
+        assertEquals(0, vertices.get(TriangleMesh.COLOR_OFFSET));
+        assertEquals((byte) 0xFF, vertices.get(TriangleMesh.COLOR_OFFSET + 1));
+        assertEquals((byte) 0xFF, vertices.get(TriangleMesh.COLOR_OFFSET + 3));
+    }
+
+    public void testFillRules() {
+        // Both squares wind the same way, so the inner one is only a hole under the even-odd rule
+        String d = "M0,0 L10,0 L10,10 L0,10 Z M3,3 L7,3 L7,7 L3,7 Z";
+        assertEquals(100f, area(TriangleMesh.fromPath(SVGParser.parsePackedPath(d), false, 0xFF000000)), 0.001f);
+        assertEquals(84f, area(TriangleMesh.fromPath(SVGParser.parsePackedPath(d), true, 0xFF000000)), 0.001f);
+    }
+
+    public void testSelfIntersecting() {
+        // A bow tie, made of two triangles that meet in the middle
+        String d = "M0,0 L10,10 L10,0 L0,10 Z";
+        assertEquals(50f, area(TriangleMesh.fromPath(SVGParser.parsePackedPath(d), false, 0xFF000000)), 0.001f);
+        // A star, which has a pentagon in the middle that is only filled under the non-zero rule
+        String star = "M50,0 L79,90 L2,35 L98,35 L21,90 Z";
+        float nonZero = area(TriangleMesh.fromPath(SVGParser.parsePackedPath(star), false, 0xFF000000));
+        float evenOdd = area(TriangleMesh.fromPath(SVGParser.parsePackedPath(star), true, 0xFF000000));
+        assertTrue(nonZero > evenOdd + 100);
+    }
+
+    public void testCurves() {
+        // A circle of radius 50 from two arcs
+        String d = "M0,50 A50,50 0 0,1 100,50 A50,50 0 0,1 0,50 Z";
+        float area = area(TriangleMesh.fromPath(SVGParser.parsePackedPath(d), false, 0xFF000000));
+        assertEquals((float) (Math.PI * 50 * 50), area, 30f);
+    }
+
+    /**
+     * Adds up the areas of all of the triangles in a mesh.
+     */
+    private static float area(TriangleMesh mesh) {
+        ByteBuffer vertices = mesh.getVertices();
+        ByteBuffer indices = mesh.getIndices();
+        float total = 0;
+        for (int i = 0; i < mesh.getIndexCount(); i += 3) {
+            float[] p = new float[6];
+            for (int k = 0; k < 3; k++) {
+                int index = mesh.hasShortIndices() ? indices.getShort((i + k) * 2) & 0xFFFF : indices.getInt((i + k) * 4);
+                p[2 * k] = vertices.getFloat(index * TriangleMesh.VERTEX_STRIDE + TriangleMesh.POSITION_OFFSET);
+                p[2 * k + 1] = vertices.getFloat(index * TriangleMesh.VERTEX_STRIDE + TriangleMesh.POSITION_OFFSET + 4);
+            }
+            total += Math.abs((p[2] - p[0]) * (p[5] - p[1]) - (p[4] - p[0]) * (p[3] - p[1])) / 2;
+        }
+        return total;
+    }
+}